@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.benchmark;
+
+import com.github.sdnwiselab.sdnwise.packet.ReportPacket;
+import com.github.sdnwiselab.sdnwise.simulator.Topology;
+import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures NetworkGraph.updateMap, which is called by the controller for each
+ * SDN_WISE_REPORT packet. The reports are decoded from bytes as they come from
+ * the adapter.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestionBenchmark {
+
+    @Param({"grid", "random", "line", "star"})
+    public String shape;
+
+    @Param({"50", "500", "5000"})
+    public int nodes;
+
+    private Topology topology;
+    private NetworkGraph networkGraph;
+    private byte[][] reports;
+    private byte[][] changed;
+    private boolean[] flipped;
+    private int next;
+
+    @Setup
+    public void setup() {
+        topology = Topology.create(shape, nodes, 42);
+        reports = new byte[nodes][];
+        changed = new byte[nodes][];
+        flipped = new boolean[nodes];
+        for (int i = 0; i < nodes; i++) {
+            reports[i] = topology.report(i);
+            changed[i] = topology.report(i, 10);
+        }
+        networkGraph = new NetworkGraph(Integer.MAX_VALUE, 2);
+        topology.load(networkGraph);
+    }
+
+    /**
+     * Builds the whole topology from an empty NetworkGraph, as after a start
+     * of the controller.
+     *
+     * @return the NetworkGraph
+     */
+    @Benchmark
+    public NetworkGraph build() {
+        NetworkGraph graph = new NetworkGraph(Integer.MAX_VALUE, 2);
+        for (byte[] report : reports) {
+            graph.updateMap(new ReportPacket(report));
+        }
+        return graph;
+    }
+
+    /**
+     * Receives a report that does not change the topology, which is the most
+     * common case in a stable network.
+     *
+     * @return the version of the topology
+     */
+    @Benchmark
+    public long unchanged() {
+        next = (next + 1) % nodes;
+        networkGraph.updateMap(new ReportPacket(reports[next]));
+        return networkGraph.getLastModification();
+    }
+
+    /**
+     * Receives a report whose links changed by more than the RSSI resolution,
+     * so that the version of the topology increases. The next report of the
+     * same node changes them back.
+     *
+     * @return the version of the topology
+     */
+    @Benchmark
+    public long changed() {
+        next = (next + 1) % nodes;
+        flipped[next] = !flipped[next];
+        byte[][] source = flipped[next] ? changed : reports;
+        networkGraph.updateMap(new ReportPacket(source[next]));
+        return networkGraph.getLastModification();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.benchmark;
+
+import com.github.sdnwiselab.sdnwise.adapter.Adapter;
+
+/**
+ * An adapter which is always open and drops the packets sent by the
+ * controller, counting them.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class NullAdapter extends Adapter {
+
+    private long packets;
+    private long bytes;
+
+    @Override
+    public boolean open() {
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        return true;
+    }
+
+    @Override
+    public void send(byte[] data) {
+        packets++;
+        bytes += data.length;
+    }
+
+    long getPackets() {
+        return packets;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.benchmark;
+
+import com.github.sdnwiselab.sdnwise.controller.Dijkstra;
+import com.github.sdnwiselab.sdnwise.controller.ParallelDijkstra;
+import com.github.sdnwiselab.sdnwise.controller.QueueType;
+import com.github.sdnwiselab.sdnwise.simulator.Topology;
+import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.graphstream.graph.Graph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the priority queues available to Dijkstra. The ATTRIBUTES queue is
+ * the original Dijkstra of GraphStream, which stores its state in the
+ * attributes of the nodes and uses a FibonacciHeap with every node inserted at
+ * the beginning.
+ * <p>
+ * The topology is one of the shapes of Topology or a real topology saved from
+ * a controller, for example
+ * {@code java -jar benchmarks.jar QueueBenchmark -p topology=topology.dgs}.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+
+    @Param({"ATTRIBUTES", "FIBONACCI", "BINARY", "PAIRING", "DIAL"})
+    public String queue;
+
+    @Param({"random", "grid"})
+    public String topology;
+
+    @Param({"500", "5000"})
+    public int nodes;
+
+    private Graph graph;
+    private Dijkstra dijkstra;
+    private TopologySnapshot snapshot;
+    private ParallelDijkstra engine;
+    private int source;
+
+    @Setup
+    public void setup() throws IOException {
+        NetworkGraph networkGraph = new NetworkGraph(Integer.MAX_VALUE, 0);
+        if (topology.endsWith(".dgs")) {
+            Topology.read(networkGraph, topology);
+        } else {
+            Topology.create(topology, nodes, 42).load(networkGraph);
+        }
+        graph = networkGraph.getGraph();
+        dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "length");
+        if (!"ATTRIBUTES".equals(queue)) {
+            dijkstra.setArrayMode(true);
+            dijkstra.setQueueType(QueueType.valueOf(queue));
+            engine = new ParallelDijkstra(ForkJoinPool.commonPool(),
+                    QueueType.valueOf(queue));
+        }
+        dijkstra.init(graph);
+        snapshot = networkGraph.getSnapshot();
+    }
+
+    /**
+     * Computes the tree of a different source at each call, as the controller
+     * does when the requests come from different nodes.
+     *
+     * @return the length of the path to the last node
+     */
+    @Benchmark
+    public double dijkstra() {
+        source = (source + 1) % graph.getNodeCount();
+        dijkstra.setSource(graph.getNode(source));
+        dijkstra.compute();
+        return dijkstra.getPathLength(graph.getNode(graph.getNodeCount() - 1));
+    }
+
+    /**
+     * Same as {@link #dijkstra()}, but on a TopologySnapshot. Nothing is
+     * computed for the ATTRIBUTES queue.
+     *
+     * @return the length of the path to the last node
+     */
+    @Benchmark
+    public double snapshot() {
+        if (engine == null) {
+            return 0;
+        }
+        source = (source + 1) % snapshot.getNodeCount();
+        return engine.compute(snapshot, source)
+                .getDistance(snapshot.getNodeCount() - 1);
+    }
+}
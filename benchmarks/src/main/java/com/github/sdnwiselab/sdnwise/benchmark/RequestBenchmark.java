@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.benchmark;
+
+import com.github.sdnwiselab.sdnwise.controller.ControllerDijkstra;
+import com.github.sdnwiselab.sdnwise.packet.NetworkPacket;
+import com.github.sdnwiselab.sdnwise.simulator.Topology;
+import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Controller.managePacket on the packets received from the adapter,
+ * from the decoding of the bytes to the SDN_WISE_OPEN_PATH packets sent back.
+ * The output of the controller on the standard output is dropped.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    @Param({"grid", "random", "line", "star"})
+    public String shape;
+
+    @Param({"50", "500", "5000"})
+    public int nodes;
+
+    private ControllerDijkstra controller;
+    private byte[][] requests;
+    private byte[][] reports;
+    private byte[][] changed;
+    private boolean[] flipped;
+    private int next;
+    private PrintStream out;
+    private File pathsFile;
+
+    @Setup
+    public void setup() throws IOException {
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        // ControllerDijkstra updates the paths already in this file
+        pathsFile = new File("pathsFile.txt");
+        if (!pathsFile.createNewFile()) {
+            pathsFile = null;
+        }
+
+        Topology topology = Topology.create(shape, nodes, 42);
+        NetworkGraph networkGraph = new NetworkGraph(Integer.MAX_VALUE, 2);
+        Map<String, String> conf = new HashMap<>();
+        conf.put("TYPE", "DIJKSTRA");
+        controller = new ControllerDijkstra(new NullAdapter(), networkGraph,
+                conf);
+        topology.load(networkGraph);
+
+        int[] near = topology.near(RoutingBenchmark.MAX_HOPS);
+        requests = new byte[near.length * 2][];
+        reports = new byte[near.length][];
+        changed = new byte[near.length][];
+        flipped = new boolean[near.length];
+        for (int i = 0; i < near.length; i++) {
+            requests[2 * i] = topology.request(near[i], 0);
+            requests[2 * i + 1] = topology.request(0, near[i]);
+            reports[i] = topology.report(near[i]);
+            changed[i] = topology.report(near[i], 10);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+        if (pathsFile != null) {
+            pathsFile.delete();
+        }
+    }
+
+    /**
+     * Handles a routing request in a stable network, where the path of the
+     * flow is already known.
+     */
+    @Benchmark
+    public void request() {
+        next = (next + 1) % requests.length;
+        controller.managePacket(new NetworkPacket(requests[next]));
+    }
+
+    /**
+     * Handles a report which changes the topology followed by a routing
+     * request, which needs a new path.
+     */
+    @Benchmark
+    public void reportThenRequest() {
+        next = (next + 1) % reports.length;
+        flipped[next] = !flipped[next];
+        byte[] report = flipped[next] ? changed[next] : reports[next];
+        controller.managePacket(new NetworkPacket(report));
+        controller.managePacket(new NetworkPacket(requests[2 * next]));
+    }
+}
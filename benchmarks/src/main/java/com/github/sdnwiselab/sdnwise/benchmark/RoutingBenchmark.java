@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.benchmark;
+
+import com.github.sdnwiselab.sdnwise.controller.Dijkstra;
+import com.github.sdnwiselab.sdnwise.controller.ParallelDijkstra;
+import com.github.sdnwiselab.sdnwise.controller.ShortestPathTree;
+import com.github.sdnwiselab.sdnwise.simulator.Topology;
+import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the computation of the shortest path trees and the selection of a
+ * path in a tree, the two steps of ControllerDijkstra. The selection among all
+ * the shortest paths is the one of ControllerDijkstra.chosePathBetweenAll,
+ * without writing the chosen path to pathsFile.txt.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    /**
+     * The number of hops of the paths that are selected.
+     */
+    static final int MAX_HOPS = 30;
+
+    private static final int SOURCES = 16;
+
+    @Param({"grid", "random", "line", "star"})
+    public String shape;
+
+    @Param({"50", "500", "5000"})
+    public int nodes;
+
+    private Graph graph;
+    private Dijkstra dijkstra;
+    private Dijkstra sinkTree;
+    private TopologySnapshot snapshot;
+    private ParallelDijkstra engine;
+    private ShortestPathTree tree;
+    private int[] sources;
+    private int[] targets;
+    private int source;
+    private int target;
+
+    @Setup
+    public void setup() {
+        Topology topology = Topology.create(shape, nodes, 42);
+        NetworkGraph networkGraph = new NetworkGraph(Integer.MAX_VALUE, 0);
+        topology.load(networkGraph);
+        graph = networkGraph.getGraph();
+        snapshot = networkGraph.getSnapshot();
+
+        dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "length");
+        dijkstra.setArrayMode(true);
+        dijkstra.init(graph);
+
+        int sink = snapshot.indexOf(Topology.id(0));
+        sinkTree = new Dijkstra(Dijkstra.Element.EDGE, null, "length");
+        sinkTree.setArrayMode(true);
+        sinkTree.init(graph);
+        sinkTree.setSource(graph.getNode(sink));
+        sinkTree.compute();
+
+        engine = new ParallelDijkstra();
+        tree = engine.compute(snapshot, sink);
+
+        int[] near = topology.near(MAX_HOPS);
+        targets = new int[near.length];
+        for (int i = 0; i < near.length; i++) {
+            targets[i] = snapshot.indexOf(Topology.id(near[i]));
+        }
+        sources = Arrays.copyOf(targets, Math.min(SOURCES, targets.length));
+    }
+
+    /**
+     * Computes the tree of a different source at each call with Dijkstra.
+     *
+     * @return the length of the path to the first node
+     */
+    @Benchmark
+    public double tree() {
+        source = (source + 1) % graph.getNodeCount();
+        dijkstra.setSource(graph.getNode(source));
+        dijkstra.compute();
+        return dijkstra.getPathLength(graph.getNode(0));
+    }
+
+    /**
+     * Computes the trees of 16 sources on a snapshot, as done when the paths
+     * of the active flows are pushed after a change of the topology.
+     *
+     * @return the trees
+     */
+    @Benchmark
+    public ShortestPathTree[] parallelTrees() {
+        return engine.computeAll(snapshot, sources);
+    }
+
+    /**
+     * Selects, among all the shortest paths from the sink to a node, the one
+     * whose node with the lowest battery has the highest battery.
+     *
+     * @return the chosen path
+     */
+    @Benchmark
+    public Path selectAmongAllPaths() {
+        target = (target + 1) % targets.length;
+        Path chosen = null;
+        int best = -1;
+        for (Path path : sinkTree.getAllPaths(graph.getNode(targets[target]))) {
+            int low = Integer.MAX_VALUE;
+            for (Node node : path.getNodePath()) {
+                low = Math.min(low, (int) node.getAttribute("battery"));
+            }
+            if (low > best) {
+                best = low;
+                chosen = path;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Reads the same path from a ShortestPathTree, where the choice among
+     * the shortest paths is made while the tree is computed.
+     *
+     * @return the indexes of the nodes in the path
+     */
+    @Benchmark
+    public int[] selectInTree() {
+        target = (target + 1) % targets.length;
+        return tree.getPath(targets[target]);
+    }
+}
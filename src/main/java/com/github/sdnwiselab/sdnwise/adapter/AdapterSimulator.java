@@ -0,0 +1,90 @@
+/* 
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.adapter;
+
+import com.github.sdnwiselab.sdnwise.simulator.Simulator;
+import java.util.Map;
+
+/**
+ * The adapter class for a simulated network running in the same process of
+ * the controller. Configuration data are passed using a Map<String,String>
+ * which contains the options of the Simulator.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public class AdapterSimulator extends Adapter {
+
+    private final Simulator simulator;
+
+    /**
+     * Creates an AdapterSimulator object. The conf map is passed to the
+     * Simulator.
+     *
+     * @param conf contains the simulator configuration data.
+     */
+    public AdapterSimulator(Map<String, String> conf) {
+        simulator = new Simulator(conf);
+        simulator.setLink(this::receive);
+    }
+
+    /**
+     * Returns the simulator used by this adapter.
+     *
+     * @return the Simulator
+     */
+    public final Simulator getSimulator() {
+        return simulator;
+    }
+
+    /**
+     * Opens this adapter and starts the simulated nodes.
+     *
+     * @return a boolean indicating the correct ending of the operation
+     */
+    @Override
+    public final boolean open() {
+        simulator.start();
+        return true;
+    }
+
+    /**
+     * Closes this adapter and stops the simulated nodes.
+     *
+     * @return a boolean indicating the correct ending of the operation
+     */
+    @Override
+    public final boolean close() {
+        simulator.stop();
+        return true;
+    }
+
+    /**
+     * Sends a byte array to the simulated nodes.
+     *
+     * @param data the array to be sent
+     */
+    @Override
+    public final void send(byte[] data) {
+        simulator.receive(data);
+    }
+
+    private void receive(byte[] data) {
+        setChanged();
+        notifyObservers(data);
+    }
+}
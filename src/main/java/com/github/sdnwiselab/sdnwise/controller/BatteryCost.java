@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import java.util.Map;
+
+/**
+ * This class combines the length of a link with the battery level and the
+ * drain rate of the node the link leads to. The cost of a link is
+ * <pre>
+ * COST_LENGTH * length + COST_BATTERY * (255 - battery) + COST_DRAIN * drain
+ * </pre>
+ * where a negative drain, a node being recharged, counts as zero. All the
+ * terms are in the same range of the length, so a weight of 1 makes a
+ * completely discharged node as expensive as the worst link.
+ * <p>
+ * With the default weights the cost is the length and the paths are the same
+ * found without this class.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class BatteryCost implements CostFunction {
+
+    private static final int MAX_BATTERY = 255;
+
+    private final double lengthWeight;
+    private final double batteryWeight;
+    private final double drainWeight;
+
+    /**
+     * Creates a cost function with the given weights.
+     *
+     * @param lengthWeight the weight of the length of the link
+     * @param batteryWeight the weight of the battery already consumed
+     * @param drainWeight the weight of the drain rate
+     */
+    public BatteryCost(double lengthWeight, double batteryWeight,
+            double drainWeight) {
+        if (lengthWeight < 0 || batteryWeight < 0 || drainWeight < 0) {
+            throw new IllegalArgumentException("Negative weight");
+        }
+        this.lengthWeight = lengthWeight;
+        this.batteryWeight = batteryWeight;
+        this.drainWeight = drainWeight;
+    }
+
+    /**
+     * Creates a cost function reading the weights from the conf map, where
+     * the optional parameters are:
+     * <ol>
+     * <li>COST_LENGTH, the weight of the length of the link, 1 by
+     * default</li>
+     * <li>COST_BATTERY, the weight of the battery already consumed, 0 by
+     * default</li>
+     * <li>COST_DRAIN, the weight of the drain rate, 0 by default</li>
+     * </ol>
+     *
+     * @param conf contains the algorithm configuration data
+     */
+    public BatteryCost(Map<String, String> conf) {
+        this(Double.parseDouble(conf.getOrDefault("COST_LENGTH", "1")),
+                Double.parseDouble(conf.getOrDefault("COST_BATTERY", "0")),
+                Double.parseDouble(conf.getOrDefault("COST_DRAIN", "0")));
+    }
+
+    /**
+     * Tells if the cost of every link is an integer, as needed by the DIAL
+     * queue. It is when the weights of the length and of the battery are
+     * integers and the drain rate, which is not an integer, does not count.
+     *
+     * @return true if the costs are integers
+     */
+    public boolean isIntegral() {
+        return lengthWeight == Math.rint(lengthWeight)
+                && batteryWeight == Math.rint(batteryWeight)
+                && drainWeight == 0;
+    }
+
+    @Override
+    public double cost(int length, int battery, double drain) {
+        return lengthWeight * length
+                + batteryWeight * (MAX_BATTERY - battery)
+                + (drain > 0 ? drainWeight * drain : 0);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.packet.ConfigPacket;
+import static com.github.sdnwiselab.sdnwise.packet.NetworkPacket.SDN_WISE_DFLT_HDR_LEN;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class exchanges many config packets with the nodes at the same time.
+ * Instead of waiting for the answer of each query, as Controller.sendQuery
+ * does, the writes and the reads of a window of exchanges are sent in a row
+ * and the answers are collected as they arrive, until all of them are
+ * received or a timeout expires, then the next window is sent. The exchanges
+ * without an answer, or whose answer does not match the value written, are
+ * repeated.
+ * <p>
+ * All the packets go through a sink, which forwards them one at a time, so
+ * the packets sent to the same sink are spaced by a minimum interval even when
+ * they come from different threads.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class ConfigPipeline {
+
+    private final Controller controller;
+    private final long interval;
+    private final long timeout;
+    private final int retries;
+    private final int window;
+    private final Map<NodeAddress, long[]> slots = new HashMap<>();
+
+    /**
+     * Creates a pipeline. The conf map contains the options of the algorithm
+     * as strings. Optional parameters are:
+     * <ol>
+     * <li>CONFIG_INTERVAL, minimum time in milliseconds between two config
+     * packets sent through the same sink, 20 by default</li>
+     * <li>CONFIG_TIMEOUT, time in milliseconds to wait for the answers of a
+     * round of queries, 500 by default</li>
+     * <li>CONFIG_RETRIES, how many times an exchange without a valid answer is
+     * repeated, 2 by default</li>
+     * <li>CONFIG_WINDOW, maximum number of exchanges waiting for their answer
+     * at the same time, 16 by default</li>
+     * </ol>
+     *
+     * @param controller the controller sending the packets
+     * @param conf contains the algorithm configuration data
+     */
+    ConfigPipeline(Controller controller, Map<String, String> conf) {
+        this.controller = controller;
+        interval = Long.parseLong(conf.getOrDefault("CONFIG_INTERVAL", "20"));
+        timeout = Long.parseLong(conf.getOrDefault("CONFIG_TIMEOUT", "500"));
+        retries = Integer.parseInt(conf.getOrDefault("CONFIG_RETRIES", "2"));
+        window = Integer.parseInt(conf.getOrDefault("CONFIG_WINDOW", "16"));
+        if (window < 1) {
+            throw new IllegalArgumentException(
+                    "CONFIG_WINDOW must be at least 1: " + window);
+        }
+    }
+
+    /**
+     * Runs many exchanges through the same sink and returns when all of them
+     * are complete or the retries are over. The answers are stored in the
+     * exchanges.
+     *
+     * @param sink the address of the sink
+     * @param exchanges the exchanges to run
+     * @return the number of exchanges without a valid answer
+     */
+    int run(NodeAddress sink, List<Exchange> exchanges) {
+        List<Exchange> pending = new ArrayList<>(exchanges);
+        for (int round = 0; round <= retries && !pending.isEmpty(); round++) {
+            if (round > 0) {
+                // answers arrived after the timeout of the previous round
+                pending.removeIf(e -> {
+                    ConfigPacket late = controller.replies.take(e.key);
+                    if (late != null && e.accept(late)) {
+                        e.answer = late;
+                        return true;
+                    }
+                    return false;
+                });
+            }
+            List<Exchange> missing = new ArrayList<>();
+            boolean interrupted = false;
+            for (int from = 0; from < pending.size(); from += window) {
+                List<Exchange> part = pending.subList(from,
+                        Math.min(from + window, pending.size()));
+                if (interrupted) {
+                    missing.addAll(part);
+                } else {
+                    interrupted = !exchange(sink, part, round, missing);
+                }
+            }
+            pending = missing;
+            if (interrupted) {
+                break;
+            }
+        }
+        return pending.size();
+    }
+
+    /**
+     * Sends the packets of a window of exchanges and waits for their answers.
+     * The exchanges without a valid answer are added to missing.
+     *
+     * @return false if the thread was interrupted
+     */
+    private boolean exchange(NodeAddress sink, List<Exchange> part, int round,
+            List<Exchange> missing) {
+        for (Exchange e : part) {
+            if (e.write != null && (round > 0 || !e.written)) {
+                send(sink, e.write);
+            }
+        }
+        List<CompletableFuture<ConfigPacket>> waiters = new ArrayList<>(part.size());
+        for (Exchange e : part) {
+            CompletableFuture<ConfigPacket> waiter = null;
+            // the waiter is registered just before the read leaves
+            if (awaitSlot(sink)) {
+                waiter = controller.replies.expect(e.key);
+                controller.sendNetworkPacket(e.read);
+            }
+            waiters.add(waiter);
+        }
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean interrupted = Thread.currentThread().isInterrupted();
+        for (int i = 0; i < part.size(); i++) {
+            Exchange e = part.get(i);
+            CompletableFuture<ConfigPacket> waiter = waiters.get(i);
+            ConfigPacket answer = null;
+            if (waiter != null) {
+                try {
+                    answer = interrupted ? waiter.getNow(null)
+                            : waiter.get(Math.max(0,
+                                    deadline - System.nanoTime()),
+                                    TimeUnit.NANOSECONDS);
+                } catch (TimeoutException | ExecutionException ex) {
+                    answer = null;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    interrupted = true;
+                }
+                controller.replies.cancel(e.key, waiter);
+            }
+            if (answer != null && e.accept(answer)) {
+                e.answer = answer;
+            } else {
+                missing.add(e);
+            }
+        }
+        return !interrupted;
+    }
+
+    /**
+     * Sends a packet through a sink, waiting for the next free slot of the
+     * sink.
+     *
+     * @param sink the address of the sink
+     * @param packet the packet to send
+     */
+    void send(NodeAddress sink, ConfigPacket packet) {
+        if (awaitSlot(sink)) {
+            controller.sendNetworkPacket(packet);
+        }
+    }
+
+    /**
+     * Waits for the next free slot of a sink.
+     *
+     * @param sink the address of the sink
+     * @return false if the thread was interrupted while waiting
+     */
+    private boolean awaitSlot(NodeAddress sink) {
+        long wait;
+        synchronized (slots) {
+            long[] next = slots.computeIfAbsent(sink, k -> new long[1]);
+            long now = System.nanoTime();
+            long slot = Math.max(now, next[0]);
+            next[0] = slot + TimeUnit.MILLISECONDS.toNanos(interval);
+            wait = slot - now;
+        }
+        return wait <= 0 || sleep(TimeUnit.NANOSECONDS.toMillis(wait));
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * A query sent to a node, optionally preceded by a write of the same
+     * parameter. When there is a write, the answer is valid only if it holds
+     * the value written.
+     */
+    static final class Exchange {
+
+        final ConfigPacket write;
+        final ConfigPacket read;
+        final long key;
+        boolean written;
+        ConfigPacket answer;
+
+        /**
+         * Creates an exchange reading a parameter.
+         *
+         * @param read the packet reading the parameter
+         */
+        Exchange(ConfigPacket read) {
+            this(null, read);
+        }
+
+        /**
+         * Creates an exchange writing a parameter and reading it back.
+         *
+         * @param write the packet writing the parameter, null for a read only
+         * @param read the packet reading the parameter
+         */
+        Exchange(ConfigPacket write, ConfigPacket read) {
+            this.write = write;
+            this.read = read;
+            this.key = ReplyTable.queryKey(read);
+        }
+
+        /**
+         * Creates the exchange writing a parameter, the read is the write
+         * without the value and without the write flag.
+         *
+         * @param write the packet writing the parameter
+         * @return the exchange
+         */
+        static Exchange readBack(ConfigPacket write) {
+            byte[] r = Arrays.copyOf(write.toByteArray(), SDN_WISE_DFLT_HDR_LEN + 1);
+            r[0] = (byte) r.length;
+            r[SDN_WISE_DFLT_HDR_LEN] &= 0x7F;
+            return new Exchange(write, new ConfigPacket(r));
+        }
+
+        boolean accept(ConfigPacket answer) {
+            if (write == null) {
+                return true;
+            }
+            byte[] w = write.toByteArray();
+            byte[] a = answer.toByteArray();
+            return Arrays.equals(
+                    Arrays.copyOfRange(w, SDN_WISE_DFLT_HDR_LEN + 1, w.length),
+                    Arrays.copyOfRange(a, SDN_WISE_DFLT_HDR_LEN + 1, a.length));
+        }
+
+        /**
+         * Checks if the exchange received a valid answer.
+         *
+         * @return true if the exchange is complete
+         */
+        boolean isDone() {
+            return answer != null;
+        }
+    }
+}
@@ -17,8 +17,11 @@
 package com.github.sdnwiselab.sdnwise.controller;
 
 import com.github.sdnwiselab.sdnwise.adapter.Adapter;
+import com.github.sdnwiselab.sdnwise.controller.ConfigPipeline.Exchange;
 import com.github.sdnwiselab.sdnwise.flowtable.FlowTableEntry;
-import com.github.sdnwiselab.sdnwise.function.FunctionInterface;
+import com.github.sdnwiselab.sdnwise.metrics.Metrics;
+import com.github.sdnwiselab.sdnwise.metrics.Tracer;
+import com.github.sdnwiselab.sdnwise.northbound.NorthboundServer;
 import com.github.sdnwiselab.sdnwise.packet.ConfigAcceptedIdPacket;
 import com.github.sdnwiselab.sdnwise.packet.ConfigFunctionPacket;
 import com.github.sdnwiselab.sdnwise.packet.ConfigNodePacket;
@@ -33,18 +36,20 @@ import com.github.sdnwiselab.sdnwise.packet.OpenPathPacket;
 import com.github.sdnwiselab.sdnwise.packet.ReportPacket;
 import com.github.sdnwiselab.sdnwise.packet.ResponsePacket;
 import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
 import com.github.sdnwiselab.sdnwise.util.NodeAddress;
-import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import net.jodah.expiringmap.ExpiringMap;
 
 /**
  * This class holds a representation of the sensor network and resolves all the
@@ -71,17 +76,27 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
     final Scanner scanner;
     final NetworkGraph networkGraph;
 
-    final HashMap<NodeAddress, LinkedList<NodeAddress>> results;
     private boolean isStopped;
-    private final ArrayBlockingQueue<NetworkPacket> bQ;
+    private final ArrayBlockingQueue<Received> bQ;
+    private final Map<Integer, ArrayBlockingQueue<Received>> networkQueues;
 
-    final Map<String, ConfigPacket> cache = ExpiringMap.builder()
-            .expiration(5, TimeUnit.SECONDS)
-            .build();
+    final ReplyTable replies = new ReplyTable(5000);
 
+    final PathLedger ledger;
+    final ControllerMetrics metrics;
+    final FunctionDistributor functions;
+    private final ConfigPipeline pipeline;
+    private final TreeDisseminator disseminator;
+    final ShadowTables shadow;
+    private final ControllerCluster cluster;
+    private final Map<String, String> conf;
 
     private final NodeAddress sinkAddress;
 
+    private static final Function<NetworkPacket, ConfigPacket>[] CONFIG_TYPES
+            = configTypes();
+    private final Consumer<ConfigPacket>[] configHandlers = configHandlers();
+
     public NodeAddress getSinkAddress() {
         return sinkAddress;
     }
@@ -94,22 +109,149 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
      * @param networkGraph NetworkGraph object.
      */
     Controller(Adapter lower, NetworkGraph networkGraph) {
+        this(lower, networkGraph, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructor Method for the Controller Class. The conf map contains the
+     * options of the algorithm as strings. Optional parameters are:
+     * <ol>
+     * <li>RULE_TTL, time in seconds a node keeps a rule installed by a
+     * SDN_WISE_OPEN_PATH message</li>
+     * <li>METRICS_PORT, local port of the HTTP server exporting the metrics
+     * of the controller, 0 to disable it</li>
+     * <li>METRICS_INTERVAL, time in seconds between two log lines with the
+     * metrics of the controller, 0 to disable them</li>
+     * <li>TRACE_SIZE, TRACE_SLOW and TRACE_SAMPLE, which traces of the
+     * management of the packets are kept, see getTracer</li>
+     * <li>API_PORT, local port of the REST/JSON API, 0 to disable it. See
+     * NorthboundServer for the other options of the API</li>
+     * <li>FUNCTION_INTERVAL, FUNCTION_ACK, FUNCTION_ACK_TIMEOUT,
+     * FUNCTION_RETRIES and FUNCTION_TIMEOUT, how functions are sent to the
+     * nodes, see
+     * FunctionDistributor</li>
+     * <li>CONFIG_INTERVAL, CONFIG_TIMEOUT, CONFIG_RETRIES and CONFIG_WINDOW,
+     * how the config packets of the bulk operations are sent, see
+     * ConfigPipeline</li>
+     * <li>BROADCAST, how a configuration is sent to many nodes, see
+     * TreeDisseminator</li>
+     * <li>SHADOW_INTERVAL and SHADOW_SAMPLE, how often the copies of the
+     * flow tables are compared with the nodes, off by default, see
+     * ShadowTables</li>
+     * <li>NETWORK_WORKERS, TRUE to manage the packets of each netId in its
+     * own thread, so that a busy network does not slow down the others</li>
+     * <li>CLUSTER_PORT, local UDP port used to join a cluster of controllers,
+     * 0 to disable it. It requires CLUSTER_SECRET, see ControllerCluster for
+     * the other options of the cluster</li>
+     * </ol>
+     *
+     * @param lower Lower Adpater object.
+     * @param networkGraph NetworkGraph object.
+     * @param conf contains the algorithm configuration data.
+     */
+    Controller(Adapter lower, NetworkGraph networkGraph,
+            Map<String, String> conf) {
+        String ruleTtl = conf.get("RULE_TTL");
+        long ttl = (ruleTtl == null ? 100 : Long.parseLong(ruleTtl)) * 1000L;
         this.lower = lower;
         bQ = new ArrayBlockingQueue<>(1000);
+        networkQueues = Boolean.parseBoolean(conf.get("NETWORK_WORKERS"))
+                ? new ConcurrentHashMap<>() : null;
         this.networkGraph = networkGraph;
-        results = new HashMap<>();
         scanner = new Scanner(System.in, "UTF-8");
         isStopped = false;
         sinkAddress = new NodeAddress("0.1");
+        metrics = new ControllerMetrics(conf);
+        ledger = new PathLedger(ttl, metrics.registry.counter(
+                "sdnwise_open_path_sent_total",
+                "SDN_WISE_OPEN_PATH messages sent"),
+                metrics.registry.counter("sdnwise_open_path_suppressed_total",
+                        "SDN_WISE_OPEN_PATH messages not sent because already installed"));
+        this.conf = conf;
+        functions = new FunctionDistributor(this, conf);
+        pipeline = new ConfigPipeline(this, conf);
+        disseminator = new TreeDisseminator(this, pipeline, conf);
+        shadow = new ShadowTables(metrics.registry, ttl, conf);
+        int clusterPort = Integer.parseInt(conf.getOrDefault("CLUSTER_PORT", "0"));
+        cluster = clusterPort > 0
+                ? new ControllerCluster(this, clusterPort, conf) : null;
+        metrics.registry.gauge("sdnwise_queue_depth",
+                "Packets waiting to be managed", this::queueDepth);
+        metrics.registry.gauge("sdnwise_topology_nodes",
+                "Nodes in the topology", networkGraph::getNodeCount);
+        metrics.registry.gauge("sdnwise_topology_links",
+                "Links in the topology", networkGraph::getEdgeCount);
+        metrics.registry.gauge("sdnwise_topology_networks",
+                "Networks in the topology", () -> networkGraph.getNetIds().size());
+        metrics.registry.gauge("sdnwise_topology_version",
+                "Changes of the topology since the start of the controller",
+                () -> networkGraph.getLastModification() - Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns the metrics measured by this controller.
+     *
+     * @return the Metrics registry of the controller
+     */
+    public final Metrics getMetrics() {
+        return metrics.registry;
     }
 
+    /**
+     * Returns the traces of the management of the packets. By default the
+     * traces longer than TRACE_SLOW milliseconds (20) and one every
+     * TRACE_SAMPLE (100) other traces are kept, up to TRACE_SIZE (256) of
+     * each kind. The traces can also be printed writing "trace -l Controller"
+     * on the standard input.
+     *
+     * @return the Tracer of the controller
+     */
+    public final Tracer getTracer() {
+        return metrics.tracer;
+    }
+
+    /**
+     * Returns the routes currently known by the controller. The default
+     * implementation does not remember any route.
+     *
+     * @return a map from the flow id, in the form source-destination, to the
+     * addresses of the nodes in its path
+     */
+    public Map<String, List<NodeAddress>> getRoutes() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Manages a packet received from the lower adapter.
+     *
+     * @param data the packet
+     */
     public void managePacket(NetworkPacket data) {
+        managePacket(new PacketView().wrap(data.toByteArray()));
+    }
+
+    /**
+     * Manages a packet received from the lower adapter. The packet is
+     * dispatched reading its header from the view, and the NetworkPacket and
+     * the typed packets are created only when needed.
+     *
+     * @param view the view of the packet
+     */
+    void managePacket(PacketView view) {
 
-        switch (data.getType()) {
+        if (cluster != null) {
+            cluster.attached(view.getNetId());
+        }
+        switch (view.getType()) {
             case SDN_WISE_REPORT:
-                networkGraph.updateMap(new ReportPacket(data));
+                ReportPacket report = view.toReportPacket();
+                networkGraph.updateMap(report);
+                metrics.tracer.mark("updateMap");
+                if (cluster != null) {
+                    cluster.replicate(view.array());
+                }
                 //This call is needed to recalculate the paths in a regular basis, even if it not a request
-                manageRoutingRequest(data);
+                manageRoutingRequest(report);
                 break;
             case SDN_WISE_DATA:
             case SDN_WISE_BEACON:
@@ -117,58 +259,80 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
             case SDN_WISE_OPEN_PATH:
                 break;
             case SDN_WISE_CONFIG:
-
-                ConfigPacket cp = new ConfigPacket(data);
-
-                if ((cp.getConfigId() == ConfigNodePacket.SDN_WISE_CNF_ID_ADDR)
-                        || (cp.getConfigId() == ConfigNodePacket.SDN_WISE_CNF_ID_NET_ID)
-                        || (cp.getConfigId() == ConfigNodePacket.SDN_WISE_CNF_RESET)
-                        || (cp.getConfigId() == ConfigNodePacket.SDN_WISE_CNF_ID_TTL_MAX)
-                        || (cp.getConfigId() == ConfigNodePacket.SDN_WISE_CNF_ID_RSSI_MIN)) {
-                    cp = new ConfigNodePacket(data);
-                } else if ((cp.getConfigId() == ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_BEACON_MAX)
-                        || (cp.getConfigId() == ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_REPORT_MAX)
-                        || (cp.getConfigId() == ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_UPDTABLE_MAX)
-                        || (cp.getConfigId() == ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_SLEEP_MAX)) {
-                    cp = new ConfigTimerPacket(data);
-                } else if ((cp.getConfigId() == ConfigAcceptedIdPacket.SDN_WISE_CNF_ADD_ACCEPTED)
-                        || (cp.getConfigId() == ConfigAcceptedIdPacket.SDN_WISE_CNF_LIST_ACCEPTED)
-                        || (cp.getConfigId() == ConfigAcceptedIdPacket.SDN_WISE_CNF_REMOVE_ACCEPTED)) {
-                    cp = new ConfigAcceptedIdPacket(data);
-                } else if ((cp.getConfigId() == ConfigRulePacket.SDN_WISE_CNF_ADD_RULE)
-                        || (cp.getConfigId() == ConfigRulePacket.SDN_WISE_CNF_GET_RULE_INDEX)
-                        || (cp.getConfigId() == ConfigRulePacket.SDN_WISE_CNF_REMOVE_RULE)
-                        || (cp.getConfigId() == ConfigRulePacket.SDN_WISE_CNF_REMOVE_RULE_INDEX)) {
-                    cp = new ConfigRulePacket(data);
-                } else if ((cp.getConfigId() == ConfigFunctionPacket.SDN_WISE_CNF_ADD_FUNCTION)
-                        || (cp.getConfigId() == ConfigFunctionPacket.SDN_WISE_CNF_REMOVE_FUNCTION)) {
-                    cp = new ConfigFunctionPacket(data);
-                } else {
-                    cp = new ConfigSecurityPacket(data);
+                int id = view.getConfigId();
+                if (id >= 0) {
+                    ConfigPacket cp = CONFIG_TYPES[id].apply(view.toNetworkPacket());
+                    configHandlers[id].accept(cp);
                 }
-
-                String key;
-                if (cp.getPayloadAt(0) == (SDN_WISE_CNF_GET_RULE_INDEX)) {
-                    key = cp.getNetId() + " "
-                            + cp.getSrc() + " "
-                            + cp.getPayloadAt(0) + " "
-                            + cp.getPayloadAt(1) + " "
-                            + cp.getPayloadAt(2);
-                } else {
-                    key = cp.getNetId() + " "
-                            + cp.getSrc() + " "
-                            + cp.getPayloadAt(0);
-                }
-                cache.put(key, cp);
                 break;
             default:
-                if (data.isRequest()) {
-                    manageRoutingRequest(data);
+                if (view.isRequest()) {
+                    manageRoutingRequest(view.toNetworkPacket());
                 }
                 break;
         }
     }
 
+    /**
+     * Returns for each config id the constructor of the typed config packet.
+     */
+    @SuppressWarnings("unchecked")
+    private static Function<NetworkPacket, ConfigPacket>[] configTypes() {
+        Function<NetworkPacket, ConfigPacket>[] types = new Function[128];
+        Arrays.fill(types, (Function<NetworkPacket, ConfigPacket>) ConfigSecurityPacket::new);
+        for (int id : new int[]{ConfigNodePacket.SDN_WISE_CNF_ID_ADDR,
+            ConfigNodePacket.SDN_WISE_CNF_ID_NET_ID,
+            ConfigNodePacket.SDN_WISE_CNF_RESET,
+            ConfigNodePacket.SDN_WISE_CNF_ID_TTL_MAX,
+            ConfigNodePacket.SDN_WISE_CNF_ID_RSSI_MIN}) {
+            types[id] = ConfigNodePacket::new;
+        }
+        for (int id : new int[]{ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_BEACON_MAX,
+            ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_REPORT_MAX,
+            ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_UPDTABLE_MAX,
+            ConfigTimerPacket.SDN_WISE_CNF_ID_CNT_SLEEP_MAX}) {
+            types[id] = ConfigTimerPacket::new;
+        }
+        for (int id : new int[]{ConfigAcceptedIdPacket.SDN_WISE_CNF_ADD_ACCEPTED,
+            ConfigAcceptedIdPacket.SDN_WISE_CNF_LIST_ACCEPTED,
+            ConfigAcceptedIdPacket.SDN_WISE_CNF_REMOVE_ACCEPTED}) {
+            types[id] = ConfigAcceptedIdPacket::new;
+        }
+        for (int id : new int[]{ConfigRulePacket.SDN_WISE_CNF_ADD_RULE,
+            ConfigRulePacket.SDN_WISE_CNF_GET_RULE_INDEX,
+            ConfigRulePacket.SDN_WISE_CNF_REMOVE_RULE,
+            ConfigRulePacket.SDN_WISE_CNF_REMOVE_RULE_INDEX}) {
+            types[id] = ConfigRulePacket::new;
+        }
+        for (int id : new int[]{ConfigFunctionPacket.SDN_WISE_CNF_ADD_FUNCTION,
+            ConfigFunctionPacket.SDN_WISE_CNF_REMOVE_FUNCTION}) {
+            types[id] = ConfigFunctionPacket::new;
+        }
+        return types;
+    }
+
+    /**
+     * Returns for each config id what to do with a config packet sent by a
+     * node. By default the packet is the answer to a query.
+     */
+    @SuppressWarnings("unchecked")
+    private Consumer<ConfigPacket>[] configHandlers() {
+        Consumer<ConfigPacket>[] handlers = new Consumer[128];
+        Consumer<ConfigPacket> reply = cp -> replies.put(ReplyTable.replyKey(cp), cp);
+        Arrays.fill(handlers, reply);
+        handlers[ConfigFunctionPacket.SDN_WISE_CNF_ADD_FUNCTION] = cp -> {
+            if (!functions.acknowledge(cp)) {
+                reply.accept(cp);
+            }
+        };
+        handlers[SDN_WISE_CNF_GET_RULE_INDEX] = cp -> {
+            shadow.observed((byte) cp.getNetId(), cp.getSrc(),
+                    cp.getPayloadAt(2), ((ConfigRulePacket) cp).getRule());
+            reply.accept(cp);
+        };
+        return handlers;
+    }
+
     /**
      * This methods manages updates coming from the lower adapter or the network
      * representation. When a message is received from the lower adapter it is
@@ -183,13 +347,58 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
     public void update(Observable o, Object arg) {
         if (o.equals(lower)) {
             try {
-                bQ.put(new NetworkPacket((byte[]) arg));
+                byte[] bytes = (byte[]) arg;
+                metrics.packetsIn.inc();
+                metrics.bytesIn.add(bytes.length);
+                queueOf(bytes).put(new Received(bytes));
             } catch (InterruptedException ex) {
                 log(Level.SEVERE, ex.getMessage());
             }
         } else if (o.equals(networkGraph)) {
-            graphUpdate();
+            metrics.topologyChanges.inc();
+            if (arg instanceof Integer) {
+                graphUpdate((Integer) arg);
+            } else {
+                graphUpdate();
+            }
+        }
+    }
+
+    /**
+     * Method called when the topology of a single network changes. By default
+     * it calls graphUpdate.
+     *
+     * @param netId the network id of the network that changed
+     */
+    public void graphUpdate(int netId) {
+        graphUpdate();
+    }
+
+    /**
+     * Returns the queue of a packet. When NETWORK_WORKERS is enabled each
+     * netId has its own queue and its own worker, started with the first
+     * packet of the network.
+     */
+    private ArrayBlockingQueue<Received> queueOf(byte[] bytes) {
+        if (networkQueues == null || bytes.length < 2) {
+            return bQ;
         }
+        return networkQueues.computeIfAbsent(bytes[1] & 0xFF, netId -> {
+            ArrayBlockingQueue<Received> q = new ArrayBlockingQueue<>(1000);
+            Thread th = new Thread(new Worker(q), "Worker-" + netId);
+            th.start();
+            return q;
+        });
+    }
+
+    private long queueDepth() {
+        long depth = bQ.size();
+        if (networkQueues != null) {
+            for (ArrayBlockingQueue<Received> q : networkQueues.values()) {
+                depth += q.size();
+            }
+        }
+        return depth;
     }
 
     /**
@@ -199,6 +408,12 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
     @Override
     public void run() {
         if (lower.open()) {
+            metrics.start(this);
+            shadow.start(this);
+            if (cluster != null) {
+                cluster.start();
+            }
+            NorthboundServer api = startApi();
             Thread th = new Thread(new Worker(bQ));
             th.start();
             lower.addObserver(this);
@@ -206,10 +421,21 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
             register();
             setupNetwork();
             while (!isStopped) {
-                if (scanner.nextLine().equals("exit -l Controller")) {
+                String line = scanner.nextLine();
+                if (line.equals("exit -l Controller")) {
                     isStopped = true;
+                } else if (line.equals("trace -l Controller")) {
+                    System.out.print(metrics.tracer.dump());
                 }
             }
+            metrics.stop();
+            shadow.stop();
+            if (cluster != null) {
+                cluster.stop();
+            }
+            if (api != null) {
+                api.stop();
+            }
             lower.close();
         }
     }
@@ -230,6 +456,55 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
         op.setPath(path)
                 .setNxhop(sinkAddress);
         sendNetworkPacket(op);
+        if (!path.isEmpty()) {
+            ledger.sent(netId, path);
+            shadow.installed(netId, path);
+        }
+    }
+
+    /**
+     * Checks if this controller owns a network. Without a cluster the
+     * controller owns all the networks, otherwise only the owner of a network
+     * runs its background work, see ControllerCluster.
+     *
+     * @param netId network id
+     * @return true if this controller owns the network
+     */
+    @Override
+    public final boolean isOwner(int netId) {
+        return cluster == null || cluster.isOwner(netId);
+    }
+
+    /**
+     * Returns the ids of the live members of the cluster of this controller.
+     *
+     * @return the ids of the members, this one included, an empty set if the
+     * controller is not in a cluster
+     */
+    @Override
+    public final Set<Integer> getClusterMembers() {
+        return cluster == null ? Collections.<Integer>emptySet()
+                : cluster.getMembers();
+    }
+
+    /**
+     * Returns the number of SDN_WISE_OPEN_PATH messages sent by the
+     * controller.
+     *
+     * @return the number of paths sent
+     */
+    public final long getOpenPathSent() {
+        return ledger.getSent();
+    }
+
+    /**
+     * Returns the number of SDN_WISE_OPEN_PATH messages not sent because the
+     * same path was already installed in the network.
+     *
+     * @return the number of paths suppressed
+     */
+    public final long getOpenPathSuppressed() {
+        return ledger.getSuppressed();
     }
 
     /**
@@ -239,37 +514,27 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
      * @param packet the packet to be sent.
      */
     public void sendNetworkPacket(NetworkPacket packet) {
-        lower.send(packet.toByteArray());
+        byte[] bytes = packet.toByteArray();
+        metrics.sent[ControllerMetrics.typeOf(packet)].inc();
+        metrics.packetsOut.inc();
+        metrics.bytesOut.add(bytes.length);
+        lower.send(bytes);
     }
 
     private ConfigPacket sendQuery(ConfigPacket cp) throws TimeoutException {
 
+        long key = ReplyTable.queryKey(cp);
+        CompletableFuture<ConfigPacket> answer = replies.expect(key);
         sendNetworkPacket(cp);
 
         try {
-            Thread.sleep(RESPONSE_TIMEOUT);
-        } catch (InterruptedException ex) {
+            return answer.get(RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException ex) {
             log(Level.SEVERE, ex.getMessage());
+        } finally {
+            replies.cancel(key, answer);
         }
-
-        String key;
-
-        if (cp.getPayloadAt(0) == (SDN_WISE_CNF_GET_RULE_INDEX)) {
-            key = cp.getNetId() + " "
-                    + cp.getDst() + " "
-                    + cp.getPayloadAt(0) + " "
-                    + cp.getPayloadAt(1) + " "
-                    + cp.getPayloadAt(2);
-        } else {
-            key = cp.getNetId() + " "
-                    + cp.getDst() + " "
-                    + cp.getPayloadAt(0);
-        }
-        if (cache.containsKey(key)) {
-            return cache.remove(key);
-        } else {
-            throw new TimeoutException("No answer from the node");
-        }
+        throw new TimeoutException("No answer from the node");
     }
 
     /**
@@ -645,6 +910,7 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
         rp.setRule(rule)
                 .setNxhop(sinkAddress);
         sendNetworkPacket(rp);
+        shadow.added(netId, destination, rule);
     }
 
     /**
@@ -661,6 +927,7 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
         cp.setRemoveRuleAtPositionValue(index)
                 .setNxhop(sinkAddress);
         sendNetworkPacket(cp);
+        shadow.removed(netId, destination, index);
     }
 
     /**
@@ -677,23 +944,119 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
         cp.setRemoveRuleValue(rule)
                 .setNxhop(sinkAddress);
         sendNetworkPacket(cp);
+        shadow.removed(netId, destination, rule);
     }
 
     /**
-     * This method gets the WISE flow table of a node.
+     * This method gets the WISE flow table of a node. The queries for all the
+     * positions are sent in a row and only the positions without an answer
+     * are asked again.
      *
      * @param netId network id of the destination node.
      * @param destination network address of the destination node.
-     * @return returns the list of the entries in the WISE Flow Table.
+     * @return returns the list of the entries in the WISE Flow Table, null
+     * for the positions the node did not answer.
      */
     @Override
     public final List<FlowTableEntry> getRules(byte netId,
             NodeAddress destination) {
-        List<FlowTableEntry> list = new ArrayList<>(SDN_WISE_RLS_MAX);
+        return getRules(netId, Collections.singleton(destination))
+                .get(destination);
+    }
+
+    /**
+     * This method gets the WISE flow tables of many nodes. The queries of all
+     * the nodes are interleaved, so that the same node does not receive two
+     * queries in a row.
+     *
+     * @param netId network id of the destination nodes.
+     * @param destinations network addresses of the destination nodes.
+     * @return returns for each node the list of the entries in its WISE Flow
+     * Table, null for the positions the node did not answer.
+     */
+    @Override
+    public final Map<NodeAddress, List<FlowTableEntry>> getRules(byte netId,
+            Collection<NodeAddress> destinations) {
+        Set<NodeAddress> nodes = new LinkedHashSet<>(destinations);
+        Map<NodeAddress, Exchange[]> byNode = new LinkedHashMap<>();
+        for (NodeAddress dest : nodes) {
+            byNode.put(dest, new Exchange[SDN_WISE_RLS_MAX]);
+        }
+        List<Exchange> all = new ArrayList<>(nodes.size() * SDN_WISE_RLS_MAX);
         for (int i = 0; i < SDN_WISE_RLS_MAX; i++) {
-            list.add(i, getRuleAtPosition(netId, destination, i));
+            for (Map.Entry<NodeAddress, Exchange[]> e : byNode.entrySet()) {
+                ConfigRulePacket cp = new ConfigRulePacket(netId, sinkAddress,
+                        e.getKey());
+                cp.setReadRuleAtPositionValue(i)
+                        .setNxhop(sinkAddress);
+                e.getValue()[i] = new Exchange(cp);
+                all.add(e.getValue()[i]);
+            }
+        }
+        int missing = pipeline.run(sinkAddress, all);
+        if (missing > 0) {
+            log(Level.WARNING, missing + " of " + all.size()
+                    + " rules not received");
         }
-        return list;
+        Map<NodeAddress, List<FlowTableEntry>> result = new LinkedHashMap<>();
+        for (Map.Entry<NodeAddress, Exchange[]> e : byNode.entrySet()) {
+            List<FlowTableEntry> list = new ArrayList<>(SDN_WISE_RLS_MAX);
+            for (Exchange x : e.getValue()) {
+                list.add(x.isDone() ? new ConfigRulePacket(x.answer).getRule() : null);
+            }
+            result.put(e.getKey(), list);
+        }
+        return result;
+    }
+
+    /**
+     * This method returns the copy of the WISE flow table of a node kept by
+     * the controller, without querying the node.
+     *
+     * @param netId network id of the node.
+     * @param destination network address of the node.
+     * @return returns the list of the entries the node is expected to hold,
+     * null for the free positions and for the rules installed by a path and
+     * not read from the node yet.
+     */
+    @Override
+    public final List<FlowTableEntry> getShadowRules(byte netId,
+            NodeAddress destination) {
+        return shadow.getRules(netId, destination);
+    }
+
+    /**
+     * This method returns the next hop towards a destination that a node is
+     * expected to use because of a path installed by the controller, without
+     * querying the node.
+     *
+     * @param netId network id of the node.
+     * @param node network address of the node.
+     * @param destination network address of the destination.
+     * @return returns the next hop, null if no path to the destination is
+     * installed in the node.
+     */
+    @Override
+    public final NodeAddress getShadowNextHop(byte netId, NodeAddress node,
+            NodeAddress destination) {
+        return shadow.getNextHop(netId, node, destination);
+    }
+
+    /**
+     * This method gets the WISE flow tables of all the nodes of a network.
+     *
+     * @param netId network id of the nodes.
+     * @return returns for each node the list of the entries in its WISE Flow
+     * Table, null for the positions the node did not answer.
+     */
+    @Override
+    public final Map<NodeAddress, List<FlowTableEntry>> getRules(byte netId) {
+        TopologySnapshot snapshot = networkGraph.getSnapshot(netId & 0xFF);
+        List<NodeAddress> nodes = new ArrayList<>();
+        for (int i = 0; i < snapshot.getNodeCount(); i++) {
+            nodes.add(snapshot.getAddress(i));
+        }
+        return getRules(netId, nodes);
     }
 
     /**
@@ -727,56 +1090,25 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
     private void register() {
     }
 
-    private List<NetworkPacket> createPackets(
-            byte netId,
-            NodeAddress src,
-            NodeAddress dest,
-            NodeAddress nextHop,
-            byte id,
-            byte[] buf) {
-        ConfigFunctionPacket np = new ConfigFunctionPacket(netId, src, dest);
-        LinkedList<NetworkPacket> ll = new LinkedList<>();
-
-        np.setNxhop(nextHop);
-
-        int packetNumber = buf.length / 101;
-        int remaining = buf.length % 101;
-        int totalPackets = packetNumber + (remaining > 0 ? 1 : 0);
-        int pointer = 0;
-        int i = 0;
-
-        if (packetNumber < 256) {
-            if (packetNumber > 0) {
-                for (i = 0; i < packetNumber; i++) {
-                    byte[] payload = new byte[103];
-                    payload[0] = (byte) (i + 1);
-                    payload[1] = (byte) totalPackets;
-                    System.arraycopy(buf, pointer, payload, 2, 101);
-                    pointer += 101;
-                    np.setAddFunctionAtPositionValue(id, payload);
-                    try {
-                        ll.add(np.clone());
-                    } catch (CloneNotSupportedException ex) {
-                        Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
-            }
-
-            if (remaining > 0) {
-                byte[] payload = new byte[remaining + 2];
-                payload[0] = (byte) (i + 1);
-                payload[1] = (byte) totalPackets;
-                System.arraycopy(buf, pointer, payload, 2, remaining);
-                np.setAddFunctionAtPositionValue(id, payload);
-                try {
-                    ll.add(np.clone());
-                } catch (CloneNotSupportedException ex) {
-                    Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            }
+    /**
+     * Starts the northbound HTTP API if API_PORT is greater than 0.
+     *
+     * @return the running server, null if the API is disabled or could not
+     * be started
+     */
+    private NorthboundServer startApi() {
+        if (Integer.parseInt(conf.getOrDefault("API_PORT", "0")) <= 0) {
+            return null;
+        }
+        try {
+            NorthboundServer api = new NorthboundServer(this, conf);
+            log(Level.INFO, "API available at http://localhost:"
+                    + api.getPort() + "/");
+            return api;
+        } catch (IOException | RuntimeException ex) {
+            log(Level.SEVERE, "API: " + ex.getMessage());
+            return null;
         }
-
-        return ll;
     }
 
     /**
@@ -797,28 +1129,139 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
             String className
     ) {
         try {
-            URL main = FunctionInterface.class.getResource(className);
-            File path = new File(main.getPath());
-            byte[] buf = Files.readAllBytes(path.toPath());
+            if (!functions.send(netId, sinkAddress, dest, id, className)
+                    .get(functions.getTimeout(), TimeUnit.MILLISECONDS)) {
+                log(Level.WARNING, "Function " + className + " not confirmed by "
+                        + dest);
+            }
+        } catch (TimeoutException ex) {
+            log(Level.WARNING, "Function " + className + " to " + dest
+                    + " timed out");
+        } catch (ExecutionException ex) {
+            log(Level.SEVERE, ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
 
-            List<NetworkPacket> ll = createPackets(
-                    netId, sinkAddress, dest, sinkAddress, id, buf);
+    @Override
+    public Map<NodeAddress, Boolean> sendFunction(
+            byte netId,
+            Collection<NodeAddress> destinations,
+            byte id,
+            String className
+    ) {
+        Map<NodeAddress, CompletableFuture<Boolean>> sent = new LinkedHashMap<>();
+        for (List<NodeAddress> wave
+                : disseminator.schedule(netId, sinkAddress, destinations)) {
+            for (NodeAddress dest : wave) {
+                sent.put(dest, functions.send(netId, sinkAddress, dest, id,
+                        className));
+            }
+        }
+        Map<NodeAddress, Boolean> result = new LinkedHashMap<>();
+        long deadline = System.currentTimeMillis() + functions.getTimeout();
+        for (Map.Entry<NodeAddress, CompletableFuture<Boolean>> e : sent.entrySet()) {
+            boolean delivered;
+            try {
+                delivered = e.getValue().get(Math.max(0,
+                        deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                log(Level.WARNING, "Function " + className + " to "
+                        + e.getKey() + " timed out");
+                delivered = false;
+            } catch (ExecutionException ex) {
+                log(Level.SEVERE, ex.getCause().getMessage());
+                delivered = false;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                delivered = false;
+            }
+            result.put(e.getKey(), delivered);
+        }
+        return result;
+    }
 
-            Iterator<NetworkPacket> llIterator = ll.iterator();
+    @Override
+    public Map<NodeAddress, Boolean> disseminate(
+            byte netId,
+            Collection<NodeAddress> destinations,
+            ConfigPacket packet
+    ) {
+        return disseminator.disseminate(netId, sinkAddress, destinations, packet);
+    }
 
-            if (llIterator.hasNext()) {
-                this.sendNetworkPacket(llIterator.next());
-                Thread.sleep(200);
+    @Override
+    public Map<NodeAddress, Boolean> setNodeParameters(
+            byte netId,
+            Collection<NodeAddress> destinations,
+            Map<NodeParameter, Integer> values
+    ) {
+        Map<NodeAddress, List<Exchange>> byNode = new LinkedHashMap<>();
+        List<Exchange> all = new ArrayList<>();
+        for (NodeAddress dest : new LinkedHashSet<>(destinations)) {
+            List<Exchange> node = new ArrayList<>();
+            for (Map.Entry<NodeParameter, Integer> v : values.entrySet()) {
+                ConfigPacket cp = v.getKey().write(netId, sinkAddress, dest,
+                        v.getValue());
+                cp.setNxhop(sinkAddress);
+                node.add(Exchange.readBack(cp));
+            }
+            byNode.put(dest, node);
+            all.addAll(node);
+        }
+        int missing = pipeline.run(sinkAddress, all);
+        if (missing > 0) {
+            log(Level.WARNING, missing + " of " + all.size()
+                    + " parameters not confirmed");
+        }
+        Map<NodeAddress, Boolean> result = new LinkedHashMap<>();
+        for (Map.Entry<NodeAddress, List<Exchange>> e : byNode.entrySet()) {
+            boolean done = true;
+            for (Exchange x : e.getValue()) {
+                done &= x.isDone();
+            }
+            result.put(e.getKey(), done);
+        }
+        return result;
+    }
 
-                while (llIterator.hasNext()) {
-                    this.sendNetworkPacket(llIterator.next());
+    @Override
+    public Map<NodeAddress, Map<NodeParameter, Integer>> getNodeParameters(
+            byte netId,
+            Collection<NodeAddress> destinations,
+            Collection<NodeParameter> parameters
+    ) {
+        Map<NodeAddress, Map<NodeParameter, Exchange>> byNode = new LinkedHashMap<>();
+        List<Exchange> all = new ArrayList<>();
+        for (NodeAddress dest : new LinkedHashSet<>(destinations)) {
+            Map<NodeParameter, Exchange> node = new EnumMap<>(NodeParameter.class);
+            for (NodeParameter p : parameters) {
+                ConfigPacket cp = p.read(netId, sinkAddress, dest);
+                cp.setNxhop(sinkAddress);
+                Exchange x = new Exchange(cp);
+                node.put(p, x);
+                all.add(x);
+            }
+            byNode.put(dest, node);
+        }
+        int missing = pipeline.run(sinkAddress, all);
+        if (missing > 0) {
+            log(Level.WARNING, missing + " of " + all.size()
+                    + " parameters not received");
+        }
+        Map<NodeAddress, Map<NodeParameter, Integer>> result = new LinkedHashMap<>();
+        for (Map.Entry<NodeAddress, Map<NodeParameter, Exchange>> e : byNode.entrySet()) {
+            Map<NodeParameter, Integer> values = new EnumMap<>(NodeParameter.class);
+            for (Map.Entry<NodeParameter, Exchange> x : e.getValue().entrySet()) {
+                if (x.getValue().isDone()) {
+                    values.put(x.getKey(), x.getKey().valueOf(x.getValue().answer));
                 }
             }
-        } catch (IOException ex) {
-            log(Level.SEVERE, ex.getMessage());
-        } catch (InterruptedException ex) {
-            Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
+            result.put(e.getKey(), values);
         }
+        return result;
     }
 
     /**
@@ -833,10 +1276,11 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
 
     private class Worker implements Runnable {
 
-        private final ArrayBlockingQueue<NetworkPacket> bQ;
+        private final ArrayBlockingQueue<Received> bQ;
+        private final PacketView view = new PacketView();
         boolean isStopped = false;
 
-        Worker(ArrayBlockingQueue<NetworkPacket> bQ) {
+        Worker(ArrayBlockingQueue<Received> bQ) {
             this.bQ = bQ;
         }
 
@@ -844,11 +1288,34 @@ public abstract class Controller implements Observer, Runnable, ControllerInterf
         public void run() {
             while (!isStopped) {
                 try {
-                    managePacket(bQ.take());
+                    Received r = bQ.take();
+                    long start = System.nanoTime();
+                    metrics.queueWait.record(start - r.time);
+                    view.wrap(r.data);
+                    int type = ControllerMetrics.typeOf(view);
+                    metrics.received[type].inc();
+                    metrics.tracer.begin(ControllerMetrics.TYPES[type], r.time);
+                    metrics.tracer.mark("queue");
+                    managePacket(view);
+                    metrics.tracer.end();
+                    metrics.handling[type].recordSince(start);
                 } catch (InterruptedException ex) {
                     isStopped = true;
                 }
             }
         }
     }
+
+    /**
+     * A packet waiting in the queue, with the time it was received.
+     */
+    private static final class Received {
+
+        final byte[] data;
+        final long time = System.nanoTime();
+
+        Received(byte[] data) {
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.packet.ReportPacket;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class joins the controller to a cluster of controllers, running on the
+ * same machine or on the same LAN, which exchange UDP datagrams on the
+ * CLUSTER_PORT of the CLUSTER_ADDRESS. Every message carries the time it
+ * refers to and is signed with a HMAC of the CLUSTER_SECRET shared by the
+ * members; a message with a wrong signature is dropped. The clocks of the
+ * members are expected to be synchronized.
+ * <p>
+ * Every report received from the network is applied to the local topology and
+ * sent to all the peers, which apply it to their own copy, so each member
+ * holds the topology of all the networks. The last report of each node is
+ * kept and sent again to a peer when it joins or comes back, so a restarted
+ * member does not have to wait for a full report period. A report is applied
+ * with the time it was received by its member, so it keeps a node alive only
+ * until the time to live of the nodes counted from then; a report older than
+ * that, or than the last one applied for the same node, is ignored, so a
+ * replayed or delayed report does not bring a dead node back or undo a newer
+ * topology.
+ * <p>
+ * Each member manages the packets of the sinks attached to it and sends a
+ * heartbeat with the netIds it is attached to every CLUSTER_HEARTBEAT
+ * milliseconds. A network is owned by the member with the lowest id among the
+ * live ones attached to it, or, if none is, by the live member chosen by
+ * rendezvous hashing of the netId. Only the owner runs the background work of
+ * a network, such as the proactive pushes and the reconciliation of the flow
+ * tables. A member stays attached to a network for CLUSTER_ATTACH seconds
+ * after its last packet, much longer than a report period, so the owner of a
+ * network does not change between two reports. A peer silent for
+ * CLUSTER_TIMEOUT milliseconds is considered down and its networks pass to
+ * the other members, which already hold their topology.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class ControllerCluster {
+
+    private static final byte HEARTBEAT = 0;
+    private static final byte REPORT = 1;
+    private static final int MAX_DATAGRAM = 1500;
+    private static final int HEADER = 13;
+    private static final int MAC_LENGTH = 32;
+
+    private final Controller controller;
+    private final int id;
+    private final InetAddress address;
+    private final int port;
+    private final long heartbeat;
+    private final long timeout;
+    private final long attachTimeout;
+    private final long syncAge;
+    private final Map<Integer, Member> members = new TreeMap<>();
+    private final AtomicLongArray attached = new AtomicLongArray(256);
+    private final Map<Integer, Report> latest = new ConcurrentHashMap<>();
+    private final Set<Integer> owned = new TreeSet<>();
+    private final ThreadLocal<Mac> mac;
+
+    private DatagramSocket sck;
+    private Thread receiver;
+    private ScheduledExecutorService timer;
+
+    /**
+     * Creates a member of a cluster. The conf map contains the options of the
+     * algorithm as strings. Optional parameters are:
+     * <ol>
+     * <li>CLUSTER_SECRET, the secret shared by the members, required</li>
+     * <li>CLUSTER_ADDRESS, the local address of the cluster, the loopback
+     * address by default</li>
+     * <li>CLUSTER_ID, the id of this member, unique in the cluster</li>
+     * <li>CLUSTER_PEERS, the other members as a comma separated list of
+     * id@host:port</li>
+     * <li>CLUSTER_HEARTBEAT, time in milliseconds between two heartbeats, 500
+     * by default</li>
+     * <li>CLUSTER_TIMEOUT, time in milliseconds after which a silent peer is
+     * considered down, 2000 by default</li>
+     * <li>CLUSTER_ATTACH, time in seconds after which a member that received
+     * no packet from a network is no longer attached to it, 60 by
+     * default</li>
+     * <li>CLUSTER_SYNC, age in seconds of the oldest report sent to a peer
+     * which joins the cluster, 30 by default</li>
+     * </ol>
+     *
+     * @param controller the controller of this member
+     * @param port the local UDP port of the cluster
+     * @param conf contains the algorithm configuration data
+     * @throws IllegalArgumentException if the secret is missing or a peer or
+     * the address is not valid
+     */
+    ControllerCluster(Controller controller, int port,
+            Map<String, String> conf) {
+        this.controller = controller;
+        this.port = port;
+        String secret = conf.get("CLUSTER_SECRET");
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("CLUSTER_SECRET is required");
+        }
+        SecretKeySpec key = new SecretKeySpec(
+                secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance("HmacSHA256");
+                m.init(key);
+                return m;
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        String bind = conf.get("CLUSTER_ADDRESS");
+        try {
+            address = bind == null ? InetAddress.getLoopbackAddress()
+                    : InetAddress.getByName(bind);
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException("Invalid address: " + bind, ex);
+        }
+        id = Integer.parseInt(conf.getOrDefault("CLUSTER_ID", "1"));
+        heartbeat = Long.parseLong(conf.getOrDefault("CLUSTER_HEARTBEAT", "500"));
+        timeout = Long.parseLong(conf.getOrDefault("CLUSTER_TIMEOUT", "2000"));
+        attachTimeout = Long.parseLong(conf.getOrDefault("CLUSTER_ATTACH", "60"))
+                * 1000L;
+        syncAge = Long.parseLong(conf.getOrDefault("CLUSTER_SYNC", "30")) * 1000L;
+        String peers = conf.getOrDefault("CLUSTER_PEERS", "");
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int at = peer.indexOf('@');
+            int colon = peer.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("Invalid peer: " + peer);
+            }
+            int peerId = Integer.parseInt(peer.substring(0, at));
+            if (peerId == id) {
+                continue;
+            }
+            members.put(peerId, new Member(peerId, new InetSocketAddress(
+                    peer.substring(at + 1, colon),
+                    Integer.parseInt(peer.substring(colon + 1)))));
+        }
+    }
+
+    /**
+     * Opens the UDP socket and starts sending the heartbeats.
+     *
+     * @return true if the socket has been opened
+     */
+    synchronized boolean start() {
+        if (sck != null) {
+            return true;
+        }
+        try {
+            sck = new DatagramSocket(new InetSocketAddress(address, port));
+        } catch (SocketException ex) {
+            controller.log(Level.SEVERE, "Cluster: " + ex.toString());
+            return false;
+        }
+        receiver = new Thread(this::receive, "ClusterReceiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread th = new Thread(r, "ClusterHeartbeat");
+            th.setDaemon(true);
+            return th;
+        });
+        timer.scheduleWithFixedDelay(this::tick, 0, heartbeat,
+                TimeUnit.MILLISECONDS);
+        controller.log(Level.INFO, "Cluster: member " + id + " on "
+                + address.getHostAddress() + ":" + port + ", peers "
+                + members.keySet());
+        return true;
+    }
+
+    /**
+     * Stops the heartbeats and closes the socket. The peers consider this
+     * member down after CLUSTER_TIMEOUT milliseconds.
+     */
+    synchronized void stop() {
+        if (sck != null) {
+            timer.shutdownNow();
+            sck.close();
+            sck = null;
+        }
+    }
+
+    /**
+     * Records that a packet of a network has been received from the lower
+     * adapter of this member.
+     *
+     * @param netId the network id of the packet
+     */
+    void attached(int netId) {
+        attached.lazySet(netId & 0xFF, System.currentTimeMillis());
+    }
+
+    /**
+     * Sends a report received from the network, and already applied to the
+     * local topology, to all the peers.
+     *
+     * @param data the bytes of the report, not copied
+     */
+    void replicate(byte[] data) {
+        long now = System.currentTimeMillis();
+        keep(data, now);
+        byte[] msg = message(REPORT, now, data);
+        synchronized (this) {
+            for (Member m : members.values()) {
+                send(msg, m);
+            }
+        }
+    }
+
+    /**
+     * Checks if this member owns a network.
+     *
+     * @param netId the network id
+     * @return true if this member runs the background work of the network
+     */
+    synchronized boolean isOwner(int netId) {
+        return owner(netId & 0xFF, System.currentTimeMillis()) == id;
+    }
+
+    /**
+     * Returns the ids of the live members, this one included.
+     *
+     * @return the ids in ascending order
+     */
+    synchronized Set<Integer> getMembers() {
+        long now = System.currentTimeMillis();
+        Set<Integer> alive = new TreeSet<>();
+        alive.add(id);
+        for (Member m : members.values()) {
+            if (m.isAlive(now)) {
+                alive.add(m.id);
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * Sends the heartbeat to the peers and checks which peers went down or
+     * came back.
+     */
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Integer> networks = new ArrayList<>();
+            for (int netId = 0; netId < 256; netId++) {
+                if (now - attached.get(netId) < attachTimeout) {
+                    networks.add(netId);
+                }
+            }
+            // up to 256 networks, so the count takes two bytes
+            byte[] payload = new byte[2 + networks.size()];
+            payload[0] = (byte) (networks.size() >>> 8);
+            payload[1] = (byte) networks.size();
+            for (int i = 0; i < networks.size(); i++) {
+                payload[2 + i] = (byte) (int) networks.get(i);
+            }
+            byte[] msg = message(HEARTBEAT, now, payload);
+            List<Member> joined = new ArrayList<>();
+            synchronized (this) {
+                for (Member m : members.values()) {
+                    send(msg, m);
+                    boolean alive = m.isAlive(now);
+                    if (alive != m.wasAlive) {
+                        m.wasAlive = alive;
+                        controller.log(Level.INFO, "Cluster: member " + m.id
+                                + (alive ? " is up" : " is down"));
+                        if (alive) {
+                            joined.add(m);
+                        }
+                    }
+                }
+                checkOwnership(now);
+            }
+            for (Member m : joined) {
+                sync(m, now);
+            }
+        } catch (RuntimeException ex) {
+            controller.log(Level.SEVERE, "Cluster: " + ex.toString());
+        }
+    }
+
+    /**
+     * Logs the networks this member started or stopped owning.
+     */
+    private void checkOwnership(long now) {
+        Set<Integer> known = new TreeSet<>(controller.getNetworkGraph().getNetIds());
+        for (int netId = 0; netId < 256; netId++) {
+            if (now - attached.get(netId) < attachTimeout) {
+                known.add(netId);
+            }
+        }
+        for (Member m : members.values()) {
+            for (byte b : m.networks) {
+                known.add(b & 0xFF);
+            }
+        }
+        for (int netId : known) {
+            boolean mine = owner(netId, now) == id;
+            if (mine && owned.add(netId)) {
+                controller.log(Level.INFO, "Cluster: member " + id
+                        + " owns network " + netId);
+                controller.graphUpdate(netId);
+            } else if (!mine && owned.remove(netId)) {
+                controller.log(Level.INFO, "Cluster: member " + id
+                        + " no longer owns network " + netId);
+            }
+        }
+    }
+
+    /**
+     * Sends to a peer the last report of each node, with the time it was
+     * received, if it is younger than CLUSTER_SYNC and than the time to live
+     * of the nodes.
+     */
+    private void sync(Member m, long now) {
+        long maxAge = Math.min(syncAge, nodeTimeout());
+        int sent = 0;
+        for (Report r : latest.values()) {
+            if (now - r.time < maxAge) {
+                byte[] msg = message(REPORT, r.time, r.data);
+                synchronized (this) {
+                    send(msg, m);
+                }
+                sent++;
+            }
+        }
+        controller.log(Level.INFO, "Cluster: " + sent + " reports sent to member "
+                + m.id);
+    }
+
+    private int owner(int netId, long now) {
+        int owner = -1;
+        if (now - attached.get(netId) < attachTimeout) {
+            owner = id;
+        }
+        for (Member m : members.values()) {
+            if (m.isAlive(now) && (owner < 0 || m.id < owner)
+                    && m.isAttached(netId)) {
+                owner = m.id;
+            }
+        }
+        if (owner >= 0) {
+            return owner;
+        }
+        owner = id;
+        long best = weight(netId, id);
+        for (Member m : members.values()) {
+            long w = weight(netId, m.id);
+            if (m.isAlive(now) && w > best) {
+                best = w;
+                owner = m.id;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Returns the weight of a member for a network in the rendezvous hashing.
+     */
+    private static long weight(int netId, int member) {
+        long h = ((long) member << 32) ^ netId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void receive() {
+        DatagramSocket socket;
+        synchronized (this) {
+            socket = sck;
+        }
+        byte[] buffer = new byte[MAX_DATAGRAM];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                handle(Arrays.copyOf(packet.getData(), packet.getLength()));
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    controller.log(Level.SEVERE, "Cluster: " + ex.toString());
+                }
+            } catch (RuntimeException ex) {
+                controller.log(Level.WARNING, "Cluster: invalid message, "
+                        + ex.toString());
+            }
+        }
+    }
+
+    private void handle(byte[] msg) {
+        if (msg.length < HEADER + MAC_LENGTH || !verify(msg)) {
+            return;
+        }
+        int from = getInt(msg, 1);
+        Member m;
+        synchronized (this) {
+            m = members.get(from);
+        }
+        if (m == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long time = getLong(msg, 5);
+        int end = msg.length - MAC_LENGTH;
+        switch (msg[0]) {
+            case HEARTBEAT:
+                if (now - time >= timeout) {
+                    return;
+                }
+                int n = Math.min(((msg[HEADER] & 0xFF) << 8)
+                        | (msg[HEADER + 1] & 0xFF), end - HEADER - 2);
+                m.networks = Arrays.copyOfRange(msg, HEADER + 2, HEADER + 2 + n);
+                m.lastSeen = now;
+                break;
+            case REPORT:
+                if (now - time >= nodeTimeout()) {
+                    return;
+                }
+                byte[] data = Arrays.copyOfRange(msg, HEADER, end);
+                keep(data, time);
+                controller.getNetworkGraph().updateMap(new ReportPacket(data),
+                        time);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void keep(byte[] data, long time) {
+        int key = ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8)
+                | (data[3] & 0xFF);
+        latest.merge(key, new Report(data, time),
+                (old, r) -> r.time >= old.time ? r : old);
+    }
+
+    private long nodeTimeout() {
+        return controller.getNetworkGraph().getTimeout() * 1000L;
+    }
+
+    /**
+     * Builds a message: the type, the id of this member, the time the
+     * message refers to and the payload, followed by their HMAC.
+     */
+    private byte[] message(byte type, long time, byte[] payload) {
+        byte[] msg = new byte[HEADER + payload.length + MAC_LENGTH];
+        msg[0] = type;
+        putInt(msg, 1, id);
+        putLong(msg, 5, time);
+        System.arraycopy(payload, 0, msg, HEADER, payload.length);
+        Mac m = mac.get();
+        m.update(msg, 0, HEADER + payload.length);
+        System.arraycopy(m.doFinal(), 0, msg, HEADER + payload.length,
+                MAC_LENGTH);
+        return msg;
+    }
+
+    private boolean verify(byte[] msg) {
+        int end = msg.length - MAC_LENGTH;
+        Mac m = mac.get();
+        m.update(msg, 0, end);
+        return MessageDigest.isEqual(m.doFinal(),
+                Arrays.copyOfRange(msg, end, msg.length));
+    }
+
+    private void send(byte[] msg, Member m) {
+        if (sck == null) {
+            return;
+        }
+        try {
+            sck.send(new DatagramPacket(msg, msg.length, m.address));
+        } catch (IOException ex) {
+            controller.log(Level.FINE, "Cluster: " + ex.toString());
+        }
+    }
+
+    private static void putInt(byte[] b, int i, int value) {
+        b[i] = (byte) (value >>> 24);
+        b[i + 1] = (byte) (value >>> 16);
+        b[i + 2] = (byte) (value >>> 8);
+        b[i + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16)
+                | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    private static void putLong(byte[] b, int i, long value) {
+        putInt(b, i, (int) (value >>> 32));
+        putInt(b, i + 4, (int) value);
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return ((long) getInt(b, i) << 32) | (getInt(b, i + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Another member of the cluster, with the time of its last heartbeat and
+     * the netIds it is attached to.
+     */
+    private final class Member {
+
+        final int id;
+        final InetSocketAddress address;
+        volatile long lastSeen = Long.MIN_VALUE / 2;
+        volatile byte[] networks = new byte[0];
+        boolean wasAlive;
+
+        Member(int id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        boolean isAlive(long now) {
+            return now - lastSeen < timeout;
+        }
+
+        boolean isAttached(int netId) {
+            for (byte b : networks) {
+                if ((b & 0xFF) == netId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The last report of a node and the time it was received.
+     */
+    private static final class Report {
+
+        final byte[] data;
+        final long time;
+
+        Report(byte[] data, long time) {
+            this.data = data;
+            this.time = time;
+        }
+    }
+}
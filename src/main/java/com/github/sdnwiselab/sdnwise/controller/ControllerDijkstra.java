@@ -19,6 +19,8 @@ package com.github.sdnwiselab.sdnwise.controller;
 import com.github.sdnwiselab.sdnwise.adapter.Adapter;
 import com.github.sdnwiselab.sdnwise.packet.NetworkPacket;
 import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import com.github.sdnwiselab.sdnwise.topology.NetworkGraph.Partition;
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
 import com.github.sdnwiselab.sdnwise.util.NodeAddress;
 
 import java.io.BufferedReader;
@@ -26,9 +28,26 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 //import org.graphstream.algorithm.Dijkstra;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
 import org.graphstream.graph.Node;
 import org.graphstream.graph.Path;
 
@@ -36,16 +55,62 @@ import org.graphstream.graph.Path;
  * This class implements the Controller class using the Dijkstra routing
  * algorithm in order to find the shortest path between nodes. When a request
  * from the network is sent, this class sends a SDN_WISE_OPEN_PATH message with
- * the shortest path. No action is taken if the topology of the network changes.
+ * the shortest path.
+ * <p>
+ * Every path computed for a request is remembered as an active flow together
+ * with the topology version it was computed on, so that following requests for
+ * the same flow are answered from memory. When the "PROACTIVE" option is
+ * enabled, a change of the topology triggers a background recomputation of the
+ * active flows and a new SDN_WISE_OPEN_PATH is pushed only for the flows whose
+ * path actually changed, at most once every "PUSH_INTERVAL" milliseconds for
+ * each destination.
+ * <p>
+ * Paths already installed in the network are not sent again when a report
+ * triggers a new routing computation, unless they changed or they are older
+ * than the "RULE_TTL" of the nodes.
+ * <p>
+ * Each network, identified by its netId, has its own Router: the flows, the
+ * shortest path tree of the last source and the pending recomputation of a
+ * network are never touched by the requests and the changes of the others,
+ * and a path is computed holding only the lock of its network.
+ * <p>
+ * When "MULTIPATH_K" is greater than 1, up to k paths with few relays in
+ * common are computed between the two nodes of a flow and the flows are
+ * spread over them by MultipathSelector. A flow is moved to another path when
+ * the battery of one of its relays falls, which is checked every
+ * "MULTIPATH_REFRESH" seconds even if the topology did not change.
+ * <p>
+ * To avoid flapping between two paths on noisy links, a flow can be kept on
+ * its path until a new one costs at least "ROUTE_HYSTERESIS" percent less for
+ * "ROUTE_HOLD" seconds.
  *
  * @author Sebastiano Milardo
  * @version 0.1
  */
 public class ControllerDijkstra extends Controller {
 
-    private final Dijkstra dijkstra;
-    private String lastSource = "";
-    private long lastModification = -1;
+    private final QueueType queueType;
+    private final CostFunction cost;
+    private final ParallelDijkstra engine;
+    private final Map<Integer, Router> routers = new ConcurrentHashMap<>();
+    private final boolean proactive;
+    private final long pushInterval;
+    private final long flowTimeout;
+    private final int multipath;
+    private final double stretch;
+    private final double rebalance;
+    private final long multipathRefresh;
+    private final double hysteresis;
+    private final long routeHold;
+    private final ScheduledExecutorService pusher;
+    private final Map<String, String> pathInfo = new ConcurrentHashMap<>();
+    private final AtomicBoolean pathInfoPending = new AtomicBoolean();
+    private final ExecutorService pathInfoWriter
+            = Executors.newSingleThreadExecutor(r -> {
+                Thread th = new Thread(r, "PathInfoWriter");
+                th.setDaemon(true);
+                return th;
+            });
 
     /**
      * Constructor method fo ControllerDijkstra.
@@ -55,13 +120,136 @@ public class ControllerDijkstra extends Controller {
      * @param networkGraph NetworkGraph object.
      */
     public ControllerDijkstra(Adapter lower, NetworkGraph networkGraph) {
-        super(lower, networkGraph);
-        this.dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "length");
+        this(lower, networkGraph, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructor method for ControllerDijkstra. The conf map contains the
+     * options of the algorithm as strings. Optional parameters are:
+     * <ol>
+     * <li>PROACTIVE, TRUE to push new paths when the topology changes</li>
+     * <li>PUSH_INTERVAL, minimum time in milliseconds between two pushes
+     * toward the same destination</li>
+     * <li>FLOW_TIMEOUT, time in seconds after which a flow without requests
+     * is no longer considered active</li>
+     * <li>QUEUE, the priority queue used by Dijkstra, one of QueueType. DIAL
+     * needs integer link costs, otherwise BINARY is used</li>
+     * <li>COST_LENGTH, COST_BATTERY and COST_DRAIN, the weights of the cost
+     * of a link, see BatteryCost</li>
+     * <li>MULTIPATH_K, the number of paths computed between the nodes of a
+     * flow, 1 to use only the shortest path</li>
+     * <li>MULTIPATH_STRETCH, the maximum ratio between the cost of a path a
+     * flow can be given and the cost of the shortest one, at least 1</li>
+     * <li>MULTIPATH_REBALANCE, a flow is moved to another path when the lowest
+     * battery among its relays falls below this ratio of the best one, between
+     * 0 and 1</li>
+     * <li>MULTIPATH_REFRESH, time in seconds after which the batteries are
+     * read again even if the topology did not change</li>
+     * <li>ROUTE_HYSTERESIS, the percentage by which a new path must cost less
+     * than the current one to replace it</li>
+     * <li>ROUTE_HOLD, time in seconds a new path must stay better before it
+     * replaces the current one</li>
+     * </ol>
+     *
+     * @param lower Lower Adpater object.
+     * @param networkGraph NetworkGraph object.
+     * @param conf contains the algorithm configuration data.
+     */
+    public ControllerDijkstra(Adapter lower, NetworkGraph networkGraph,
+            Map<String, String> conf) {
+        super(lower, networkGraph, conf);
+        BatteryCost batteryCost = new BatteryCost(conf);
+        QueueType queue = conf.get("QUEUE") == null
+                ? QueueType.BINARY : QueueType.valueOf(conf.get("QUEUE"));
+        if (queue == QueueType.DIAL && !batteryCost.isIntegral()) {
+            log(Level.WARNING, "The DIAL queue needs integer link costs, "
+                    + "using BINARY");
+            queue = QueueType.BINARY;
+        }
+        this.queueType = queue;
+        this.cost = batteryCost;
+        this.engine = new ParallelDijkstra(ForkJoinPool.commonPool(), queueType,
+                cost);
+        this.proactive = Boolean.parseBoolean(conf.get("PROACTIVE"));
+        this.pushInterval = parseLong(conf.get("PUSH_INTERVAL"), 1000);
+        this.flowTimeout = parseLong(conf.get("FLOW_TIMEOUT"), 300) * 1000L;
+        this.multipath = Math.min(MultipathSelector.MAX_PATHS,
+                Integer.parseInt(conf.getOrDefault("MULTIPATH_K", "1")));
+        this.stretch = Double.parseDouble(
+                conf.getOrDefault("MULTIPATH_STRETCH", "1.5"));
+        this.rebalance = Double.parseDouble(
+                conf.getOrDefault("MULTIPATH_REBALANCE", "0.8"));
+        this.multipathRefresh = parseLong(conf.get("MULTIPATH_REFRESH"), 10)
+                * 1000L;
+        if (stretch < 1) {
+            throw new IllegalArgumentException(
+                    "MULTIPATH_STRETCH must be at least 1");
+        }
+        if (rebalance < 0 || rebalance > 1) {
+            throw new IllegalArgumentException(
+                    "MULTIPATH_REBALANCE must be between 0 and 1");
+        }
+        this.hysteresis = Double.parseDouble(
+                conf.getOrDefault("ROUTE_HYSTERESIS", "0")) / 100;
+        this.routeHold = parseLong(conf.get("ROUTE_HOLD"), 0) * 1000L;
+        if (proactive) {
+            pusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread th = new Thread(r, "RoutePusher");
+                th.setDaemon(true);
+                return th;
+            });
+            if (multipath > 1) {
+                // a battery report does not change the topology, so the
+                // draining relays are looked for periodically
+                pusher.scheduleWithFixedDelay(this::graphUpdate,
+                        multipathRefresh, multipathRefresh,
+                        TimeUnit.MILLISECONDS);
+            }
+        } else {
+            pusher = null;
+        }
     }
 
     @Override
     public final void graphUpdate() {
+        for (Router router : routers.values()) {
+            graphUpdate(router.netId);
+        }
+    }
 
+    @Override
+    public final void graphUpdate(int netId) {
+        Router router = routers.get(netId);
+        if (proactive && router != null && isOwner(netId)
+                && router.recomputePending.compareAndSet(false, true)) {
+            pusher.schedule(() -> recomputeFlows(router), 0,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Router router(int netId) {
+        return routers.computeIfAbsent(netId, id -> new Router(id, queueType,
+                cost, multipath > 1 ? new MultipathSelector(multipath,
+                        stretch, rebalance, cost, queueType) : null));
+    }
+
+    /**
+     * Returns the snapshot used by the multipath mode for a network. It is
+     * taken again when the topology changes or when it is older than
+     * MULTIPATH_REFRESH, so that the batteries of the relays are fresh, and
+     * each new snapshot increments the stamp of the router. It must be called
+     * holding the lock of the router.
+     */
+    private TopologySnapshot refresh(Router router, long now) {
+        if (router.snapshot == null
+                || router.snapshot.getVersion()
+                != networkGraph.getLastModification(router.netId)
+                || now - router.snapshotTime >= multipathRefresh) {
+            router.snapshot = networkGraph.getSnapshot(router.netId);
+            router.snapshotTime = now;
+            router.stamp++;
+        }
+        return router.snapshot;
     }
 
     @Override
@@ -72,148 +260,610 @@ public class ControllerDijkstra extends Controller {
 
         if (!source.equals(destination)) { 
 
-            Node sourceNode = networkGraph.getNode(source);
-            Node destinationNode = networkGraph.getNode(destination);
-            LinkedList<NodeAddress> path = null;
-            Path chosenPath = null;
-
-            if (sourceNode != null && destinationNode != null) {
-                if (!lastSource.equals(source) || lastModification != networkGraph.getLastModification()) {
-                    results.clear();
-                    dijkstra.init(networkGraph.getGraph());
-                    dijkstra.setSource(networkGraph.getNode(source));
-                    dijkstra.compute();
-                    lastSource = source;
-                    lastModification = networkGraph.getLastModification();
-                } else {
-                    path = results.get(data.getDst());
+            String flowId = source + "-" + destination;
+            metrics.tracer.label(flowId);
+            Router router = router(data.getNetId());
+            Flow flow = router.flows.get(flowId);
+            if (flow == null) {
+                flow = new Flow((byte) data.getNetId(), source, destination);
+                router.flows.put(flowId, flow);
+            }
+            flow.lastRequest = System.currentTimeMillis();
+
+            LinkedList<NodeAddress> path;
+            TopologySnapshot snapshot = null;
+            long version;
+            if (router.selector != null) {
+                synchronized (router) {
+                    snapshot = refresh(router, flow.lastRequest);
+                    version = router.stamp;
                 }
-                if (path == null) {
-                    path = new LinkedList<>();
-                    chosenPath = new Path();
-                    chosenPath = chosePathBetweenAll(chosenPath, destination, source);
-
-                    //put the chosen path in the path variable
-                    for (Node node : chosenPath.getNodePath()) {
-                        path.add((NodeAddress) node.getAttribute("nodeAddress"));
+            } else {
+                version = networkGraph.getLastModification(router.netId);
+            }
+            synchronized (flow) {
+                path = flow.path;
+                if (path == null || flow.version != version) {
+                    metrics.flowMisses.inc();
+                    path = snapshot != null
+                            ? choosePath(router, flow, flowId, snapshot)
+                            : computePath(router, flow, source, destination);
+                    if (path == null) {
+                        return;
                     }
-                                        
                     System.out.println("[CTRL]: src: " + source + " / dst: " + destination + " / path: " + path.toString());
-                    results.put(data.getDst(), path);
+                    metrics.tracer.mark("print");
+                    // A battery update does not change the version, so a
+                    // missing path is computed again at the next request
+                    flow.path = path.size() > 1 ? path : null;
+                    // a flow waiting for a better path checks it again at
+                    // the next request
+                    flow.version = flow.betterSince < 0 ? version : -1;
+                } else {
+                    metrics.flowHits.inc();
+                }
+            }
+
+            if (path.size() > 1) {
+                byte netId = (byte) data.getNetId();
+                if (data.isRequest()) {
+                    // The node asked, so it does not hold the path anymore
+                    ledger.forget(netId, path);
+                    shadow.missing(netId, path.getFirst(), path.getLast());
+                } else if (ledger.isInstalled(netId, path)
+                        || shadow.isInstalled(netId, path)) {
+                    ledger.suppressed();
+                    metrics.tracer.mark("suppressed");
+                    return;
                 }
-                if (path.size() > 1) {
-                    sendPath((byte) data.getNetId(), path.getFirst(), path);
+                sendPath(netId, path.getFirst(), path);
+                metrics.tracer.mark("sendPath");
 
-                    data.unsetRequestFlag();
-                    data.setSrc(getSinkAddress());
-                    sendNetworkPacket(data);
+                data.unsetRequestFlag();
+                data.setSrc(getSinkAddress());
+                sendNetworkPacket(data);
+                metrics.tracer.mark("forward");
 
-                } else {
-                	//System.out.println("eu não sei se passa");
-                    // TODO send a rule in order to say "wait I dont have a path"
-                    //sendMessage(data.getNetId(), data.getDst(),(byte) 4, new byte[10]);
+            } else {
+                //System.out.println("eu não sei se passa");
+                // TODO send a rule in order to say "wait I dont have a path"
+                //sendMessage(data.getNetId(), data.getDst(),(byte) 4, new byte[10]);
+            }
+        }
+    }
+
+    /**
+     * Computes the path between two nodes of the graph, holding the lock of
+     * their network. The shortest path tree of the last source is reused
+     * until the topology of the network changes.
+     *
+     * If the route hysteresis is enabled, the current path of the flow is
+     * returned until the new one is better enough.
+     *
+     * @param router the router of the network of the nodes
+     * @param flow the flow, whose lock must be held
+     * @param source the id of the source node in the graph
+     * @param destination the id of the destination node in the graph
+     * @return the list of the addresses in the path, null if one of the two
+     * nodes is not in the graph
+     */
+    private LinkedList<NodeAddress> computePath(Router router, Flow flow,
+            String source, String destination) {
+        Partition partition = networkGraph.getPartition(router.netId);
+        if (partition == null) {
+            return null;
+        }
+        synchronized (partition) {
+            metrics.tracer.mark("lock");
+            Graph graph = partition.getGraph();
+            Node sourceNode = graph.getNode(source);
+            Node destinationNode = graph.getNode(destination);
+            if (sourceNode == null || destinationNode == null) {
+                return null;
+            }
+            Dijkstra dijkstra = router.dijkstra;
+            if (!router.lastSource.equals(source)
+                    || router.lastModification != partition.getVersion()) {
+                metrics.treeMisses.inc();
+                long start = System.nanoTime();
+                dijkstra.init(graph);
+                dijkstra.setSource(sourceNode);
+                dijkstra.compute();
+                metrics.treeTime.recordSince(start);
+                metrics.tracer.mark("dijkstra");
+                router.lastSource = source;
+                router.lastModification = partition.getVersion();
+            } else {
+                metrics.treeHits.inc();
+            }
+            double best = dijkstra.getPathLength(destinationNode);
+            if ((hysteresis > 0 || routeHold > 0) && flow.path != null
+                    && !Double.isInfinite(best)
+                    && holdTime(flow, pathCost(graph, dijkstra, flow), best,
+                            flow.lastRequest) != 0) {
+                return flow.path;
+            }
+            LinkedList<NodeAddress> path = new LinkedList<>();
+            long start = System.nanoTime();
+            Path chosenPath = chosePath(dijkstra, destinationNode,
+                    destination, source);
+            metrics.selectionTime.recordSince(start);
+
+            //put the chosen path in the path variable
+            for (Node node : chosenPath.getNodePath()) {
+                path.add((NodeAddress) node.getAttribute("nodeAddress"));
+            }
+            return path;
+        }
+    }
+
+    /**
+     * Decides if a flow moves to a better path. The flow moves when its path
+     * is broken, or when the new path costs at least ROUTE_HYSTERESIS percent
+     * less than its path and has done so for ROUTE_HOLD seconds. It must be
+     * called holding the lock of the flow.
+     *
+     * @param flow the flow
+     * @param current the cost of the path of the flow
+     * @param best the cost of the new path
+     * @param now the current time in milliseconds
+     * @return 0 if the flow moves, the milliseconds it still has to wait if
+     * the new path is better enough, -1 if it is not
+     */
+    private long holdTime(Flow flow, double current, double best, long now) {
+        if (Double.isInfinite(current) || best >= current) {
+            flow.betterSince = -1;
+            flow.damped = false;
+            return Double.isInfinite(current) ? 0 : -1;
+        }
+        if (best >= current * (1 - hysteresis)) {
+            flow.betterSince = -1;
+            damped(flow);
+            return -1;
+        }
+        if (flow.betterSince < 0) {
+            flow.betterSince = now;
+        }
+        long wait = routeHold - (now - flow.betterSince);
+        if (wait > 0) {
+            damped(flow);
+            return wait;
+        }
+        flow.betterSince = -1;
+        flow.damped = false;
+        return 0;
+    }
+
+    /**
+     * Counts a better path held back for a flow, once until the flow moves or
+     * the path is no longer better.
+     */
+    private void damped(Flow flow) {
+        if (!flow.damped) {
+            flow.damped = true;
+            metrics.dampedChanges.inc();
+        }
+    }
+
+    /**
+     * Returns the cost of the path of a flow on the graph of its network, as
+     * Dijkstra computes it. It must be called holding the lock of the
+     * partition of the network.
+     *
+     * @return the cost of the path, Double.POSITIVE_INFINITY if one of its
+     * links is missing
+     */
+    private static double pathCost(Graph graph, Dijkstra dijkstra, Flow flow) {
+        double total = 0;
+        Node from = null;
+        for (NodeAddress addr : flow.path) {
+            Node to = graph.getNode((flow.netId & 0xFF) + "." + addr);
+            if (to == null) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (from != null) {
+                Edge edge = from.getEdgeToward(to.getId());
+                if (edge == null) {
+                    return Double.POSITIVE_INFINITY;
                 }
+                total += dijkstra.getLength(edge, to);
             }
+            from = to;
         }
+        return total;
     }
 
     /**
-        * This method choose the path which has the node with higher battery level between the lowests.
-        * First it call getAllPaths() method from Dijkstra class, which returns all paths between two nodes (node - sink, sink - node).
-        * Then it goes through all paths calculated, checking all nodes for the one with the lowest battery level in the that path.
-        * After go through a path, it check if the node with the lowest battery level is the highest between the lowests.
-        * If it is, it will be the chosen path.
-        * 
-        * Ex: 
-        *  P1: [10 - 5 - 20]
-        *  P2: [10 - 2 - 25]
-        * The path choosen will be P1, because the node 2 in P1 
-        * has the highest battery level between the lowests [5, 2]
-        * 
-        * @author mjneto
-    */
-    private Path chosePathBetweenAll(Path chosenPath, String destination, String source) {
-        /*
-         * create two hasmaps, one for the lowest battery in the path and one for
-         * keep tracking of the node who has the highest battery level between the lowests
-         */
-        HashMap<String, String> lowBattNode = new HashMap<>();
-        HashMap<String, String> highLowBattNode = new HashMap<>();
-
-        lowBattNode.put("id", "0");
-        lowBattNode.put("battery", "999");
-        highLowBattNode.put("id", "0");
-        highLowBattNode.put("battery", "0");
-    
-        for (Path allPath : dijkstra.getAllPaths(networkGraph.getNode(destination))) {
-            //System.out.println("1 - " + source + " " + destination + " = " + allPath.toString());
-            for(Node node : allPath.getNodePath()) {
-                //System.out.println("2 - Node: " + node.getId() + " Battery: " + node.getAttribute("battery"));
-                if((int) node.getAttribute("battery") < Integer.parseInt(lowBattNode.get("battery"))) {
-                    lowBattNode.put("battery", node.getAttribute("battery").toString());
-                    lowBattNode.put("id", node.getId().toString());
-                    //System.out.println("Lowest Battery: " + lowBattNode.get("battery") + " Node: " + lowBattNode.get("id"));
+     * Chooses the path of a flow among the paths computed by the
+     * MultipathSelector of its network. The flow keeps its current path
+     * unless a relay of the path is draining.
+     *
+     * @param router the router of the network of the flow
+     * @param flow the flow, whose lock must be held
+     * @param flowId the id of the flow
+     * @param snapshot the topology
+     * @return the list of the addresses in the path, empty if the destination
+     * can not be reached, null if one of the two nodes is not in the snapshot
+     */
+    private LinkedList<NodeAddress> choosePath(Router router, Flow flow,
+            String flowId, TopologySnapshot snapshot) {
+        int s = snapshot.indexOf(flow.source);
+        int t = snapshot.indexOf(flow.destination);
+        if (s < 0 || t < 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        MultipathSelector.Choice choice = router.selector.choose(snapshot,
+                flowId, s, t, toIndexes(snapshot, flow.netId, flow.path));
+        metrics.selectionTime.recordSince(start);
+        if (choice.rebalanced) {
+            metrics.rebalances.inc();
+        }
+        LinkedList<NodeAddress> path = new LinkedList<>();
+        List<String> ids = new ArrayList<>(choice.path.length);
+        int low = -1;
+        for (int node : choice.path) {
+            path.add(snapshot.getAddress(node));
+            ids.add(snapshot.getId(node));
+            if (low < 0 || snapshot.getBattery()[node]
+                    < snapshot.getBattery()[low]) {
+                low = node;
+            }
+        }
+        if (low >= 0) {
+            PathInfo(flow.destination, flow.source, ids,
+                    String.valueOf(snapshot.getBattery()[low]),
+                    snapshot.getId(low));
+        }
+        return path;
+    }
+
+    /**
+     * Recomputes the paths of the active flows of a network after a change of
+     * its topology and pushes the ones that changed. The shortest path trees of all the
+     * sources are computed in parallel on a snapshot of the topology. The
+     * current path of a flow is kept if it is still as good as the best one,
+     * so that equivalent paths are not pushed again, or, with the route
+     * hysteresis, until the best one is better enough; a flow waiting for
+     * ROUTE_HOLD is checked again when the hold expires. If a destination has been
+     * pushed too recently its flows are left pending and a new recomputation
+     * is scheduled when the interval expires.
+     * <p>
+     * In multipath mode the path of each flow is chosen again by the
+     * MultipathSelector of the network instead.
+     */
+    private void recomputeFlows(Router router) {
+        router.recomputePending.set(false);
+        long now = System.currentTimeMillis();
+        long deferred = -1;
+
+        List<Flow> active = new ArrayList<>();
+        Iterator<Flow> it = router.flows.values().iterator();
+        while (it.hasNext()) {
+            Flow flow = it.next();
+            if (now - flow.lastRequest > flowTimeout) {
+                it.remove();
+            } else {
+                active.add(flow);
+            }
+        }
+        if (active.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        TopologySnapshot snapshot;
+        long version;
+        Map<String, Integer> slots = new HashMap<>();
+        ShortestPathTree[] trees = null;
+        if (router.selector != null) {
+            synchronized (router) {
+                snapshot = refresh(router, now);
+                version = router.stamp;
+            }
+        } else {
+            snapshot = networkGraph.getSnapshot(router.netId);
+            version = snapshot.getVersion();
+            int[] sources = new int[active.size()];
+            for (Flow flow : active) {
+                int s = snapshot.indexOf(flow.source);
+                if (s >= 0 && !slots.containsKey(flow.source)) {
+                    sources[slots.size()] = s;
+                    slots.put(flow.source, slots.size());
                 }
             }
-            if(Integer.parseInt(lowBattNode.get("battery")) > Integer.parseInt(highLowBattNode.get("battery"))) {
-                highLowBattNode.put("battery", lowBattNode.get("battery"));
-                highLowBattNode.put("id", lowBattNode.get("id"));
-                //System.out.println("Highest Lowest Battery: " + highLowBattNode.get("battery") + " Node: " + highLowBattNode.get("id"));
-                chosenPath = allPath;
+            trees = engine.computeAll(snapshot,
+                    Arrays.copyOf(sources, slots.size()));
+            metrics.recomputeTime.recordSince(start);
+        }
+
+        for (Flow flow : active) {
+            LinkedList<NodeAddress> path;
+            synchronized (flow) {
+                if (router.selector != null) {
+                    path = choosePath(router, flow,
+                            flow.source + "-" + flow.destination, snapshot);
+                    if (path == null || path.isEmpty()) {
+                        continue;
+                    }
+                } else {
+                    Integer slot = slots.get(flow.source);
+                    int target = snapshot.indexOf(flow.destination);
+                    if (slot == null || target < 0
+                            || !trees[slot].isReachable(target)) {
+                        continue;
+                    }
+                    ShortestPathTree tree = trees[slot];
+                    int[] current = toIndexes(snapshot, flow.netId, flow.path);
+                    double currentCost = current == null
+                            ? Double.POSITIVE_INFINITY
+                            : engine.getPathCost(snapshot, current);
+                    long hold;
+                    if (current != null
+                            && currentCost == tree.getDistance(target)
+                            && snapshot.getMinBattery(current) == tree.getBottleneck(target)) {
+                        flow.betterSince = -1;
+                        flow.damped = false;
+                        hold = -1;
+                    } else if (hysteresis > 0 || routeHold > 0) {
+                        hold = holdTime(flow, currentCost,
+                                tree.getDistance(target), now);
+                    } else {
+                        hold = 0;
+                    }
+                    if (hold > 0) {
+                        deferred = deferred < 0 ? hold : Math.min(deferred, hold);
+                    }
+                    if (hold == 0) {
+                        int[] best = tree.getPath(target);
+                        path = tree.getAddressPath(target);
+                        List<String> ids = new ArrayList<>(best.length);
+                        int low = best[0];
+                        for (int node : best) {
+                            ids.add(snapshot.getId(node));
+                            if (snapshot.getBattery()[node] < snapshot.getBattery()[low]) {
+                                low = node;
+                            }
+                        }
+                        PathInfo(flow.destination, flow.source, ids,
+                                String.valueOf(snapshot.getBattery()[low]),
+                                snapshot.getId(low));
+                    } else {
+                        path = flow.path;
+                    }
+                }
+                flow.path = path;
+                flow.version = flow.betterSince < 0 ? version : -1;
+                if (path.size() < 2 || ledger.isInstalled(flow.netId, path)
+                        || shadow.isInstalled(flow.netId, path)) {
+                    continue;
+                }
+                Long last = router.lastPush.get(flow.destination);
+                if (last != null && now - last < pushInterval) {
+                    long wait = pushInterval - (now - last);
+                    deferred = deferred < 0 ? wait : Math.min(deferred, wait);
+                    continue;
+                }
+                router.lastPush.put(flow.destination, now);
+            }
+            log(Level.FINE, "push src: " + flow.source + " / dst: "
+                    + flow.destination + " / path: " + path);
+            sendPath(flow.netId, path.getFirst(), path);
+        }
+
+        if (deferred >= 0
+                && router.recomputePending.compareAndSet(false, true)) {
+            pusher.schedule(() -> recomputeFlows(router), deferred,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Converts a path of a flow into the indexes of its nodes in a snapshot.
+     *
+     * @return the indexes of the nodes, null if the path is null or one of its
+     * nodes is not in the snapshot
+     */
+    private static int[] toIndexes(TopologySnapshot snapshot, byte netId,
+            List<NodeAddress> path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        int[] nodes = new int[path.size()];
+        int i = 0;
+        for (NodeAddress addr : path) {
+            nodes[i] = snapshot.indexOf((netId & 0xFF) + "." + addr);
+            if (nodes[i++] < 0) {
+                return null;
+            }
+        }
+        return nodes;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * This method returns the path to the destination chosen by the last
+     * computation. Among the shortest paths, the one whose node with the
+     * lowest battery level has the highest battery level is chosen in the
+     * relaxation loop of Dijkstra, so the paths between the two nodes do not
+     * have to be enumerated. Then the node with the lowest battery level in
+     * the path is passed with the path to PathInfo.
+     *
+     * Ex:
+     *  P1: [10 - 5 - 20]
+     *  P2: [10 - 2 - 25]
+     * The path choosen will be P1, because the node 2 in P1
+     * has the highest battery level between the lowests [5, 2]
+     *
+     * @author mjneto
+     */
+    private Path chosePath(Dijkstra dijkstra, Node destinationNode,
+            String destination, String source) {
+        Path chosenPath = dijkstra.getPath(destinationNode);
+        Node lowBattNode = null;
+        int lowBatt = Integer.MAX_VALUE;
+        for (Node node : chosenPath.getNodePath()) {
+            int batt = (int) node.getAttribute("battery");
+            if (batt < lowBatt) {
+                lowBatt = batt;
+                lowBattNode = node;
             }
-            //reset for the next path
-            lowBattNode.put("battery", "999");
-            lowBattNode.put("id", "0");
         }
-        PathInfo(destination, source, chosenPath, highLowBattNode.get("battery"), highLowBattNode.get("id"));
+        metrics.tracer.mark("getPath");
+        if (lowBattNode != null) {
+            PathInfo(destination, source, chosenPath.getNodePath(),
+                    String.valueOf(lowBatt), lowBattNode.getId());
+            metrics.tracer.mark("PathInfo");
+        }
         return chosenPath;
     }
 
     /**
-        * Method to write the path information in a file. It will read the file searching for strings of the
-        * the source and destination nodes. If finds it, it will overwrite the line with the new path information.
-        * This read all lines and rewrite the file as a whole, so maybe it will be slower.
+        * Method to write the path information in a file. The line is handed to a
+        * background thread, so the callers, which may hold the lock of a
+        * network, never wait for the disk. The lines of the same source and
+        * destination received before the thread runs are written once.
         * 
         * @param destination Destination node
         * @param source Source node
-        * @param path Path to be written
+        * @param path Nodes of the path to be written
         * @param lowBattNodeValue Battery level of the node with the lowest battery level in the path
         * @param lowBattNodeId Node ID of the node with the lowest battery level in the path
         *
         * @author mjneto
         */
-    private void PathInfo(String destination, String source, Path path, String lowBattNodeValue, String lowBattNodeId) {
+    private void PathInfo(String destination, String source, List<?> path, String lowBattNodeValue, String lowBattNodeId) {
+        if (path.size() > 1) {
+            pathInfo.put(source + ":" + destination, source + ":" + destination
+                    + ":" + path.toString() + ":" + lowBattNodeId + ":" + lowBattNodeValue);
+            if (pathInfoPending.compareAndSet(false, true)) {
+                pathInfoWriter.execute(this::writePathInfo);
+            }
+        }
+    }
+
+    /**
+        * Writes the lines queued by PathInfo. It will read the file searching for strings of the
+        * the source and destination nodes. If finds it, it will overwrite the line with the new path information.
+        * This read all lines and rewrite the file as a whole, so maybe it will be slower.
+        *
+        * @author mjneto
+        */
+    private void writePathInfo() {
+        pathInfoPending.set(false);
+        Map<String, String> lines = new HashMap<>();
+        for (Map.Entry<String, String> e : pathInfo.entrySet()) {
+            // a newer line put in the meantime stays for the next run
+            if (pathInfo.remove(e.getKey(), e.getValue())) {
+                lines.put(e.getKey(), e.getValue());
+            }
+        }
         File modifyFile = new File("pathsFile.txt");
         BufferedReader readerFile = null;
         FileWriter fw = null;
-        String newLine = source + ":" + destination + ":" + path.toString() + ":" + lowBattNodeId + ":" + lowBattNodeValue;
         String modifiedInfo = "";
 
-        if(path.size() > 1) {
-            try {
-                readerFile = new BufferedReader(new FileReader(modifyFile));
-                String line = readerFile.readLine();
+        try {
+            readerFile = new BufferedReader(new FileReader(modifyFile));
+            String line = readerFile.readLine();
 
-                while(line != null) {
-                    if(source.equals(line.split(":")[0]) && destination.equals(line.split(":")[1])) {
-                        modifiedInfo += newLine + System.getProperty("line.separator");
-                    } else {
-                        modifiedInfo += line + System.getProperty("line.separator");
+            while(line != null) {
+                String[] fields = line.split(":");
+                String newLine = fields.length > 1
+                        ? lines.get(fields[0] + ":" + fields[1]) : null;
+                modifiedInfo += (newLine != null ? newLine : line) + System.getProperty("line.separator");
+                line = readerFile.readLine();
+            }
+            readerFile.close();
+            fw = new FileWriter(modifyFile);
+            fw.write(modifiedInfo);
+            fw.close();
+        } catch (IOException e) {
+            log(Level.WARNING, "Cannot write pathsFile.txt: " + e);
+        }
+    }
+
+    /**
+     * Returns the paths of the flows computed by the controller. The map is a
+     * copy and it is built without taking the lock of the NetworkGraph.
+     *
+     * @return a map from the flow id to the path of the flow
+     */
+    @Override
+    public Map<String, List<NodeAddress>> getRoutes() {
+        Map<String, List<NodeAddress>> routes = new TreeMap<>();
+        for (Router router : routers.values()) {
+            for (Map.Entry<String, Flow> e : router.flows.entrySet()) {
+                Flow flow = e.getValue();
+                synchronized (flow) {
+                    if (flow.path != null) {
+                        routes.put(e.getKey(), new ArrayList<>(flow.path));
                     }
-                    line = readerFile.readLine();
                 }
-                readerFile.close();
-                fw = new FileWriter(modifyFile);
-                fw.write(modifiedInfo);
-                fw.close();
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
+        return routes;
     }
 
     @Override
     public void setupNetwork() {
 
     }
+
+    /**
+     * The routing state of a network: its flows, the shortest path tree of
+     * the last source, which is guarded by the lock of the partition of the
+     * network, and the last push toward each destination. In multipath mode
+     * it also holds the selector and the snapshot its paths are computed on,
+     * which are guarded by the lock of the router.
+     */
+    private static final class Router {
+
+        final int netId;
+        final Dijkstra dijkstra;
+        String lastSource = "";
+        long lastModification = -1;
+        final Map<String, Flow> flows = new ConcurrentHashMap<>();
+        final Map<String, Long> lastPush = new HashMap<>();
+        final AtomicBoolean recomputePending = new AtomicBoolean();
+        final MultipathSelector selector;
+        TopologySnapshot snapshot;
+        long snapshotTime;
+        long stamp;
+
+        Router(int netId, QueueType queueType, CostFunction cost,
+                MultipathSelector selector) {
+            this.netId = netId;
+            this.selector = selector;
+            this.dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "length");
+            this.dijkstra.setArrayMode(true);
+            this.dijkstra.setQueueType(queueType);
+            this.dijkstra.setCostFunction(cost);
+        }
+    }
+
+    /**
+     * An active flow between two nodes of the network, with the last path
+     * computed for it and the topology version of that computation.
+     */
+    private static final class Flow {
+
+        final byte netId;
+        final String source;
+        final String destination;
+        volatile long lastRequest;
+        LinkedList<NodeAddress> path;
+        long version = -1;
+        long betterSince = -1;
+        boolean damped;
+
+        Flow(byte netId, String source, String destination) {
+            this.netId = netId;
+            this.source = source;
+            this.destination = destination;
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package com.github.sdnwiselab.sdnwise.controller;
 
 import com.github.sdnwiselab.sdnwise.adapter.Adapter;
+import com.github.sdnwiselab.sdnwise.adapter.AdapterSimulator;
 import com.github.sdnwiselab.sdnwise.adapter.AdapterTcp;
 import com.github.sdnwiselab.sdnwise.adapter.AdapterUdp;
 import com.github.sdnwiselab.sdnwise.configuration.ConfigController;
@@ -44,6 +45,8 @@ public class ControllerFactory {
                 return new AdapterTcp(conf.getLower());
             case "UDP":
                 return new AdapterUdp(conf.getLower());
+            case "SIMULATOR":
+                return new AdapterSimulator(conf.getLower());
             default:
                 throw new UnsupportedOperationException("Error in config file");
         }
@@ -54,14 +57,28 @@ public class ControllerFactory {
         int timeout = Integer.parseInt(conf.getMap().get("TIMEOUT"));
         int rssiResolution = Integer.parseInt(conf.getMap().get("RSSI_RESOLUTION"));
 
+        NetworkGraph networkGraph;
         switch (graph) {
             case "CLI":
-                return new NetworkGraph(timeout, rssiResolution);
+                networkGraph = new NetworkGraph(timeout, rssiResolution);
+                break;
             case "GUI":
-                return new VisualNetworkGraph(timeout, rssiResolution);
+                String fps = conf.getMap().get("FPS");
+                networkGraph = new VisualNetworkGraph(timeout, rssiResolution,
+                        fps == null ? 10 : Integer.parseInt(fps));
+                break;
             default:
                 throw new UnsupportedOperationException("Error in Configuration file");
         }
+        String window = conf.getMap().get("BATTERY_WINDOW");
+        if (window != null) {
+            networkGraph.setBatteryWindow(Integer.parseInt(window));
+        }
+        String smoothing = conf.getMap().get("RSSI_SMOOTHING");
+        if (smoothing != null) {
+            networkGraph.setRssiSmoothing(Double.parseDouble(smoothing));
+        }
+        return networkGraph;
     }
 
     
@@ -70,7 +87,7 @@ public class ControllerFactory {
 
         switch (type) {
             case "DIJKSTRA":
-                return new ControllerDijkstra(adapt, ng);
+                return new ControllerDijkstra(adapt, ng, conf.getAlgorithm());
             default:
                 throw new UnsupportedOperationException("Error in Configuration file");
         }
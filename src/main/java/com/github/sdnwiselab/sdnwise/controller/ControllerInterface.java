@@ -17,10 +17,14 @@
 package com.github.sdnwiselab.sdnwise.controller;
 
 import com.github.sdnwiselab.sdnwise.flowtable.FlowTableEntry;
+import com.github.sdnwiselab.sdnwise.packet.ConfigPacket;
 import com.github.sdnwiselab.sdnwise.packet.NetworkPacket;
 import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
 import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This Interface defines principal methods of the Controller.
@@ -130,6 +134,65 @@ public interface ControllerInterface {
      */
     List<FlowTableEntry> getRules(byte netId, NodeAddress destination);
 
+    /**
+     * This method gets the WISE flow tables of many nodes
+     *
+     * @param netId network id of the destination nodes
+     * @param destinations network addresses of the destination nodes
+     * @return returns for each node the list of the entries in its WISE Flow
+     * Table
+     */
+    Map<NodeAddress, List<FlowTableEntry>> getRules(byte netId,
+            Collection<NodeAddress> destinations);
+
+    /**
+     * This method gets the WISE flow tables of all the nodes of a network
+     *
+     * @param netId network id of the nodes
+     * @return returns for each node the list of the entries in its WISE Flow
+     * Table
+     */
+    Map<NodeAddress, List<FlowTableEntry>> getRules(byte netId);
+
+    /**
+     * This method gets the copy of the WISE flow table of a node kept by the
+     * controller, without querying the node
+     *
+     * @param netId network id of the node
+     * @param destination network address of the node
+     * @return returns the list of the entries the node is expected to hold
+     */
+    List<FlowTableEntry> getShadowRules(byte netId, NodeAddress destination);
+
+    /**
+     * This method gets the next hop towards a destination installed in a node
+     * by a path, without querying the node
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param destination network address of the destination
+     * @return returns the next hop, null if there is no such path
+     */
+    NodeAddress getShadowNextHop(byte netId, NodeAddress node,
+            NodeAddress destination);
+
+    /**
+     * Checks if this controller owns a network, that is, if it runs the
+     * background work of the network.
+     *
+     * @param netId network id
+     * @return true if this controller owns the network
+     */
+    boolean isOwner(int netId);
+
+    /**
+     * Returns the ids of the live members of the cluster of this controller.
+     *
+     * @return the ids of the members, an empty set if the controller is not
+     * in a cluster
+     */
+    Set<Integer> getClusterMembers();
+
     /**
      * Method called to update the graph of Network.
      *
@@ -190,6 +253,63 @@ public interface ControllerInterface {
      */
     void sendFunction(byte netId, NodeAddress destination, byte functionId, String className);
 
+    /**
+     * Method to send a function to many nodes at the same time. The chunks of
+     * the function are interleaved and paced, and the method returns when all
+     * the transfers are complete.
+     *
+     * @param netId Network Identity the Destination Nodes belong.
+     * @param destinations network addresses of the destination nodes
+     * @param functionId byte value to identifies functions to send.
+     * @param className string value for the function to send.
+     * @return for each node, true if the function has been delivered
+     */
+    Map<NodeAddress, Boolean> sendFunction(byte netId,
+            Collection<NodeAddress> destinations, byte functionId,
+            String className);
+
+    /**
+     * Method to send the same configuration to many nodes. The nodes are
+     * reached following the shortest path tree rooted in the sink and each
+     * node is asked for the new value to confirm the delivery.
+     *
+     * @param netId Network Identity the Destination Nodes belong.
+     * @param destinations network addresses of the destination nodes
+     * @param packet a config packet writing the configuration, its
+     * destination is replaced for each node
+     * @return for each node, true if it confirmed the new value
+     */
+    Map<NodeAddress, Boolean> disseminate(byte netId,
+            Collection<NodeAddress> destinations, ConfigPacket packet);
+
+    /**
+     * Method to write many parameters on many nodes. The packets of all the
+     * nodes are sent in a row, respecting the rate of the sink, and each value
+     * is read back to confirm it.
+     *
+     * @param netId Network Identity the Destination Nodes belong.
+     * @param destinations network addresses of the destination nodes
+     * @param values the new value of each parameter
+     * @return for each node, true if it confirmed all the new values
+     */
+    Map<NodeAddress, Boolean> setNodeParameters(byte netId,
+            Collection<NodeAddress> destinations,
+            Map<NodeParameter, Integer> values);
+
+    /**
+     * Method to read many parameters from many nodes. The queries of all the
+     * nodes are sent in a row, respecting the rate of the sink, and the
+     * answers are collected as they arrive.
+     *
+     * @param netId Network Identity the Destination Nodes belong.
+     * @param destinations network addresses of the destination nodes
+     * @param parameters the parameters to read
+     * @return for each node, the value of the parameters it answered
+     */
+    Map<NodeAddress, Map<NodeParameter, Integer>> getNodeParameters(
+            byte netId, Collection<NodeAddress> destinations,
+            Collection<NodeParameter> parameters);
+
     /**
      * This method sends a SDN_WISE_OPEN_PATH messages to a generic node. This
      * kind of message holds a list of nodes that will create a path inside the
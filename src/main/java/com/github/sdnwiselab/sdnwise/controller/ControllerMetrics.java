@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.metrics.Counter;
+import com.github.sdnwiselab.sdnwise.metrics.Histogram;
+import com.github.sdnwiselab.sdnwise.metrics.Metrics;
+import com.github.sdnwiselab.sdnwise.metrics.MetricsServer;
+import com.github.sdnwiselab.sdnwise.metrics.Tracer;
+import com.github.sdnwiselab.sdnwise.packet.NetworkPacket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * This class holds the metrics measured by a Controller: the packets and bytes
+ * received from and sent to the lower adapter, the time a packet waits in the
+ * queue and the time spent to manage it for each type of packet, the time
+ * spent computing routes and how often a previous result is reused, and the
+ * changes of the topology. The metrics can be exported by a local HTTP server
+ * and summarized periodically in the log of the controller.
+ * <p>
+ * The Tracer records the steps of the management of each packet, from its
+ * reception to the SDN_WISE_OPEN_PATH sent back, and keeps the slow and a
+ * sample of the other traces. The HTTP server shows them at /traces.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class ControllerMetrics {
+
+    /**
+     * The label of each type of packet. SDN_WISE_REQUEST packets have their
+     * own label, a packet with the request flag set is a routing_request.
+     */
+    static final String[] TYPES = {"data", "beacon", "report", "request",
+        "response", "open_path", "config", "routing_request", "other"};
+    static final int ROUTING_REQUEST = 7;
+    static final int OTHER = 8;
+
+    final Metrics registry = new Metrics();
+
+    final Counter packetsIn = registry.counter("sdnwise_adapter_packets_received_total",
+            "Packets received from the lower adapter");
+    final Counter bytesIn = registry.counter("sdnwise_adapter_bytes_received_total",
+            "Bytes received from the lower adapter");
+    final Counter packetsOut = registry.counter("sdnwise_adapter_packets_sent_total",
+            "Packets sent to the lower adapter");
+    final Counter bytesOut = registry.counter("sdnwise_adapter_bytes_sent_total",
+            "Bytes sent to the lower adapter");
+    final Histogram queueWait = registry.histogram("sdnwise_queue_wait_seconds",
+            "Time a packet waits in the queue before being managed");
+    final Counter[] received = new Counter[TYPES.length];
+    final Counter[] sent = new Counter[TYPES.length];
+    final Histogram[] handling = new Histogram[TYPES.length];
+
+    final Histogram treeTime = registry.histogram("sdnwise_route_tree_seconds",
+            "Time spent computing a shortest path tree");
+    final Histogram selectionTime = registry.histogram("sdnwise_route_selection_seconds",
+            "Time spent choosing a path among the shortest ones");
+    final Histogram recomputeTime = registry.histogram("sdnwise_route_recompute_seconds",
+            "Time spent recomputing the active flows after a topology change");
+    final Counter flowHits = registry.counter("sdnwise_route_cache_total",
+            "Routing requests by outcome of the flow cache", "result", "hit");
+    final Counter flowMisses = registry.counter("sdnwise_route_cache_total",
+            "Routing requests by outcome of the flow cache", "result", "miss");
+    final Counter treeHits = registry.counter("sdnwise_route_tree_cache_total",
+            "Path computations by reuse of the last shortest path tree", "result", "hit");
+    final Counter treeMisses = registry.counter("sdnwise_route_tree_cache_total",
+            "Path computations by reuse of the last shortest path tree", "result", "miss");
+    final Counter topologyChanges = registry.counter("sdnwise_topology_changes_total",
+            "Changes of the version of the topology");
+    final Counter rebalances = registry.counter("sdnwise_multipath_rebalance_total",
+            "Flows moved to another path because a relay of their path was draining");
+    final Counter dampedChanges = registry.counter("sdnwise_route_damped_total",
+            "Path changes held back by the route hysteresis, once per change");
+
+    final Tracer tracer;
+
+    private final int port;
+    private final long interval;
+    private final long[] last = new long[8];
+    private ScheduledExecutorService logger;
+    private MetricsServer server;
+
+    /**
+     * Creates the metrics of a controller. The conf map may contain:
+     * <ol>
+     * <li>METRICS_PORT, the local port of the HTTP server, 0 to disable
+     * it</li>
+     * <li>METRICS_INTERVAL, seconds between two log lines, 0 to disable
+     * them</li>
+     * <li>TRACE_SIZE, the number of slow and of sampled traces kept, 0 to
+     * disable tracing</li>
+     * <li>TRACE_SLOW, the duration in milliseconds above which a trace is
+     * always kept</li>
+     * <li>TRACE_SAMPLE, one every TRACE_SAMPLE traces is kept, 0 to keep only
+     * the slow ones</li>
+     * </ol>
+     *
+     * @param conf contains the algorithm configuration data
+     */
+    ControllerMetrics(Map<String, String> conf) {
+        port = Integer.parseInt(conf.getOrDefault("METRICS_PORT", "0"));
+        interval = Long.parseLong(conf.getOrDefault("METRICS_INTERVAL", "60"));
+        tracer = new Tracer(
+                Integer.parseInt(conf.getOrDefault("TRACE_SIZE", "256")),
+                (long) (Double.parseDouble(conf.getOrDefault("TRACE_SLOW", "20")) * 1e6),
+                Integer.parseInt(conf.getOrDefault("TRACE_SAMPLE", "100")));
+        for (int i = 0; i < TYPES.length; i++) {
+            received[i] = registry.counter("sdnwise_packets_received_total",
+                    "Packets managed by the controller by type", "type", TYPES[i]);
+            sent[i] = registry.counter("sdnwise_packets_sent_total",
+                    "Packets sent by the controller by type", "type", TYPES[i]);
+            handling[i] = registry.histogram("sdnwise_packet_handling_seconds",
+                    "Time spent managing a packet by type", "type", TYPES[i]);
+        }
+    }
+
+    /**
+     * Returns the index in TYPES of the type of a packet.
+     *
+     * @param packet a NetworkPacket
+     * @return the index of the label of the packet
+     */
+    static int typeOf(NetworkPacket packet) {
+        if (packet.isRequest()) {
+            return ROUTING_REQUEST;
+        }
+        int type = packet.getType();
+        return type >= 0 && type < ROUTING_REQUEST ? type : OTHER;
+    }
+
+    /**
+     * Returns the index in TYPES of the type of a received packet.
+     *
+     * @param view the view of the packet
+     * @return the index of the label of the packet
+     */
+    static int typeOf(PacketView view) {
+        if (view.isRequest()) {
+            return ROUTING_REQUEST;
+        }
+        int type = view.getType();
+        return type < ROUTING_REQUEST ? type : OTHER;
+    }
+
+    /**
+     * Starts the HTTP server and the periodic log line, if enabled.
+     *
+     * @param controller the controller logging the metrics
+     */
+    synchronized void start(final Controller controller) {
+        if (port > 0 && server == null) {
+            try {
+                server = new MetricsServer(registry,
+                        new InetSocketAddress("localhost", port));
+                server.addContext("/traces", tracer::dump);
+                controller.log(Level.INFO, "Metrics available at http://localhost:"
+                        + server.getPort() + "/metrics");
+            } catch (IOException ex) {
+                controller.log(Level.SEVERE, "Metrics server: " + ex.getMessage());
+            }
+        }
+        if (interval > 0 && logger == null) {
+            logger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread th = new Thread(r, "MetricsLogger");
+                th.setDaemon(true);
+                return th;
+            });
+            logger.scheduleAtFixedRate(
+                    () -> controller.log(Level.INFO, line(interval)),
+                    interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the HTTP server and the periodic log line.
+     */
+    synchronized void stop() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+        if (logger != null) {
+            logger.shutdownNow();
+            logger = null;
+        }
+    }
+
+    /**
+     * Summarizes the metrics of the last interval in a line. Rates refer to
+     * the interval while percentiles refer to the whole life of the
+     * controller.
+     *
+     * @param seconds the length of the interval
+     * @return the summary
+     */
+    synchronized String line(long seconds) {
+        long[] now = {packetsIn.get(), bytesIn.get(), packetsOut.get(),
+            bytesOut.get(), flowHits.get(), flowMisses.get(),
+            topologyChanges.get(), treeTime.getCount()};
+        long[] d = new long[now.length];
+        for (int i = 0; i < now.length; i++) {
+            d[i] = now[i] - last[i];
+            last[i] = now[i];
+        }
+        long lookups = d[4] + d[5];
+        return String.format(Locale.ROOT,
+                "in %.1f pkt/s %.1f B/s, out %.1f pkt/s %.1f B/s, queue %d "
+                + "wait p99 %.3f ms, report p99 %.3f ms, request p99 %.3f ms, "
+                + "trees %d p99 %.3f ms, flow cache hit %s, topology %d nodes "
+                + "%d links %d changes",
+                (double) d[0] / seconds, (double) d[1] / seconds,
+                (double) d[2] / seconds, (double) d[3] / seconds,
+                registry.getGauge("sdnwise_queue_depth"),
+                ms(queueWait.getQuantile(0.99)),
+                ms(handling[NetworkPacket.SDN_WISE_REPORT].getQuantile(0.99)),
+                ms(handling[ROUTING_REQUEST].getQuantile(0.99)),
+                d[7], ms(treeTime.getQuantile(0.99)),
+                lookups == 0 ? "-" : (100 * d[4] / lookups) + "%",
+                registry.getGauge("sdnwise_topology_nodes"),
+                registry.getGauge("sdnwise_topology_links"), d[6]);
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+/**
+ * This Interface defines the cost of a link used by the Dijkstra
+ * implementations. The cost is evaluated in the relaxation loop for each link
+ * leaving a node, so it receives only primitive values and it must not
+ * allocate. The cost of a path is the sum of the costs of its links and it
+ * must never be negative.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public interface CostFunction {
+
+    /**
+     * The cost used by default: the length of the link, derived from its
+     * RSSI.
+     */
+    CostFunction LENGTH = (length, battery, drain) -> length;
+
+    /**
+     * Returns the cost of a link.
+     *
+     * @param length the length of the link, 255 minus the RSSI
+     * @param battery the battery level of the node at the end of the link,
+     * from 0 to 255
+     * @param drain the drain rate of the node at the end of the link, in
+     * battery levels per hour, 0 if unknown
+     * @return the cost of the link
+     */
+    double cost(int length, int battery, double drain);
+}
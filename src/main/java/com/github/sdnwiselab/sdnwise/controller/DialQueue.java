@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import java.util.Arrays;
+
+/**
+ * A bucket queue of node indexes for Dijkstra's algorithm with integer
+ * lengths (Dial's algorithm). Since the keys extracted by Dijkstra never
+ * decrease and the keys in the queue are never more than the longest link
+ * above the last extracted one, a circular array of buckets is enough. The
+ * array starts with 256 buckets, the lengths of the links being between 0 and
+ * 255, and doubles if a longer distance is found. Each bucket is a doubly
+ * linked list stored in arrays indexed by node.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class DialQueue implements NodeQueue {
+
+    private static final int NONE = -1;
+
+    private int[] head = new int[256];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private long[] bucket = new long[0];
+    private boolean[] queued = new boolean[0];
+    private double[] keys;
+    private long cursor;
+    private int size;
+
+    @Override
+    public void reset(double[] keys, int n) {
+        if (queued.length < n) {
+            next = new int[n];
+            prev = new int[n];
+            bucket = new long[n];
+            queued = new boolean[n];
+        } else {
+            Arrays.fill(queued, 0, n, false);
+        }
+        Arrays.fill(head, NONE);
+        this.keys = keys;
+        cursor = NONE;
+        size = 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(int node) {
+        return queued[node];
+    }
+
+    @Override
+    public void add(int node) {
+        if (cursor == NONE) {
+            cursor = toBucket(keys[node]);
+        }
+        queued[node] = true;
+        size++;
+        insert(node);
+    }
+
+    @Override
+    public void decreaseKey(int node) {
+        unlink(node);
+        insert(node);
+    }
+
+    @Override
+    public int extractMin() {
+        int mask = head.length - 1;
+        while (head[(int) (cursor & mask)] == NONE) {
+            cursor++;
+        }
+        int node = head[(int) (cursor & mask)];
+        unlink(node);
+        queued[node] = false;
+        size--;
+        return node;
+    }
+
+    private static long toBucket(double key) {
+        long b = (long) key;
+        if (b != key || b < 0) {
+            throw new IllegalArgumentException(
+                    "The DIAL queue needs non negative integer lengths: " + key);
+        }
+        return b;
+    }
+
+    private void insert(int node) {
+        long b = toBucket(keys[node]);
+        if (b < cursor) {
+            throw new IllegalStateException("Key lower than the minimum");
+        }
+        while (b - cursor >= head.length) {
+            grow();
+        }
+        bucket[node] = b;
+        int i = (int) (b & (head.length - 1));
+        next[node] = head[i];
+        prev[node] = NONE;
+        if (head[i] != NONE) {
+            prev[head[i]] = node;
+        }
+        head[i] = node;
+    }
+
+    private void unlink(int node) {
+        int i = (int) (bucket[node] & (head.length - 1));
+        if (prev[node] == NONE) {
+            head[i] = next[node];
+        } else {
+            next[prev[node]] = next[node];
+        }
+        if (next[node] != NONE) {
+            prev[next[node]] = prev[node];
+        }
+    }
+
+    /**
+     * Doubles the number of buckets and moves the queued nodes.
+     */
+    private void grow() {
+        int[] old = head;
+        head = new int[old.length * 2];
+        Arrays.fill(head, NONE);
+        for (int first : old) {
+            for (int node = first; node != NONE;) {
+                int following = next[node];
+                int i = (int) (bucket[node] & (head.length - 1));
+                next[node] = head[i];
+                prev[node] = NONE;
+                if (head[i] != NONE) {
+                    prev[head[i]] = node;
+                }
+                head[i] = node;
+                node = following;
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@
 package com.github.sdnwiselab.sdnwise.controller;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -91,6 +92,16 @@ import org.graphstream.graph.Path;
  * is using different solution access methods.
  * </p>
  * 
+ * <p>
+ * Alternatively the solution can be kept in arrays indexed by node index,
+ * owned by the Dijkstra instance and reused by the following computations.
+ * This mode is enabled by {@link #setArrayMode(boolean)}. It does not create
+ * any object nor attribute for each computation, but the solution refers to
+ * the indexes of the nodes, so it is lost as soon as a node is removed from
+ * the graph. In this mode the priority queue can be chosen with
+ * {@link #setQueueType(QueueType)}.
+ * </p>
+ * 
  * <h3>Usage</h3>
  * 
  * <p>
@@ -186,9 +197,28 @@ public class Dijkstra extends AbstractSpanningTree {
 	protected String lengthAttribute;
 	protected Node source;
 
+	// *** Solution stored in arrays ***
+
+	protected boolean arrayMode;
+	protected double[] distances = new double[0];
+	protected Edge[] edgesFromParent = new Edge[0];
+	protected QueueType queueType = QueueType.BINARY;
+	protected NodeQueue queue;
+	protected CostFunction costFunction;
+	protected int[] bottlenecks = new int[0];
+
 	// *** Helpers ***
 
 	protected double getLength(Edge edge, Node dest) {
+		if (costFunction != null && element == Element.EDGE) {
+			double lenght = costFunction.cost(
+					(int) edge.getNumber(lengthAttribute),
+					getBattery(dest), getDrain(dest));
+			if (lenght < 0)
+				throw new IllegalStateException("Edge " + edge.getId()
+						+ " has negative cost " + lenght);
+			return lenght;
+		}
 		double lenght = 0;
 		if (element != Element.NODE)
 			lenght += lengthAttribute == null ? 1 : edge
@@ -202,6 +232,16 @@ public class Dijkstra extends AbstractSpanningTree {
 		return lenght;
 	}
 
+	protected static int getBattery(Node node) {
+		double battery = node.getNumber("battery");
+		return Double.isNaN(battery) ? 0 : (int) battery;
+	}
+
+	protected static double getDrain(Node node) {
+		double drain = node.getNumber("drain");
+		return Double.isNaN(drain) ? 0 : drain;
+	}
+
 	protected double getSourceLength() {
 		if (element == Element.EDGE)
 			return 0;
@@ -299,6 +339,58 @@ public class Dijkstra extends AbstractSpanningTree {
 		this.source = source;
 	}
 
+	/**
+	 * Chooses where the solution is stored. If {@code true} the solution is
+	 * kept in arrays indexed by node index instead of the node attributes.
+	 * 
+	 * @param arrayMode
+	 *            {@code true} to store the solution in arrays
+	 * @see #isArrayMode()
+	 */
+	public void setArrayMode(boolean arrayMode) {
+		this.arrayMode = arrayMode;
+	}
+
+	/**
+	 * Tells if the solution is stored in arrays indexed by node index.
+	 * 
+	 * @return {@code true} if the solution is stored in arrays
+	 * @see #setArrayMode(boolean)
+	 */
+	public boolean isArrayMode() {
+		return arrayMode;
+	}
+
+	/**
+	 * Chooses the priority queue used when the solution is stored in arrays.
+	 * 
+	 * @param queueType
+	 *            the type of the queue, {@link QueueType#BINARY} by default
+	 * @see #setArrayMode(boolean)
+	 */
+	public void setQueueType(QueueType queueType) {
+		if (this.queueType != queueType)
+			queue = null;
+		this.queueType = queueType;
+	}
+
+	/**
+	 * Chooses how the length of an edge is computed when the length of a
+	 * path is the sum of the lengths of its edges. The cost function receives
+	 * the {@code lengthAttribute} of the edge and the "battery" and "drain"
+	 * attributes of the node the edge leads to. When the solution is stored
+	 * in arrays, among the paths with the same length the one whose node with
+	 * the lowest battery has the highest battery is chosen, so a single
+	 * computation gives the path of the energy-aware policy.
+	 * 
+	 * @param costFunction
+	 *            the cost of the edges, {@code null} to use the
+	 *            {@code lengthAttribute}
+	 */
+	public void setCostFunction(CostFunction costFunction) {
+		this.costFunction = costFunction;
+	}
+
 	/**
 	 * Removes the attributes used to store internal solution data in the nodes
 	 * of the graph. Use this method to free memory. Solution access methods
@@ -307,6 +399,10 @@ public class Dijkstra extends AbstractSpanningTree {
 	@Override
 	public void clear() {
 		super.clear();
+		if (arrayMode) {
+			Arrays.fill(edgesFromParent, null);
+			return;
+		}
 		for (Node node : graph) {
 			Data data = node.getAttribute(resultAttribute);
 			if (data != null) {
@@ -343,8 +439,12 @@ public class Dijkstra extends AbstractSpanningTree {
 		if (source == null)
 			throw new IllegalStateException(
 					"No source specified. Call setSource() first.");
-		resetFlags();
-		makeTree();
+		if (flagAttribute != null)
+			resetFlags();
+		if (arrayMode)
+			makeTreeInArrays();
+		else
+			makeTree();
 	}
 	
 	@Override
@@ -384,6 +484,75 @@ public class Dijkstra extends AbstractSpanningTree {
 		}		
 	}
 
+	/**
+	 * Same as {@link #makeTree()}, but the distances and the edges from the
+	 * parents are stored in arrays indexed by node index. The nodes are added
+	 * to the queue only when they are reached for the first time.
+	 */
+	protected void makeTreeInArrays() {
+		int n = graph.getNodeCount();
+		if (distances.length < n) {
+			distances = new double[n];
+			edgesFromParent = new Edge[n];
+			bottlenecks = new int[n];
+		}
+		boolean batteryTies = costFunction != null;
+		if (queue == null)
+			queue = queueType.create();
+		Arrays.fill(distances, 0, n, Double.POSITIVE_INFINITY);
+		Arrays.fill(edgesFromParent, 0, n, null);
+		queue.reset(distances, n);
+
+		int s = source.getIndex();
+		distances[s] = getSourceLength();
+		bottlenecks[s] = getBattery(source);
+		queue.add(s);
+
+		// main loop
+		while (!queue.isEmpty()) {
+			int u = queue.extractMin();
+			Node nodeU = graph.getNode(u);
+			if (edgesFromParent[u] != null)
+				edgeOn(edgesFromParent[u]);
+			for (int i = 0, degree = nodeU.getOutDegree(); i < degree; i++) {
+				Edge e = nodeU.getLeavingEdge(i);
+				Node nodeV = e.getOpposite(nodeU);
+				int v = nodeV.getIndex();
+				boolean queued = queue.contains(v);
+				// reached and not in the queue means already settled
+				if (!queued && distances[v] != Double.POSITIVE_INFINITY
+						&& !batteryTies)
+					continue;
+				double tryDist = distances[u] + getLength(e, nodeV);
+				if (tryDist < distances[v]) {
+					distances[v] = tryDist;
+					edgesFromParent[v] = e;
+					if (batteryTies)
+						bottlenecks[v] = Math.min(bottlenecks[u],
+								getBattery(nodeV));
+					if (queued)
+						queue.decreaseKey(v);
+					else
+						queue.add(v);
+				} else if (batteryTies && tryDist == distances[v]) {
+					int tryBottleneck = Math.min(bottlenecks[u],
+							getBattery(nodeV));
+					if (tryBottleneck > bottlenecks[v]) {
+						// a settled node reached again over links of zero
+						// length is visited again, so that the nodes after
+						// it see its new bottleneck
+						if (!queued) {
+							edgeOff(edgesFromParent[v]);
+							queue.add(v);
+						}
+						edgesFromParent[v] = e;
+						bottlenecks[v] = tryBottleneck;
+					}
+				}
+			}
+		}
+	}
+
 	// *** Iterators ***
 
 	protected class NodeIterator<T extends Node> implements Iterator<T> {
@@ -561,6 +730,8 @@ public class Dijkstra extends AbstractSpanningTree {
 	 * @complexity O(1)
 	 */
 	public double getPathLength(Node target) {
+		if (arrayMode)
+			return distances[target.getIndex()];
 		return target.<Data> getAttribute(resultAttribute).distance;
 	}
 
@@ -598,6 +769,8 @@ public class Dijkstra extends AbstractSpanningTree {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends Edge> T getEdgeFromParent(Node target) {
+		if (arrayMode)
+			return (T) edgesFromParent[target.getIndex()];
 		return (T) target.<Data> getAttribute(resultAttribute).edgeFromParent;
 	}
 
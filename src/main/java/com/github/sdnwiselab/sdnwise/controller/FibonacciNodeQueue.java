@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import java.util.Arrays;
+import org.graphstream.algorithm.util.FibonacciHeap;
+
+/**
+ * A NodeQueue backed by the FibonacciHeap of GraphStream. It allocates a heap
+ * node and a boxed key for each insertion and it is kept as a reference for
+ * the other queues.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class FibonacciNodeQueue implements NodeQueue {
+
+    private FibonacciHeap<Double, Integer> heap;
+    private FibonacciHeap<Double, Integer>.Node[] handles;
+    private double[] keys;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void reset(double[] keys, int n) {
+        if (handles == null || handles.length < n) {
+            handles = new FibonacciHeap.Node[n];
+        } else {
+            Arrays.fill(handles, 0, n, null);
+        }
+        heap = new FibonacciHeap<>();
+        this.keys = keys;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    @Override
+    public boolean contains(int node) {
+        return handles[node] != null;
+    }
+
+    @Override
+    public void add(int node) {
+        handles[node] = heap.add(keys[node], node);
+    }
+
+    @Override
+    public void decreaseKey(int node) {
+        heap.decreaseKey(handles[node], keys[node]);
+    }
+
+    @Override
+    public int extractMin() {
+        int node = heap.extractMin();
+        handles[node] = null;
+        return node;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.function.FunctionInterface;
+import com.github.sdnwiselab.sdnwise.packet.ConfigFunctionPacket;
+import com.github.sdnwiselab.sdnwise.packet.ConfigPacket;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * This class sends the bytecode of the functions to the nodes. The class file
+ * of a function is read and split in chunks only once. The chunks of many
+ * transfers are interleaved, and the packets going through the same sink are
+ * sent at most one every interval milliseconds, so that a rollout to the
+ * whole network does not flood the sink. As in the first version of
+ * sendFunction, a node is given some time to prepare after the first chunk of
+ * a function.
+ * <p>
+ * If the nodes acknowledge the chunks, answering each one with the same
+ * SDN_WISE_CNF_ADD_FUNCTION config packet without the write flag, a transfer
+ * is complete when all the chunks are acknowledged and the missing ones are
+ * sent again after a timeout, for a limited number of rounds. Otherwise a
+ * transfer is complete when all its chunks have been sent.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class FunctionDistributor {
+
+    static final int CHUNK_SIZE = 101;
+    static final int MAX_CHUNKS = 255;
+    static final long FIRST_CHUNK_DELAY = 200;
+
+    private final Controller controller;
+    private final long interval;
+    private final boolean ack;
+    private final long ackTimeout;
+    private final int retries;
+    private final long timeout;
+
+    private final Map<String, byte[][]> chunks = new ConcurrentHashMap<>();
+    private final Map<NodeAddress, Sink> sinks = new HashMap<>();
+    private final Map<String, Transfer> transfers = new HashMap<>();
+    private final ScheduledExecutorService timer;
+    private ScheduledFuture<?> pump;
+
+    /**
+     * Creates a distributor. The conf map contains the options of the
+     * algorithm as strings. Optional parameters are:
+     * <ol>
+     * <li>FUNCTION_INTERVAL, minimum time in milliseconds between two chunks
+     * sent through the same sink, 20 by default</li>
+     * <li>FUNCTION_ACK, TRUE if the nodes acknowledge the chunks</li>
+     * <li>FUNCTION_ACK_TIMEOUT, time in milliseconds to wait for the
+     * acknowledgements before sending the missing chunks again</li>
+     * <li>FUNCTION_RETRIES, how many times the missing chunks are sent
+     * again</li>
+     * <li>FUNCTION_TIMEOUT, time in seconds the callers wait for a transfer,
+     * 60 by default</li>
+     * </ol>
+     *
+     * @param controller the controller sending the packets
+     * @param conf contains the algorithm configuration data
+     */
+    FunctionDistributor(Controller controller, Map<String, String> conf) {
+        this.controller = controller;
+        interval = Long.parseLong(conf.getOrDefault("FUNCTION_INTERVAL", "20"));
+        ack = Boolean.parseBoolean(conf.getOrDefault("FUNCTION_ACK", "FALSE"));
+        ackTimeout = Long.parseLong(conf.getOrDefault("FUNCTION_ACK_TIMEOUT", "1000"));
+        retries = Integer.parseInt(conf.getOrDefault("FUNCTION_RETRIES", "3"));
+        timeout = Long.parseLong(conf.getOrDefault("FUNCTION_TIMEOUT", "60"))
+                * 1000L;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread th = new Thread(r, "FunctionSender");
+            th.setDaemon(true);
+            return th;
+        });
+    }
+
+    /**
+     * Returns how long the callers wait for a transfer.
+     *
+     * @return the timeout in milliseconds
+     */
+    long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Starts sending a function to a node. A previous transfer of the same
+     * function id to the same node is abandoned.
+     *
+     * @param netId network id of the destination node
+     * @param sink the sink the packets are sent through
+     * @param destination network address of the destination node
+     * @param id the id of the function in the node
+     * @param className the name of the class file of the function
+     * @return a future completed with true when the function has been
+     * delivered, false if some chunks have not been acknowledged
+     */
+    CompletableFuture<Boolean> send(byte netId, NodeAddress sink,
+            NodeAddress destination, byte id, String className) {
+        byte[][] payloads;
+        try {
+            payloads = getChunks(className);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException ex) {
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+        Transfer t = new Transfer(netId, sink, destination, id, payloads);
+        synchronized (this) {
+            Transfer old = transfers.put(t.key, t);
+            if (old != null) {
+                old.done.complete(false);
+            }
+            Sink s = sinks.get(sink);
+            if (s == null) {
+                s = new Sink();
+                sinks.put(sink, s);
+            }
+            s.transfers.add(t);
+            if (pump == null) {
+                pump = timer.scheduleWithFixedDelay(this::pump, 0, interval,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        return t.done;
+    }
+
+    /**
+     * Records the acknowledgement of a chunk.
+     *
+     * @param cp a SDN_WISE_CNF_ADD_FUNCTION config packet received from a
+     * node
+     * @return true if the packet acknowledged a chunk of a transfer
+     */
+    synchronized boolean acknowledge(ConfigPacket cp) {
+        if (cp.getPayloadSize() < 3) {
+            return false;
+        }
+        Transfer t = transfers.get(key((byte) cp.getNetId(), cp.getSrc(),
+                (byte) cp.getPayloadAt(1)));
+        int part = cp.getPayloadAt(2) - 1;
+        if (t == null || part < 0 || part >= t.payloads.length) {
+            return false;
+        }
+        t.acked.set(part);
+        if (t.acked.cardinality() == t.payloads.length) {
+            finish(t, true);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the chunks of a class file, reading it the first time. Each
+     * chunk starts with its number, from 1, and the total number of chunks.
+     */
+    byte[][] getChunks(String className) throws IOException {
+        try {
+            return chunks.computeIfAbsent(className, name -> {
+                try {
+                    return split(read(name));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static byte[] read(String className) throws IOException {
+        InputStream in = FunctionInterface.class.getResourceAsStream(className);
+        if (in == null) {
+            throw new IOException(className + " not found");
+        }
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[][] split(byte[] buf) {
+        int total = (buf.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (total > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Function too large: "
+                    + buf.length + " bytes");
+        }
+        byte[][] payloads = new byte[total][];
+        for (int i = 0; i < total; i++) {
+            int from = i * CHUNK_SIZE;
+            int len = Math.min(CHUNK_SIZE, buf.length - from);
+            byte[] payload = new byte[len + 2];
+            payload[0] = (byte) (i + 1);
+            payload[1] = (byte) total;
+            System.arraycopy(buf, from, payload, 2, len);
+            payloads[i] = payload;
+        }
+        return payloads;
+    }
+
+    /**
+     * Sends at most one chunk through each sink, choosing the transfers in
+     * turn, and checks the transfers waiting for acknowledgements.
+     */
+    private synchronized void pump() {
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<Sink> it = sinks.values().iterator();
+            while (it.hasNext()) {
+                Sink s = it.next();
+                s.transfers.removeIf(t -> t.done.isDone() || checkRound(t, now));
+                if (s.transfers.isEmpty()) {
+                    it.remove();
+                    continue;
+                }
+                int size = s.transfers.size();
+                for (int k = 0; k < size; k++) {
+                    int i = (s.next + k) % size;
+                    Transfer t = s.transfers.get(i);
+                    if (!t.pending.isEmpty() && now >= t.readyAt) {
+                        try {
+                            sendChunk(t, now);
+                        } catch (RuntimeException ex) {
+                            controller.log(Level.SEVERE, "Function " + t.id
+                                    + " to " + t.destination + ": " + ex);
+                            finish(t, false);
+                        }
+                        s.next = i + 1;
+                        break;
+                    }
+                }
+            }
+        } catch (RuntimeException ex) {
+            // an exception would cancel the schedule and every transfer
+            controller.log(Level.SEVERE, "Function transfers: " + ex);
+        }
+        if (sinks.isEmpty()) {
+            pump.cancel(false);
+            pump = null;
+        }
+    }
+
+    /**
+     * Starts a new round of a transfer whose chunks have all been sent and
+     * whose acknowledgements are overdue.
+     *
+     * @return true if the transfer is finished
+     */
+    private boolean checkRound(Transfer t, long now) {
+        if (!t.pending.isEmpty() || now < t.deadline) {
+            return false;
+        }
+        if (!ack) {
+            finish(t, true);
+            return true;
+        }
+        BitSet missing = new BitSet(t.payloads.length);
+        missing.set(0, t.payloads.length);
+        missing.andNot(t.acked);
+        if (missing.isEmpty() || t.round >= retries) {
+            finish(t, missing.isEmpty());
+            return true;
+        }
+        t.round++;
+        t.pending = missing;
+        controller.log(Level.FINE, "Function " + t.id + " to "
+                + t.destination + ": sending again " + missing.cardinality()
+                + " chunks");
+        return false;
+    }
+
+    private void sendChunk(Transfer t, long now) {
+        int part = t.pending.nextSetBit(0);
+        t.pending.clear(part);
+        ConfigFunctionPacket np = new ConfigFunctionPacket(t.netId, t.sink,
+                t.destination);
+        np.setNxhop(t.sink);
+        np.setAddFunctionAtPositionValue(t.id, t.payloads[part]);
+        controller.sendNetworkPacket(np);
+        if (t.round == 0 && part == 0) {
+            t.readyAt = now + FIRST_CHUNK_DELAY;
+        }
+        if (t.pending.isEmpty()) {
+            t.deadline = ack ? now + ackTimeout : now;
+        }
+    }
+
+    private void finish(Transfer t, boolean delivered) {
+        transfers.remove(t.key, t);
+        t.done.complete(delivered);
+    }
+
+    private static String key(byte netId, NodeAddress destination, byte id) {
+        return netId + "." + destination + "." + id;
+    }
+
+    private static final class Sink {
+
+        final List<Transfer> transfers = new ArrayList<>();
+        int next;
+    }
+
+    private static final class Transfer {
+
+        final byte netId;
+        final NodeAddress sink;
+        final NodeAddress destination;
+        final byte id;
+        final String key;
+        final byte[][] payloads;
+        final BitSet acked;
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+        BitSet pending;
+        int round;
+        long readyAt;
+        long deadline;
+
+        Transfer(byte netId, NodeAddress sink, NodeAddress destination,
+                byte id, byte[][] payloads) {
+            this.netId = netId;
+            this.sink = sink;
+            this.destination = destination;
+            this.id = id;
+            this.key = key(netId, destination, id);
+            this.payloads = payloads;
+            this.acked = new BitSet(payloads.length);
+            this.pending = new BitSet(payloads.length);
+            this.pending.set(0, payloads.length);
+        }
+    }
+}
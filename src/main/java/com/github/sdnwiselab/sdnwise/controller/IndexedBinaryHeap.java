@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of node indexes. The arrays of the heap grow when needed
+ * and are reused by the following computations.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class IndexedBinaryHeap implements NodeQueue {
+
+    private int[] heap = new int[0];
+    private int[] position = new int[0];
+    private double[] keys;
+    private int size;
+
+    @Override
+    public void reset(double[] keys, int n) {
+        if (position.length < n) {
+            heap = new int[n];
+            position = new int[n];
+        }
+        Arrays.fill(position, 0, n, -1);
+        this.keys = keys;
+        size = 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(int node) {
+        return position[node] >= 0;
+    }
+
+    @Override
+    public void add(int node) {
+        heap[size] = node;
+        position[node] = size;
+        siftUp(size++);
+    }
+
+    @Override
+    public void decreaseKey(int node) {
+        siftUp(position[node]);
+    }
+
+    @Override
+    public int extractMin() {
+        int min = heap[0];
+        int last = heap[--size];
+        position[min] = -1;
+        if (size > 0) {
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        double k = keys[node];
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            int up = heap[p];
+            if (keys[up] <= k) {
+                break;
+            }
+            heap[i] = up;
+            position[up] = i;
+            i = p;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+
+    private void siftDown(int i) {
+        int node = heap[i];
+        double k = keys[node];
+        int half = size >>> 1;
+        while (i < half) {
+            int c = 2 * i + 1;
+            int r = c + 1;
+            if (r < size && keys[heap[r]] < keys[heap[c]]) {
+                c = r;
+            }
+            if (k <= keys[heap[c]]) {
+                break;
+            }
+            heap[i] = heap[c];
+            position[heap[i]] = i;
+            i = c;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+}
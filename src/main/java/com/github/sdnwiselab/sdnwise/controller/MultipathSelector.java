@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class computes up to k paths with few relays in common between two
+ * nodes of a TopologySnapshot and chooses the one a flow uses.
+ * <p>
+ * The paths are found with k runs of Dijkstra: after each run the relays of
+ * the path found cost PENALTY times more, so the following runs prefer other
+ * relays. The cost of a search is bounded by k times the cost of a single
+ * Dijkstra, unlike the k shortest paths of Yen which need a run for each node
+ * of each path.
+ * <p>
+ * The paths whose cost is within a stretch of the best one are the candidates
+ * of a flow, which is pinned to one of them chosen by hashing the flow id, so
+ * the flows toward the same node spread over all its candidates. A flow keeps
+ * its path while the path is still a candidate and the lowest battery among
+ * its relays is at least a rebalance ratio of the best lowest battery among
+ * the candidates; otherwise it is moved to a candidate whose relays have
+ * enough battery.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class MultipathSelector {
+
+    static final int MAX_PATHS = 8;
+    private static final double PENALTY = 3;
+    private static final int MAX_BATTERY = 255;
+
+    private final int k;
+    private final double stretch;
+    private final double rebalance;
+    private final CostFunction cost;
+    private final NodeQueue queue;
+    private double[] dist = new double[0];
+    private double[] penalty = new double[0];
+    private int[] parent = new int[0];
+
+    /**
+     * Creates a selector.
+     *
+     * @param k the maximum number of paths between two nodes
+     * @param stretch the maximum ratio between the cost of a candidate and
+     * the cost of the best path
+     * @param rebalance the minimum ratio between the lowest battery among the
+     * relays of the path of a flow and the best one among the candidates
+     * @param cost the cost of the links
+     * @param queueType the priority queue used by Dijkstra
+     */
+    MultipathSelector(int k, double stretch, double rebalance,
+            CostFunction cost, QueueType queueType) {
+        this.k = Math.max(1, Math.min(MAX_PATHS, k));
+        this.stretch = stretch;
+        this.rebalance = rebalance;
+        this.cost = cost;
+        this.queue = queueType.create();
+    }
+
+    /**
+     * The result of a choice: the path of the flow and whether the flow has
+     * been moved away from its previous path because of a draining relay.
+     */
+    static final class Choice {
+
+        final int[] path;
+        final boolean rebalanced;
+
+        Choice(int[] path, boolean rebalanced) {
+            this.path = path;
+            this.rebalanced = rebalanced;
+        }
+    }
+
+    /**
+     * Chooses the path of a flow.
+     *
+     * @param snapshot the topology of the network
+     * @param flowId the id of the flow, used to spread the flows
+     * @param source the index of the first node of the path
+     * @param target the index of the last node of the path
+     * @param current the indexes of the nodes of the current path of the
+     * flow, null if it has none
+     * @return the choice, with an empty path if the target can not be
+     * reached
+     */
+    synchronized Choice choose(TopologySnapshot snapshot, String flowId,
+            int source, int target, int[] current) {
+        List<int[]> paths = paths(snapshot, source, target);
+        if (paths.isEmpty()) {
+            return new Choice(new int[0], false);
+        }
+        // the first path is the shortest one
+        double best = pathCost(snapshot, paths.get(0));
+        List<int[]> candidates = new ArrayList<>(paths.size());
+        int[] bottlenecks = new int[paths.size()];
+        int bestBottleneck = 0;
+        for (int[] path : paths) {
+            if (pathCost(snapshot, path) <= best * stretch) {
+                int b = relayBottleneck(snapshot, path);
+                bottlenecks[candidates.size()] = b;
+                bestBottleneck = Math.max(bestBottleneck, b);
+                candidates.add(path);
+            }
+        }
+        List<int[]> eligible = new ArrayList<>(candidates.size());
+        boolean currentIsCandidate = false;
+        for (int i = 0; i < candidates.size(); i++) {
+            int[] path = candidates.get(i);
+            boolean same = current != null && Arrays.equals(current, path);
+            currentIsCandidate |= same;
+            if (bottlenecks[i] >= rebalance * bestBottleneck) {
+                if (same) {
+                    return new Choice(path, false);
+                }
+                eligible.add(path);
+            }
+        }
+        if (eligible.isEmpty()) {
+            int[] shortest = paths.get(0);
+            return new Choice(shortest, currentIsCandidate
+                    && !Arrays.equals(current, shortest));
+        }
+        int h = flowId.hashCode();
+        h = (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+        return new Choice(eligible.get(h % eligible.size()), currentIsCandidate);
+    }
+
+    /**
+     * Returns up to k different paths between two nodes, the first one being
+     * the shortest.
+     */
+    private List<int[]> paths(TopologySnapshot snapshot, int source,
+            int target) {
+        int n = snapshot.getNodeCount();
+        if (penalty.length < n) {
+            dist = new double[n];
+            penalty = new double[n];
+            parent = new int[n];
+        }
+        Arrays.fill(penalty, 0, n, 1);
+        List<int[]> paths = new ArrayList<>(k);
+        for (int run = 0; run < k; run++) {
+            if (!search(snapshot, source, target)) {
+                break;
+            }
+            int hops = 0;
+            for (int v = target; v != -1; v = parent[v]) {
+                hops++;
+            }
+            int[] path = new int[hops];
+            for (int v = target; v != -1; v = parent[v]) {
+                path[--hops] = v;
+            }
+            boolean known = false;
+            for (int[] p : paths) {
+                known |= Arrays.equals(p, path);
+            }
+            if (!known) {
+                paths.add(path);
+            }
+            if (path.length <= 2) {
+                // a direct link has no relay to avoid
+                break;
+            }
+            for (int i = 1; i < path.length - 1; i++) {
+                penalty[path[i]] *= PENALTY;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Runs Dijkstra from the source until the target is settled, with the
+     * cost of entering a node multiplied by its penalty.
+     */
+    private boolean search(TopologySnapshot snapshot, int source, int target) {
+        int n = snapshot.getNodeCount();
+        int[] offsets = snapshot.getOffsets();
+        int[] targets = snapshot.getTargets();
+        int[] lengths = snapshot.getLengths();
+        int[] battery = snapshot.getBattery();
+        double[] drain = snapshot.getDrain();
+        Arrays.fill(dist, 0, n, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, 0, n, -1);
+        queue.reset(dist, n);
+        dist[source] = 0;
+        queue.add(source);
+        while (!queue.isEmpty()) {
+            int u = queue.extractMin();
+            if (u == target) {
+                return true;
+            }
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int v = targets[e];
+                boolean queued = queue.contains(v);
+                if (!queued && dist[v] != Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double tryDist = dist[u] + penalty[v]
+                        * cost.cost(lengths[e], battery[v], drain[v]);
+                if (tryDist < dist[v]) {
+                    dist[v] = tryDist;
+                    parent[v] = u;
+                    if (queued) {
+                        queue.decreaseKey(v);
+                    } else {
+                        queue.add(v);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private double pathCost(TopologySnapshot snapshot, int[] path) {
+        double total = 0;
+        for (int i = 1; i < path.length; i++) {
+            int v = path[i];
+            total += cost.cost(snapshot.getLength(path[i - 1], v),
+                    snapshot.getBattery()[v], snapshot.getDrain()[v]);
+        }
+        return total;
+    }
+
+    private static int relayBottleneck(TopologySnapshot snapshot, int[] path) {
+        int min = MAX_BATTERY;
+        for (int i = 1; i < path.length - 1; i++) {
+            min = Math.min(min, snapshot.getBattery()[path[i]]);
+        }
+        return min;
+    }
+}
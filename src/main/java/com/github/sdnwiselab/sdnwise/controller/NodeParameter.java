@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.packet.ConfigNodePacket;
+import com.github.sdnwiselab.sdnwise.packet.ConfigPacket;
+import com.github.sdnwiselab.sdnwise.packet.ConfigTimerPacket;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+
+/**
+ * The parameters of a node which can be read and written with a single config
+ * packet. Each parameter knows how to build the packets to read and write it
+ * and how to get its value from the answer of a node.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public enum NodeParameter {
+
+    /**
+     * The network id of the node.
+     */
+    NET_ID {
+        @Override
+        ConfigPacket write(byte netId, NodeAddress src, NodeAddress dst, int value) {
+            return new ConfigNodePacket(netId, src, dst).setNetworkIdValue((byte) value);
+        }
+
+        @Override
+        ConfigPacket read(byte netId, NodeAddress src, NodeAddress dst) {
+            return new ConfigNodePacket(netId, src, dst).setReadNetworkIdValue();
+        }
+
+        @Override
+        int valueOf(ConfigPacket answer) {
+            return new ConfigNodePacket(answer).getNetworkIdValue();
+        }
+    },
+    /**
+     * The beacon period of the node, in seconds.
+     */
+    BEACON_PERIOD {
+        @Override
+        ConfigPacket write(byte netId, NodeAddress src, NodeAddress dst, int value) {
+            return new ConfigTimerPacket(netId, src, dst).setBeaconPeriodValue((short) value);
+        }
+
+        @Override
+        ConfigPacket read(byte netId, NodeAddress src, NodeAddress dst) {
+            return new ConfigTimerPacket(netId, src, dst).setReadBeaconPeriodValue();
+        }
+
+        @Override
+        int valueOf(ConfigPacket answer) {
+            return new ConfigTimerPacket(answer).getBeaconPeriodValue();
+        }
+    },
+    /**
+     * The report period of the node, in seconds.
+     */
+    REPORT_PERIOD {
+        @Override
+        ConfigPacket write(byte netId, NodeAddress src, NodeAddress dst, int value) {
+            return new ConfigTimerPacket(netId, src, dst).setReportPeriodValue((short) value);
+        }
+
+        @Override
+        ConfigPacket read(byte netId, NodeAddress src, NodeAddress dst) {
+            return new ConfigTimerPacket(netId, src, dst).setReadReportPeriodValue();
+        }
+
+        @Override
+        int valueOf(ConfigPacket answer) {
+            return new ConfigTimerPacket(answer).getReportPeriodValue();
+        }
+    },
+    /**
+     * The update table period of the node, in seconds.
+     */
+    UPDATE_TABLE_PERIOD {
+        @Override
+        ConfigPacket write(byte netId, NodeAddress src, NodeAddress dst, int value) {
+            return new ConfigTimerPacket(netId, src, dst).setUpdateTablePeriodValue((short) value);
+        }
+
+        @Override
+        ConfigPacket read(byte netId, NodeAddress src, NodeAddress dst) {
+            return new ConfigTimerPacket(netId, src, dst).setReadUpdateTablePeriodValue();
+        }
+
+        @Override
+        int valueOf(ConfigPacket answer) {
+            return new ConfigTimerPacket(answer).getUpdateTablePeriodValue();
+        }
+    },
+    /**
+     * The maximum time to live of the messages sent by the node, in hops.
+     */
+    TTL_MAX {
+        @Override
+        ConfigPacket write(byte netId, NodeAddress src, NodeAddress dst, int value) {
+            return new ConfigNodePacket(netId, src, dst).setDefaultTtlMaxValue((byte) value);
+        }
+
+        @Override
+        ConfigPacket read(byte netId, NodeAddress src, NodeAddress dst) {
+            return new ConfigNodePacket(netId, src, dst).setReadDefaultTtlMaxValue();
+        }
+
+        @Override
+        int valueOf(ConfigPacket answer) {
+            return new ConfigNodePacket(answer).getDefaultTtlMaxValue();
+        }
+    },
+    /**
+     * The minimum RSSI to consider a node as a neighbor.
+     */
+    RSSI_MIN {
+        @Override
+        ConfigPacket write(byte netId, NodeAddress src, NodeAddress dst, int value) {
+            return new ConfigNodePacket(netId, src, dst).setDefaultRssiMinValue((byte) value);
+        }
+
+        @Override
+        ConfigPacket read(byte netId, NodeAddress src, NodeAddress dst) {
+            return new ConfigNodePacket(netId, src, dst).setReadDefaultRssiMinValue();
+        }
+
+        @Override
+        int valueOf(ConfigPacket answer) {
+            return new ConfigNodePacket(answer).getDefaultRssiMinValue();
+        }
+    };
+
+    /**
+     * Builds the packet writing a new value of the parameter.
+     *
+     * @param netId network id of the destination node
+     * @param src the address of the sink
+     * @param dst network address of the destination node
+     * @param value the new value
+     * @return the config packet
+     */
+    abstract ConfigPacket write(byte netId, NodeAddress src, NodeAddress dst, int value);
+
+    /**
+     * Builds the packet reading the parameter.
+     *
+     * @param netId network id of the destination node
+     * @param src the address of the sink
+     * @param dst network address of the destination node
+     * @return the config packet
+     */
+    abstract ConfigPacket read(byte netId, NodeAddress src, NodeAddress dst);
+
+    /**
+     * Gets the value of the parameter from the answer of a node.
+     *
+     * @param answer the config packet sent by the node
+     * @return the value of the parameter
+     */
+    abstract int valueOf(ConfigPacket answer);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+/**
+ * This Interface defines the priority queue of node indexes used by the
+ * Dijkstra implementations. The keys are not stored in the queue: they are
+ * read from an array indexed by node owned by the caller, which must call
+ * decreaseKey after lowering the key of a node already in the queue.
+ *
+ * @author Sebastiano Milardo
+ */
+interface NodeQueue {
+
+    /**
+     * Empties the queue and prepares it for nodes from 0 to n-1.
+     *
+     * @param keys the keys of the nodes, indexed by node
+     * @param n the number of nodes
+     */
+    void reset(double[] keys, int n);
+
+    /**
+     * Tells if the queue is empty.
+     *
+     * @return true if there are no nodes in the queue
+     */
+    boolean isEmpty();
+
+    /**
+     * Tells if a node is in the queue.
+     *
+     * @param node the index of the node
+     * @return true if the node has been added and not yet extracted
+     */
+    boolean contains(int node);
+
+    /**
+     * Adds a node to the queue, with its current key.
+     *
+     * @param node the index of the node
+     */
+    void add(int node);
+
+    /**
+     * Moves a node after its key has been lowered.
+     *
+     * @param node the index of the node
+     */
+    void decreaseKey(int node);
+
+    /**
+     * Removes the node with the lowest key from the queue.
+     *
+     * @return the index of the node
+     */
+    int extractMin();
+}
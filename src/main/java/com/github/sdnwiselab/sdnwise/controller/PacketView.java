@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.packet.NetworkPacket;
+import static com.github.sdnwiselab.sdnwise.packet.NetworkPacket.SDN_WISE_DFLT_HDR_LEN;
+import com.github.sdnwiselab.sdnwise.packet.ReportPacket;
+
+/**
+ * A reusable view of the bytes of a packet received by the controller. The
+ * header fields are read directly from the bytes, so the type of a packet can
+ * be checked and the packet dispatched without creating any object. The
+ * NetworkPacket and the typed packets are created only by the handlers which
+ * need them, and the NetworkPacket at most once for each packet.
+ * <p>
+ * A view is not thread safe and is meant to be owned by the thread managing
+ * the packets, which wraps each new packet in the same view.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class PacketView {
+
+    private static final int NET_ID = 1;
+    private static final int SRC = 2;
+    private static final int DST = 4;
+    private static final int TYPE = 6;
+    private static final int REQUEST_FLAG = 0x80;
+
+    private byte[] data;
+    private NetworkPacket packet;
+
+    /**
+     * Makes the view show a new packet.
+     *
+     * @param data the bytes of the packet, not copied
+     * @return this view
+     */
+    PacketView wrap(byte[] data) {
+        this.data = data;
+        this.packet = null;
+        return this;
+    }
+
+    /**
+     * Returns the bytes wrapped by the view.
+     *
+     * @return the bytes of the packet, not copied
+     */
+    byte[] array() {
+        return data;
+    }
+
+    /**
+     * Returns the number of bytes of the packet.
+     *
+     * @return the length of the packet
+     */
+    int getLength() {
+        return data.length;
+    }
+
+    int getNetId() {
+        return data[NET_ID] & 0xFF;
+    }
+
+    /**
+     * Returns the source address as an int, without creating a NodeAddress.
+     *
+     * @return the two bytes of the source address
+     */
+    int getSrc() {
+        return ((data[SRC] & 0xFF) << 8) | (data[SRC + 1] & 0xFF);
+    }
+
+    /**
+     * Returns the destination address as an int, without creating a
+     * NodeAddress.
+     *
+     * @return the two bytes of the destination address
+     */
+    int getDst() {
+        return ((data[DST] & 0xFF) << 8) | (data[DST + 1] & 0xFF);
+    }
+
+    /**
+     * Returns the type of the packet, including the request flag, as
+     * NetworkPacket.getType does.
+     *
+     * @return the type byte of the packet
+     */
+    int getType() {
+        return data[TYPE] & 0xFF;
+    }
+
+    boolean isRequest() {
+        return (data[TYPE] & REQUEST_FLAG) != 0;
+    }
+
+    /**
+     * Returns a byte of the payload.
+     *
+     * @param i the position in the payload
+     * @return the byte, -1 if the payload is shorter
+     */
+    int getPayloadAt(int i) {
+        int k = SDN_WISE_DFLT_HDR_LEN + i;
+        return k < data.length ? data[k] & 0xFF : -1;
+    }
+
+    /**
+     * Returns the id of a config packet, without the write flag.
+     *
+     * @return the id, -1 if the packet has no payload
+     */
+    int getConfigId() {
+        int id = getPayloadAt(0);
+        return id < 0 ? -1 : id & 0x7F;
+    }
+
+    /**
+     * Returns the packet as a NetworkPacket. The packet is created the first
+     * time and then reused until the view wraps another packet.
+     *
+     * @return the NetworkPacket
+     */
+    NetworkPacket toNetworkPacket() {
+        if (packet == null) {
+            packet = new NetworkPacket(data);
+        }
+        return packet;
+    }
+
+    /**
+     * Returns the packet as a ReportPacket. Once created, the ReportPacket is
+     * also returned by toNetworkPacket.
+     *
+     * @return the ReportPacket
+     */
+    ReportPacket toReportPacket() {
+        if (!(packet instanceof ReportPacket)) {
+            packet = new ReportPacket(data);
+        }
+        return (ReportPacket) packet;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import java.util.Arrays;
+
+/**
+ * A pairing heap of node indexes. The tree is stored in arrays indexed by node:
+ * the first child, the next sibling and the previous node, which is the
+ * previous sibling or the parent for a first child. Extraction uses the
+ * standard two pass pairing of the children of the root.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class PairingHeap implements NodeQueue {
+
+    private static final int NONE = -1;
+
+    private int[] child = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private boolean[] queued = new boolean[0];
+    private int[] pairs = new int[0];
+    private double[] keys;
+    private int root;
+
+    @Override
+    public void reset(double[] keys, int n) {
+        if (queued.length < n) {
+            child = new int[n];
+            next = new int[n];
+            prev = new int[n];
+            queued = new boolean[n];
+            pairs = new int[n];
+        } else {
+            Arrays.fill(queued, 0, n, false);
+        }
+        this.keys = keys;
+        root = NONE;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == NONE;
+    }
+
+    @Override
+    public boolean contains(int node) {
+        return queued[node];
+    }
+
+    @Override
+    public void add(int node) {
+        child[node] = NONE;
+        next[node] = NONE;
+        prev[node] = NONE;
+        queued[node] = true;
+        root = root == NONE ? node : link(root, node);
+    }
+
+    @Override
+    public void decreaseKey(int node) {
+        if (node == root) {
+            return;
+        }
+        // cut the subtree of the node and link it again to the root
+        int p = prev[node];
+        if (child[p] == node) {
+            child[p] = next[node];
+        } else {
+            next[p] = next[node];
+        }
+        if (next[node] != NONE) {
+            prev[next[node]] = p;
+        }
+        next[node] = NONE;
+        prev[node] = NONE;
+        root = link(root, node);
+    }
+
+    @Override
+    public int extractMin() {
+        int min = root;
+        queued[min] = false;
+        root = combine(child[min]);
+        if (root != NONE) {
+            prev[root] = NONE;
+        }
+        return min;
+    }
+
+    /**
+     * Links two trees, the one with the higher key becomes the first child
+     * of the other one.
+     */
+    private int link(int a, int b) {
+        if (keys[b] < keys[a]) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        int first = child[a];
+        next[b] = first;
+        if (first != NONE) {
+            prev[first] = b;
+        }
+        prev[b] = a;
+        child[a] = b;
+        next[a] = NONE;
+        return a;
+    }
+
+    private int combine(int first) {
+        if (first == NONE) {
+            return NONE;
+        }
+        int count = 0;
+        for (int c = first; c != NONE;) {
+            int a = c;
+            int b = next[a];
+            c = b == NONE ? NONE : next[b];
+            next[a] = NONE;
+            prev[a] = NONE;
+            if (b != NONE) {
+                next[b] = NONE;
+                prev[b] = NONE;
+                a = link(a, b);
+            }
+            pairs[count++] = a;
+        }
+        int result = pairs[--count];
+        while (count > 0) {
+            result = link(pairs[--count], result);
+        }
+        return result;
+    }
+}
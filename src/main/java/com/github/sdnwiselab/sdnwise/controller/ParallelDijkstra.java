@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class computes shortest path trees on a TopologySnapshot. Unlike
+ * Dijkstra, it does not store anything in the attributes of the graph: the
+ * state of a computation lives in arrays indexed by node which are reused by
+ * each thread, so many trees can be computed at the same time on the same
+ * snapshot.
+ * <p>
+ * Among the paths with the same length, the tree keeps the one whose node with
+ * the lowest battery level has the highest battery, which is the same choice
+ * made by ControllerDijkstra when it checks all the shortest paths between two
+ * nodes.
+ * <p>
+ * The length of a link is given by a CostFunction, evaluated in the
+ * relaxation loop, so a policy which takes the battery into account runs in
+ * the same single pass.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class ParallelDijkstra {
+
+    private static final int THRESHOLD = 4;
+
+    private final ForkJoinPool pool;
+    private final CostFunction cost;
+    private final ThreadLocal<Workspace> workspace;
+
+    /**
+     * Creates an instance which uses the common ForkJoinPool and a binary
+     * heap.
+     */
+    public ParallelDijkstra() {
+        this(ForkJoinPool.commonPool(), QueueType.BINARY);
+    }
+
+    /**
+     * Creates an instance which uses the given ForkJoinPool.
+     *
+     * @param pool the pool used to compute many trees in parallel
+     * @param queueType the priority queue used by each thread
+     */
+    public ParallelDijkstra(ForkJoinPool pool, final QueueType queueType) {
+        this(pool, queueType, CostFunction.LENGTH);
+    }
+
+    /**
+     * Creates an instance which uses the given ForkJoinPool and computes the
+     * length of the links with a CostFunction.
+     *
+     * @param pool the pool used to compute many trees in parallel
+     * @param queueType the priority queue used by each thread
+     * @param cost the cost of the links
+     */
+    public ParallelDijkstra(ForkJoinPool pool, final QueueType queueType,
+            CostFunction cost) {
+        this.pool = pool;
+        this.cost = cost;
+        this.workspace = new ThreadLocal<Workspace>() {
+            @Override
+            protected Workspace initialValue() {
+                return new Workspace(queueType);
+            }
+        };
+    }
+
+    /**
+     * Computes the shortest path tree of a source in the calling thread.
+     *
+     * @param snapshot the topology
+     * @param source the index of the source node
+     * @return the shortest path tree rooted in the source
+     */
+    public ShortestPathTree compute(TopologySnapshot snapshot, int source) {
+        ShortestPathTree tree = new ShortestPathTree(snapshot, source);
+        workspace.get().run(snapshot, tree, cost);
+        return tree;
+    }
+
+    /**
+     * Returns the cost of a path, summed in the same order used when the
+     * trees are computed, so that it can be compared with the distances of a
+     * tree.
+     *
+     * @param snapshot the topology
+     * @param path the indexes of the nodes in the path
+     * @return the cost of the path, Double.POSITIVE_INFINITY if two
+     * consecutive nodes are not linked
+     */
+    public double getPathCost(TopologySnapshot snapshot, int[] path) {
+        int[] battery = snapshot.getBattery();
+        double[] drain = snapshot.getDrain();
+        double total = 0;
+        for (int i = 1; i < path.length; i++) {
+            int length = snapshot.getLength(path[i - 1], path[i]);
+            if (length < 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            int v = path[i];
+            total += cost.cost(length, battery[v], drain[v]);
+        }
+        return total;
+    }
+
+    /**
+     * Computes the shortest path trees of many sources in parallel.
+     *
+     * @param snapshot the topology
+     * @param sources the indexes of the source nodes
+     * @return the trees, in the same order of the sources
+     */
+    public ShortestPathTree[] computeAll(TopologySnapshot snapshot,
+            int[] sources) {
+        ShortestPathTree[] trees = new ShortestPathTree[sources.length];
+        if (sources.length <= THRESHOLD) {
+            for (int i = 0; i < sources.length; i++) {
+                trees[i] = compute(snapshot, sources[i]);
+            }
+        } else {
+            pool.invoke(new Batch(snapshot, sources, trees, 0, sources.length));
+        }
+        return trees;
+    }
+
+    private final class Batch extends RecursiveAction {
+
+        private final TopologySnapshot snapshot;
+        private final int[] sources;
+        private final ShortestPathTree[] trees;
+        private final int from;
+        private final int to;
+
+        Batch(TopologySnapshot snapshot, int[] sources,
+                ShortestPathTree[] trees, int from, int to) {
+            this.snapshot = snapshot;
+            this.sources = sources;
+            this.trees = trees;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    trees[i] = ParallelDijkstra.this.compute(snapshot, sources[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Batch(snapshot, sources, trees, from, mid),
+                        new Batch(snapshot, sources, trees, mid, to));
+            }
+        }
+    }
+
+    /**
+     * The arrays used by a thread during a computation. The nodes enter the
+     * queue only when they are reached for the first time.
+     */
+    private static final class Workspace {
+
+        final NodeQueue queue;
+
+        Workspace(QueueType queueType) {
+            queue = queueType.create();
+        }
+
+        void run(TopologySnapshot snapshot, ShortestPathTree tree,
+                CostFunction cost) {
+            int n = snapshot.getNodeCount();
+            int[] offsets = snapshot.getOffsets();
+            int[] targets = snapshot.getTargets();
+            int[] lengths = snapshot.getLengths();
+            int[] battery = snapshot.getBattery();
+            double[] drain = snapshot.getDrain();
+            double[] dist = tree.distance;
+            int[] parent = tree.parent;
+            int[] bottleneck = tree.bottleneck;
+
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(parent, -1);
+            queue.reset(dist, n);
+            int source = tree.getSource();
+            dist[source] = 0;
+            bottleneck[source] = battery[source];
+            queue.add(source);
+
+            while (!queue.isEmpty()) {
+                int u = queue.extractMin();
+                for (int k = offsets[u]; k < offsets[u + 1]; k++) {
+                    int v = targets[k];
+                    boolean queued = queue.contains(v);
+                    double tryDist = dist[u]
+                            + cost.cost(lengths[k], battery[v], drain[v]);
+                    int tryBottleneck = Math.min(bottleneck[u], battery[v]);
+                    if (tryDist < dist[v]) {
+                        dist[v] = tryDist;
+                        parent[v] = u;
+                        bottleneck[v] = tryBottleneck;
+                        if (queued) {
+                            queue.decreaseKey(v);
+                        } else {
+                            queue.add(v);
+                        }
+                    } else if (tryDist == dist[v]
+                            && tryBottleneck > bottleneck[v]) {
+                        parent[v] = u;
+                        bottleneck[v] = tryBottleneck;
+                        // a settled node reached again over links of zero
+                        // length is visited again, so that the nodes after
+                        // it see its new bottleneck
+                        if (!queued) {
+                            queue.add(v);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
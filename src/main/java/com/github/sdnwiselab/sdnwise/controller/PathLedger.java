@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.metrics.Counter;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps track of the paths installed in the network with a
+ * SDN_WISE_OPEN_PATH message. A path is identified by the network id and by
+ * its two end points, so for every pair of nodes only the last installed path
+ * is remembered. An entry expires after a time to live which should match the
+ * time a node keeps its rules, after that the path is considered no longer
+ * installed.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class PathLedger {
+
+    private final Map<String, Entry> installed = new ConcurrentHashMap<>();
+    private final Counter sent;
+    private final Counter suppressed;
+    private final long ttl;
+
+    /**
+     * Creates an empty ledger.
+     *
+     * @param ttl the time to live of an installed path in milliseconds
+     * @param sent the counter of the paths sent
+     * @param suppressed the counter of the paths not sent
+     */
+    PathLedger(long ttl, Counter sent, Counter suppressed) {
+        this.ttl = ttl;
+        this.sent = sent;
+        this.suppressed = suppressed;
+    }
+
+    /**
+     * Checks if the same path is already installed between its end points and
+     * it is not expired.
+     *
+     * @param netId network id of the path
+     * @param path the list of all the NodeAddresses in the path
+     * @return true if the path is installed
+     */
+    boolean isInstalled(byte netId, List<NodeAddress> path) {
+        String key = key(netId, path);
+        Entry e = installed.get(key);
+        if (e == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - e.time >= ttl) {
+            installed.remove(key, e);
+            return false;
+        }
+        return e.path.equals(path);
+    }
+
+    /**
+     * Records that a path has been sent to the network.
+     *
+     * @param netId network id of the path
+     * @param path the list of all the NodeAddresses in the path
+     */
+    void sent(byte netId, List<NodeAddress> path) {
+        installed.put(key(netId, path),
+                new Entry(new ArrayList<>(path), System.currentTimeMillis()));
+        sent.inc();
+    }
+
+    /**
+     * Records that a path has not been sent because it was already installed.
+     */
+    void suppressed() {
+        suppressed.inc();
+    }
+
+    /**
+     * Forgets the path installed between the end points of a path, for
+     * example because one of the nodes asked for it again.
+     *
+     * @param netId network id of the path
+     * @param path the list of all the NodeAddresses in the path
+     */
+    void forget(byte netId, List<NodeAddress> path) {
+        installed.remove(key(netId, path));
+    }
+
+    long getSent() {
+        return sent.get();
+    }
+
+    long getSuppressed() {
+        return suppressed.get();
+    }
+
+    private static String key(byte netId, List<NodeAddress> path) {
+        return netId + "." + path.get(0) + "-" + path.get(path.size() - 1);
+    }
+
+    private static final class Entry {
+
+        final List<NodeAddress> path;
+        final long time;
+
+        Entry(List<NodeAddress> path, long time) {
+            this.path = path;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+/**
+ * This enumeration lists the priority queues that can be used by Dijkstra
+ * and ParallelDijkstra. The name of the constant is the value of the "QUEUE"
+ * option in the configuration file.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public enum QueueType {
+
+    /**
+     * The Fibonacci heap of GraphStream, with a boxed key for each node.
+     */
+    FIBONACCI,
+    /**
+     * A binary heap on arrays of node indexes.
+     */
+    BINARY,
+    /**
+     * A pairing heap on arrays of node indexes.
+     */
+    PAIRING,
+    /**
+     * A bucket queue (Dial's algorithm) with one bucket for each distance.
+     * It only accepts integer keys, as the lengths of the links are.
+     */
+    DIAL;
+
+    /**
+     * Creates an empty queue of this type.
+     *
+     * @return a new NodeQueue
+     */
+    NodeQueue create() {
+        switch (this) {
+            case FIBONACCI:
+                return new FibonacciNodeQueue();
+            case PAIRING:
+                return new PairingHeap();
+            case DIAL:
+                return new DialQueue();
+            default:
+                return new IndexedBinaryHeap();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.packet.ConfigPacket;
+import static com.github.sdnwiselab.sdnwise.packet.ConfigRulePacket.SDN_WISE_CNF_GET_RULE_INDEX;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class matches the answers of the nodes to the config queries of the
+ * controller. An answer is identified by a long packing the network id and
+ * the address of the node, the id of the parameter and, for the rules, the
+ * position asked, so no object is created to look it up.
+ * <p>
+ * A thread waiting for an answer registers a CompletableFuture before sending
+ * the query, and the future is completed as soon as the answer arrives. The
+ * answers nobody is waiting for are kept until they expire, in case they are
+ * asked for later. Expired answers are removed when the table needs more
+ * space, instead of by a timer thread. The futures never expire, they are
+ * removed only when completed or cancelled.
+ * <p>
+ * The table uses open addressing with linear probing and is guarded by its
+ * own lock.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class ReplyTable {
+
+    private static final long FREE = -1;
+
+    private final long expiry;
+    private long[] keys;
+    private Object[] values;
+    private long[] times;
+    private int size;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param expiry time in milliseconds an entry is kept
+     */
+    ReplyTable(long expiry) {
+        this.expiry = expiry;
+        allocate(64);
+    }
+
+    /**
+     * Returns the key of an answer.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param id the id of the parameter, without the write flag
+     * @param first the first byte after the id, used only for the rules
+     * @param second the second byte after the id, used only for the rules
+     * @return the key of the answer
+     */
+    static long key(int netId, NodeAddress node, int id, int first, int second) {
+        long key = ((long) (netId & 0xFF) << 40)
+                | ((long) node.intValue() << 24)
+                | ((long) (id & 0xFF) << 16);
+        if (id == SDN_WISE_CNF_GET_RULE_INDEX) {
+            key |= ((first & 0xFF) << 8) | (second & 0xFF);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the key of the answer to a query.
+     *
+     * @param query the config packet sent to a node
+     * @return the key of the answer of the destination of the query
+     */
+    static long queryKey(ConfigPacket query) {
+        return key(query.getNetId(), query.getDst(), query.getPayloadAt(0),
+                payloadAt(query, 1), payloadAt(query, 2));
+    }
+
+    /**
+     * Returns the key of an answer.
+     *
+     * @param reply the config packet sent by a node
+     * @return the key of the answer
+     */
+    static long replyKey(ConfigPacket reply) {
+        return key(reply.getNetId(), reply.getSrc(), reply.getPayloadAt(0),
+                payloadAt(reply, 1), payloadAt(reply, 2));
+    }
+
+    private static int payloadAt(ConfigPacket cp, int i) {
+        return cp.getPayloadAt(0) == SDN_WISE_CNF_GET_RULE_INDEX
+                ? cp.getPayloadAt(i) : 0;
+    }
+
+    /**
+     * Stores an answer. If a thread is waiting for it, its future is
+     * completed instead.
+     *
+     * @param key the key of the answer
+     * @param reply the answer
+     */
+    void put(long key, ConfigPacket reply) {
+        CompletableFuture<ConfigPacket> waiter = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            int i = indexOf(key);
+            if (i >= 0 && values[i] instanceof CompletableFuture) {
+                waiter = waiter(values[i]);
+                remove(i);
+            } else if (i >= 0) {
+                values[i] = reply;
+                times[i] = now;
+            } else {
+                insert(key, reply, now);
+            }
+        }
+        if (waiter != null) {
+            waiter.complete(reply);
+        }
+    }
+
+    /**
+     * Removes and returns an answer nobody was waiting for.
+     *
+     * @param key the key of the answer
+     * @return the answer, null if not received or expired
+     */
+    synchronized ConfigPacket take(long key) {
+        int i = indexOf(key);
+        if (i < 0 || values[i] instanceof CompletableFuture) {
+            return null;
+        }
+        ConfigPacket reply = (ConfigPacket) values[i];
+        boolean expired = System.currentTimeMillis() - times[i] >= expiry;
+        remove(i);
+        return expired ? null : reply;
+    }
+
+    /**
+     * Registers a thread waiting for an answer. An answer already received
+     * is discarded, as it comes from a previous query. If another thread was
+     * waiting for the same answer, both get the same future.
+     *
+     * @param key the key of the answer
+     * @return the future completed with the answer
+     */
+    synchronized CompletableFuture<ConfigPacket> expect(long key) {
+        long now = System.currentTimeMillis();
+        int i = indexOf(key);
+        if (i >= 0 && values[i] instanceof CompletableFuture) {
+            times[i] = now;
+            return waiter(values[i]);
+        }
+        CompletableFuture<ConfigPacket> waiter = new CompletableFuture<>();
+        if (i >= 0) {
+            values[i] = waiter;
+            times[i] = now;
+        } else {
+            insert(key, waiter, now);
+        }
+        return waiter;
+    }
+
+    /**
+     * Unregisters a thread which no longer waits for an answer.
+     *
+     * @param key the key of the answer
+     * @param waiter the future returned by expect
+     */
+    synchronized void cancel(long key, CompletableFuture<ConfigPacket> waiter) {
+        int i = indexOf(key);
+        if (i >= 0 && values[i] == waiter) {
+            remove(i);
+        }
+    }
+
+    /**
+     * Returns the number of entries, including the expired answers not
+     * removed yet.
+     *
+     * @return the number of answers and waiting threads
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<ConfigPacket> waiter(Object value) {
+        return (CompletableFuture<ConfigPacket>) value;
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long key, Object value, long now) {
+        if (2 * (size + 1) > keys.length) {
+            rebuild(now);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        times[i] = now;
+        size++;
+    }
+
+    /**
+     * Removes an entry and moves back the following entries of the same run,
+     * so that no tombstone is needed.
+     */
+    private void remove(int i) {
+        int mask = keys.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            // move j to the hole if its home is not between the hole and j
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                times[hole] = times[j];
+                hole = j;
+            }
+        }
+        keys[hole] = FREE;
+        values[hole] = null;
+        size--;
+    }
+
+    /**
+     * Drops the expired answers and doubles the capacity if the table is
+     * still more than a quarter full. The waiting threads are always kept.
+     */
+    private void rebuild(long now) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] oldTimes = times;
+        int live = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (isLive(oldKeys[i], oldValues[i], oldTimes[i], now)) {
+                live++;
+            }
+        }
+        allocate(4 * (live + 1) > oldKeys.length
+                ? oldKeys.length * 2 : oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (isLive(oldKeys[i], oldValues[i], oldTimes[i], now)) {
+                insert(oldKeys[i], oldValues[i], oldTimes[i]);
+            }
+        }
+    }
+
+    private boolean isLive(long key, Object value, long time, long now) {
+        return key != FREE && (value instanceof CompletableFuture
+                || now - time < expiry);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new Object[capacity];
+        times = new long[capacity];
+        size = 0;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
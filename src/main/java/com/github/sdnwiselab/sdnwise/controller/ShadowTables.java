@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.flowtable.FlowTableEntry;
+import com.github.sdnwiselab.sdnwise.metrics.Counter;
+import com.github.sdnwiselab.sdnwise.metrics.Metrics;
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * This class holds a copy of the flow table of each node, as the controller
+ * expects it to be. The copies are updated by the rules sent to the nodes, by
+ * the paths installed with SDN_WISE_OPEN_PATH messages and by the rules read
+ * from the nodes, so most questions about the rules of a node can be answered
+ * without querying it.
+ * <p>
+ * Each table has SDN_WISE_RLS_MAX slots. A slot holds either the bytes of a
+ * rule, or the destination and next hop of a rule installed by a path, whose
+ * bytes are known only when the slot is read from the node. Entries expire
+ * after the time to live of the rules. When the controller does not know the
+ * position of a new rule, it takes the first free slot, or the oldest one.
+ * <p>
+ * When enabled, a background task periodically reads the tables of a sample
+ * of the nodes, starting from the ones not read for the longest time, and
+ * counts the slots which were different from the copy. Each node of the
+ * sample costs SDN_WISE_RLS_MAX queries on the radio, so the task is off by
+ * default.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class ShadowTables {
+
+    private static final byte EMPTY = 0;
+    private static final byte RULE = 1;
+    private static final byte PATH = 2;
+
+    private final Map<Integer, Table> tables = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final long interval;
+    private final int sample;
+    private final Counter drift;
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * Creates the tables. The conf map contains the options of the algorithm
+     * as strings. Optional parameters are:
+     * <ol>
+     * <li>SHADOW_INTERVAL, seconds between two reconciliations, 0 to disable
+     * them, 0 by default</li>
+     * <li>SHADOW_SAMPLE, how many nodes are read at each reconciliation, 4 by
+     * default</li>
+     * </ol>
+     *
+     * @param registry the metrics of the controller
+     * @param ttl the time to live of a rule in milliseconds
+     * @param conf contains the algorithm configuration data
+     */
+    ShadowTables(Metrics registry, long ttl, Map<String, String> conf) {
+        this.ttl = ttl;
+        interval = Long.parseLong(conf.getOrDefault("SHADOW_INTERVAL", "0"));
+        sample = Integer.parseInt(conf.getOrDefault("SHADOW_SAMPLE", "4"));
+        drift = registry.counter("sdnwise_shadow_drift_total",
+                "Slots of the flow tables found different from the shadow copy");
+        registry.gauge("sdnwise_shadow_tables",
+                "Nodes with a shadow copy of the flow table", tables::size);
+    }
+
+    /**
+     * Records a rule sent to a node. A rule with the same bytes is replaced.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param rule the rule
+     */
+    void added(byte netId, NodeAddress node, FlowTableEntry rule) {
+        byte[] bytes = rule.toByteArray();
+        Table t = table(netId, node);
+        synchronized (t) {
+            long now = System.currentTimeMillis();
+            int slot = t.find(RULE, bytes, 0, now, ttl);
+            t.rules[slot] = bytes;
+            t.set(slot, RULE, 0, now);
+        }
+    }
+
+    /**
+     * Records a rule removed from a node.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param rule the rule
+     */
+    void removed(byte netId, NodeAddress node, FlowTableEntry rule) {
+        byte[] bytes = rule.toByteArray();
+        Table t = table(netId, node);
+        synchronized (t) {
+            for (int i = 0; i < t.kind.length; i++) {
+                if (t.kind[i] == RULE && Arrays.equals(t.rules[i], bytes)) {
+                    t.clear(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the removal of the rule at a position of a node.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param index the position of the rule
+     */
+    void removed(byte netId, NodeAddress node, int index) {
+        Table t = table(netId, node);
+        synchronized (t) {
+            if (index >= 0 && index < t.kind.length) {
+                t.clear(index);
+            }
+        }
+    }
+
+    /**
+     * Records a path installed with a SDN_WISE_OPEN_PATH message. Each node of
+     * the path gets a rule towards each end of the path.
+     *
+     * @param netId network id of the path
+     * @param path the list of all the NodeAddresses in the path
+     */
+    void installed(byte netId, List<NodeAddress> path) {
+        if (path.size() < 2) {
+            return;
+        }
+        int first = path.get(0).intValue();
+        int last = path.get(path.size() - 1).intValue();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < path.size(); i++) {
+            Table t = table(netId, path.get(i));
+            synchronized (t) {
+                if (i < path.size() - 1) {
+                    t.route(last, path.get(i + 1).intValue(), now, ttl);
+                }
+                if (i > 0) {
+                    t.route(first, path.get(i - 1).intValue(), now, ttl);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a node has no rule towards a destination, for example
+     * because it asked the controller for a path to it.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param destination network address of the destination
+     */
+    void missing(byte netId, NodeAddress node, NodeAddress destination) {
+        Table t = tables.get(key(netId, node));
+        if (t != null) {
+            synchronized (t) {
+                int slot = t.indexOf(PATH, destination.intValue());
+                if (slot >= 0) {
+                    t.clear(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if every node of a path, but the last, already forwards the
+     * packets for the last node to the following node of the path.
+     *
+     * @param netId network id of the path
+     * @param path the list of all the NodeAddresses in the path
+     * @return true if the path does not need to be installed
+     */
+    boolean isInstalled(byte netId, List<NodeAddress> path) {
+        if (path.size() < 2) {
+            return false;
+        }
+        NodeAddress last = path.get(path.size() - 1);
+        for (int i = 0; i < path.size() - 1; i++) {
+            if (!path.get(i + 1).equals(getNextHop(netId, path.get(i), last))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the rule read from a position of a node and counts it as drift
+     * if it is different from the copy.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param index the position of the rule
+     * @param rule the rule read, null or empty if the position is free
+     */
+    void observed(byte netId, NodeAddress node, int index, FlowTableEntry rule) {
+        byte[] bytes = rule == null ? null : rule.toByteArray();
+        if (bytes != null && bytes.length == 0) {
+            bytes = null;
+        }
+        Table t = table(netId, node);
+        synchronized (t) {
+            if (index < 0 || index >= t.kind.length) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            t.expire(now, ttl);
+            // the first rule read from a path slot is the rule of the path,
+            // then it must not change
+            boolean path = bytes != null && t.kind[index] == PATH
+                    && (t.rules[index] == null
+                    || Arrays.equals(t.rules[index], bytes));
+            boolean same = bytes == null ? t.kind[index] == EMPTY
+                    : path
+                    || (t.kind[index] == RULE && Arrays.equals(t.rules[index], bytes));
+            if (!same) {
+                drift.inc();
+            }
+            if (bytes == null) {
+                t.clear(index);
+            } else if (path) {
+                // keep the destination and the next hop of the path
+                t.rules[index] = bytes;
+                t.time[index] = now;
+            } else {
+                t.rules[index] = bytes;
+                t.set(index, RULE, 0, now);
+            }
+            t.observed[index] = now;
+        }
+    }
+
+    /**
+     * Returns the copy of the flow table of a node.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @return the SDN_WISE_RLS_MAX entries of the table, null for the free
+     * positions and for the rules installed by a path which have not been read
+     * from the node yet
+     */
+    List<FlowTableEntry> getRules(byte netId, NodeAddress node) {
+        Table t = tables.get(key(netId, node));
+        List<FlowTableEntry> list = new ArrayList<>(Controller.SDN_WISE_RLS_MAX);
+        if (t == null) {
+            list.addAll(Collections.nCopies(Controller.SDN_WISE_RLS_MAX, null));
+            return list;
+        }
+        synchronized (t) {
+            t.expire(System.currentTimeMillis(), ttl);
+            for (int i = 0; i < t.kind.length; i++) {
+                list.add(t.rules[i] != null ? new FlowTableEntry(t.rules[i]) : null);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the next hop towards a destination installed in a node by a
+     * path.
+     *
+     * @param netId network id of the node
+     * @param node network address of the node
+     * @param destination network address of the destination
+     * @return the next hop, null if the node has no path to the destination
+     */
+    NodeAddress getNextHop(byte netId, NodeAddress node, NodeAddress destination) {
+        Table t = tables.get(key(netId, node));
+        if (t == null) {
+            return null;
+        }
+        synchronized (t) {
+            t.expire(System.currentTimeMillis(), ttl);
+            int slot = t.indexOf(PATH, destination.intValue());
+            return slot < 0 ? null : new NodeAddress(t.next[slot]);
+        }
+    }
+
+    /**
+     * Starts the periodic reconciliation, if enabled.
+     *
+     * @param controller the controller reading the tables
+     */
+    synchronized void start(final Controller controller) {
+        if (interval > 0 && sample > 0 && reconciler == null) {
+            reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread th = new Thread(r, "ShadowReconciler");
+                th.setDaemon(true);
+                return th;
+            });
+            reconciler.scheduleWithFixedDelay(() -> reconcile(controller),
+                    interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the periodic reconciliation.
+     */
+    synchronized void stop() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /**
+     * Reads the flow tables of the nodes not read for the longest time. The
+     * answers update the copies through observed. Only the networks owned by
+     * the controller are read.
+     *
+     * @param controller the controller reading the tables
+     */
+    void reconcile(Controller controller) {
+        try {
+            TopologySnapshot snapshot = controller.getNetworkGraph().getSnapshot();
+            List<long[]> candidates = new ArrayList<>();
+            for (int i = 0; i < snapshot.getNodeCount(); i++) {
+                String id = snapshot.getId(i);
+                byte netId = (byte) Integer.parseInt(id.substring(0, id.indexOf('.')));
+                if (!controller.isOwner(netId & 0xFF)) {
+                    continue;
+                }
+                Table t = tables.get(key(netId, snapshot.getAddress(i)));
+                long last = Long.MAX_VALUE;
+                if (t != null) {
+                    synchronized (t) {
+                        for (long o : t.observed) {
+                            last = Math.min(last, o);
+                        }
+                    }
+                } else {
+                    last = 0;
+                }
+                candidates.add(new long[]{last, key(netId, snapshot.getAddress(i))});
+            }
+            candidates.sort((a, b) -> Long.compare(a[0], b[0]));
+            Map<Byte, List<NodeAddress>> byNet = new HashMap<>();
+            for (long[] c : candidates.subList(0, Math.min(sample, candidates.size()))) {
+                int k = (int) c[1];
+                byNet.computeIfAbsent((byte) (k >>> 16), n -> new ArrayList<>())
+                        .add(new NodeAddress(k & 0xFFFF));
+            }
+            long before = drift.get();
+            for (Map.Entry<Byte, List<NodeAddress>> e : byNet.entrySet()) {
+                controller.getRules(e.getKey(), e.getValue());
+            }
+            controller.log(Level.INFO, "Shadow tables: " + byNet.values().stream()
+                    .mapToInt(List::size).sum() + " nodes read, "
+                    + (drift.get() - before) + " slots changed");
+        } catch (RuntimeException ex) {
+            controller.log(Level.SEVERE, "Shadow tables: " + ex.getMessage());
+        }
+    }
+
+    private Table table(byte netId, NodeAddress node) {
+        return tables.computeIfAbsent(key(netId, node), k -> new Table());
+    }
+
+    private static int key(byte netId, NodeAddress node) {
+        return ((netId & 0xFF) << 16) | node.intValue();
+    }
+
+    /**
+     * The copy of the flow table of a node. For each slot it holds the kind of
+     * entry, the bytes of a rule or the destination and next hop of a path,
+     * with the bytes of its rule once read from the node,
+     * the time it was written and the time it was last read from the node.
+     */
+    private static final class Table {
+
+        final byte[] kind = new byte[Controller.SDN_WISE_RLS_MAX];
+        final byte[][] rules = new byte[Controller.SDN_WISE_RLS_MAX][];
+        final int[] destination = new int[Controller.SDN_WISE_RLS_MAX];
+        final int[] next = new int[Controller.SDN_WISE_RLS_MAX];
+        final long[] time = new long[Controller.SDN_WISE_RLS_MAX];
+        final long[] observed = new long[Controller.SDN_WISE_RLS_MAX];
+
+        void route(int dst, int nxt, long now, long ttl) {
+            int slot = indexOf(PATH, dst);
+            if (slot < 0) {
+                slot = find(EMPTY, null, dst, now, ttl);
+            }
+            set(slot, PATH, dst, now);
+            next[slot] = nxt;
+        }
+
+        /**
+         * Finds the slot for a new entry: the slot of the same entry, the
+         * first free slot or the oldest one.
+         */
+        int find(byte k, byte[] bytes, int dst, long now, long ttl) {
+            expire(now, ttl);
+            int free = -1;
+            int oldest = 0;
+            for (int i = 0; i < kind.length; i++) {
+                if (k == RULE && kind[i] == RULE && Arrays.equals(rules[i], bytes)) {
+                    return i;
+                }
+                if (free < 0 && kind[i] == EMPTY) {
+                    free = i;
+                }
+                if (time[i] < time[oldest]) {
+                    oldest = i;
+                }
+            }
+            return free >= 0 ? free : oldest;
+        }
+
+        int indexOf(byte k, int dst) {
+            for (int i = 0; i < kind.length; i++) {
+                if (kind[i] == k && destination[i] == dst) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void set(int slot, byte k, int dst, long now) {
+            if (k != RULE) {
+                rules[slot] = null;
+            }
+            kind[slot] = k;
+            destination[slot] = dst;
+            time[slot] = now;
+        }
+
+        void clear(int slot) {
+            kind[slot] = EMPTY;
+            rules[slot] = null;
+            time[slot] = 0;
+        }
+
+        void expire(long now, long ttl) {
+            for (int i = 0; i < kind.length; i++) {
+                if (kind[i] != EMPTY && now - time[i] >= ttl) {
+                    clear(i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.LinkedList;
+
+/**
+ * This class holds the shortest path tree computed by ParallelDijkstra from a
+ * source node of a TopologySnapshot. For each node it stores the distance from
+ * the source, the parent in the tree and the lowest battery level found along
+ * the path from the source.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class ShortestPathTree {
+
+    private final TopologySnapshot snapshot;
+    private final int source;
+    final double[] distance;
+    final int[] parent;
+    final int[] bottleneck;
+
+    ShortestPathTree(TopologySnapshot snapshot, int source) {
+        int n = snapshot.getNodeCount();
+        this.snapshot = snapshot;
+        this.source = source;
+        this.distance = new double[n];
+        this.parent = new int[n];
+        this.bottleneck = new int[n];
+    }
+
+    /**
+     * Returns the snapshot this tree was computed on.
+     *
+     * @return the TopologySnapshot of the tree
+     */
+    public TopologySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the index of the source node.
+     *
+     * @return the index of the root of the tree
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * Checks if a node can be reached from the source.
+     *
+     * @param target the index of a node
+     * @return true if there is a path from the source to the target
+     */
+    public boolean isReachable(int target) {
+        return !Double.isInfinite(distance[target]);
+    }
+
+    /**
+     * Returns the length of the shortest path from the source to a node.
+     *
+     * @param target the index of a node
+     * @return the length of the path, Double.POSITIVE_INFINITY if the node can
+     * not be reached
+     */
+    public double getDistance(int target) {
+        return distance[target];
+    }
+
+    /**
+     * Returns the lowest battery level of the nodes in the path from the
+     * source to a node. Among the shortest paths, the tree holds the one with
+     * the highest lowest battery level.
+     *
+     * @param target the index of a node
+     * @return the lowest battery level in the path
+     */
+    public int getBottleneck(int target) {
+        return bottleneck[target];
+    }
+
+    /**
+     * Returns the parent of a node in the tree.
+     *
+     * @param target the index of a node
+     * @return the index of the parent, -1 for the source or for a node that
+     * can not be reached
+     */
+    public int getParent(int target) {
+        return parent[target];
+    }
+
+    /**
+     * Returns the nodes in the path from the source to a node.
+     *
+     * @param target the index of a node
+     * @return the indexes of the nodes from the source to the target, an
+     * empty array if the node can not be reached
+     */
+    public int[] getPath(int target) {
+        if (!isReachable(target)) {
+            return new int[0];
+        }
+        int hops = 0;
+        for (int v = target; v != -1; v = parent[v]) {
+            hops++;
+        }
+        int[] path = new int[hops];
+        for (int v = target; v != -1; v = parent[v]) {
+            path[--hops] = v;
+        }
+        return path;
+    }
+
+    /**
+     * Returns the addresses of the nodes in the path from the source to a
+     * node.
+     *
+     * @param target the index of a node
+     * @return the list of the NodeAddresses from the source to the target
+     */
+    public LinkedList<NodeAddress> getAddressPath(int target) {
+        LinkedList<NodeAddress> path = new LinkedList<>();
+        for (int node : getPath(target)) {
+            path.add(snapshot.getAddress(node));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.controller.ConfigPipeline.Exchange;
+import com.github.sdnwiselab.sdnwise.packet.ConfigPacket;
+import static com.github.sdnwiselab.sdnwise.packet.NetworkPacket.SDN_WISE_DFLT_HDR_LEN;
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * This class sends the same configuration to many nodes following the
+ * shortest path tree rooted in the sink. The nodes are reached level by level,
+ * so that a node is configured after the nodes its packets go through, and
+ * the nodes of a level are taken in turn from the different subtrees of the
+ * sink, so that consecutive packets go through different relays. When all the
+ * neighbors of the sink have to be configured and BROADCAST is enabled, they
+ * receive a single packet sent to the broadcast address.
+ * <p>
+ * The delivery is confirmed reading back the value from each node through a
+ * ConfigPipeline, which also repeats the write for the nodes which did not
+ * confirm it.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class TreeDisseminator {
+
+    static final NodeAddress BROADCAST = new NodeAddress("255.255");
+
+    private final Controller controller;
+    private final ConfigPipeline pipeline;
+    private final ParallelDijkstra engine = new ParallelDijkstra();
+    private final boolean broadcast;
+
+    /**
+     * Creates a disseminator. The conf map contains the options of the
+     * algorithm as strings. Optional parameters are:
+     * <ol>
+     * <li>BROADCAST, TRUE to reach the neighbors of the sink with a single
+     * broadcast packet</li>
+     * </ol>
+     *
+     * @param controller the controller sending the packets
+     * @param pipeline the pipeline used to send the packets
+     * @param conf contains the algorithm configuration data
+     */
+    TreeDisseminator(Controller controller, ConfigPipeline pipeline,
+            Map<String, String> conf) {
+        this.controller = controller;
+        this.pipeline = pipeline;
+        broadcast = Boolean.parseBoolean(conf.getOrDefault("BROADCAST", "FALSE"));
+    }
+
+    /**
+     * Orders the nodes following the shortest path tree rooted in the sink.
+     * The result is a list of levels ordered by distance in hops from the
+     * sink, the sink itself comes first if it is among the nodes. The nodes
+     * which can not be reached from the sink are in the last level.
+     *
+     * @param netId network id of the nodes
+     * @param sink the address of the sink
+     * @param targets the nodes to order
+     * @return the nodes grouped by distance in hops from the sink
+     */
+    List<List<NodeAddress>> schedule(byte netId, NodeAddress sink,
+            Collection<NodeAddress> targets) {
+        TopologySnapshot snapshot = controller.getNetworkGraph().getSnapshot(netId & 0xFF);
+        int root = snapshot.indexOf((netId & 0xFF) + "." + sink);
+        ShortestPathTree tree = root < 0 ? null : engine.compute(snapshot, root);
+
+        // levels.get(d) maps each subtree of the sink to its nodes at depth d
+        List<Map<Integer, List<NodeAddress>>> levels = new ArrayList<>();
+        List<NodeAddress> unreachable = new ArrayList<>();
+        for (NodeAddress addr : new LinkedHashSet<>(targets)) {
+            int v = snapshot.indexOf((netId & 0xFF) + "." + addr);
+            if (tree == null || v < 0 || !tree.isReachable(v)) {
+                unreachable.add(addr);
+                continue;
+            }
+            int depth = 0;
+            int subtree = v;
+            for (int u = v; u != root; u = tree.getParent(u)) {
+                subtree = u;
+                depth++;
+            }
+            while (levels.size() <= depth) {
+                levels.add(new LinkedHashMap<>());
+            }
+            levels.get(depth).computeIfAbsent(subtree, k -> new ArrayList<>())
+                    .add(addr);
+        }
+
+        List<List<NodeAddress>> schedule = new ArrayList<>();
+        for (Map<Integer, List<NodeAddress>> level : levels) {
+            List<NodeAddress> wave = new ArrayList<>();
+            int max = 0;
+            for (List<NodeAddress> nodes : level.values()) {
+                max = Math.max(max, nodes.size());
+            }
+            for (int i = 0; i < max; i++) {
+                for (List<NodeAddress> nodes : level.values()) {
+                    if (i < nodes.size()) {
+                        wave.add(nodes.get(i));
+                    }
+                }
+            }
+            if (!wave.isEmpty()) {
+                schedule.add(wave);
+            }
+        }
+        if (!unreachable.isEmpty()) {
+            schedule.add(unreachable);
+        }
+        return schedule;
+    }
+
+    /**
+     * Sends a configuration to many nodes and confirms it reading it back.
+     *
+     * @param netId network id of the nodes
+     * @param sink the address of the sink
+     * @param targets the nodes to configure
+     * @param write a config packet with the write flag set, its destination
+     * is replaced for each node
+     * @return for each node, true if it confirmed the new value
+     */
+    Map<NodeAddress, Boolean> disseminate(byte netId, NodeAddress sink,
+            Collection<NodeAddress> targets, ConfigPacket write) {
+        byte[] raw = write.toByteArray();
+        if (raw.length <= SDN_WISE_DFLT_HDR_LEN
+                || (raw[SDN_WISE_DFLT_HDR_LEN] & 0x80) == 0) {
+            throw new IllegalArgumentException("Not a config write");
+        }
+
+        Set<NodeAddress> neighbors = neighborsOfSink(netId, sink);
+        Map<NodeAddress, Exchange> exchanges = new LinkedHashMap<>();
+        for (List<NodeAddress> wave : schedule(netId, sink, targets)) {
+            for (NodeAddress addr : wave) {
+                exchanges.put(addr, Exchange.readBack(packet(raw, sink, addr)));
+            }
+        }
+        long transmissions = exchanges.size();
+        if (broadcast && !neighbors.isEmpty()
+                && exchanges.keySet().containsAll(neighbors)) {
+            pipeline.send(sink, packet(raw, sink, BROADCAST));
+            for (NodeAddress addr : neighbors) {
+                exchanges.get(addr).written = true;
+            }
+            transmissions -= neighbors.size() - 1;
+        }
+        int missing = pipeline.run(sink, new ArrayList<>(exchanges.values()));
+
+        Map<NodeAddress, Boolean> result = new LinkedHashMap<>();
+        for (Map.Entry<NodeAddress, Exchange> e : exchanges.entrySet()) {
+            result.put(e.getKey(), e.getValue().isDone());
+        }
+        controller.log(Level.INFO, "Config " + (raw[SDN_WISE_DFLT_HDR_LEN] & 0x7F)
+                + " sent to " + result.size() + " nodes with " + transmissions
+                + " writes, " + missing + " not confirmed");
+        return result;
+    }
+
+    private Set<NodeAddress> neighborsOfSink(byte netId, NodeAddress sink) {
+        TopologySnapshot snapshot = controller.getNetworkGraph().getSnapshot(netId & 0xFF);
+        Set<NodeAddress> neighbors = new LinkedHashSet<>();
+        int root = snapshot.indexOf((netId & 0xFF) + "." + sink);
+        if (root >= 0) {
+            int[] offsets = snapshot.getOffsets();
+            for (int k = offsets[root]; k < offsets[root + 1]; k++) {
+                neighbors.add(snapshot.getAddress(snapshot.getTargets()[k]));
+            }
+        }
+        return neighbors;
+    }
+
+    private static ConfigPacket packet(byte[] raw, NodeAddress sink,
+            NodeAddress destination) {
+        ConfigPacket cp = new ConfigPacket(raw.clone());
+        cp.setDst(destination);
+        cp.setSrc(sink);
+        cp.setNxhop(sink);
+        return cp;
+    }
+}
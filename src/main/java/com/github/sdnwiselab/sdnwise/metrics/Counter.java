@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter which can only increase, updated by many threads without
+ * contention.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    /**
+     * Increments the counter by one.
+     */
+    public void inc() {
+        value.increment();
+    }
+
+    /**
+     * Increments the counter.
+     *
+     * @param n the amount to add
+     */
+    public void add(long n) {
+        value.add(n);
+    }
+
+    /**
+     * Returns the value of the counter.
+     *
+     * @return the sum of all the increments
+     */
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * This class holds the counters, gauges and histograms of a controller. A
+ * metric is identified by a name and by an optional label, for example
+ * sdnwise_packets_received_total{type="report"}, and it is created the first
+ * time it is asked for, so the hot paths of the controller should keep a
+ * reference to their metrics instead of looking them up for each packet.
+ * <p>
+ * The metrics can be exported in the text format used by Prometheus.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns a counter without labels.
+     *
+     * @param name the name of the counter
+     * @param help a description of the counter
+     * @return the counter
+     */
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    /**
+     * Returns a counter with a label.
+     *
+     * @param name the name of the counter
+     * @param help a description of the counter
+     * @param label the name of the label
+     * @param value the value of the label
+     * @return the counter
+     */
+    public Counter counter(String name, String help, String label,
+            String value) {
+        return (Counter) family(name, help, "counter")
+                .series(label, value, Counter::new);
+    }
+
+    /**
+     * Returns a histogram of durations without labels.
+     *
+     * @param name the name of the histogram, the values are exported in
+     * seconds
+     * @param help a description of the histogram
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String help) {
+        return histogram(name, help, null, null);
+    }
+
+    /**
+     * Returns a histogram of durations with a label.
+     *
+     * @param name the name of the histogram, the values are exported in
+     * seconds
+     * @param help a description of the histogram
+     * @param label the name of the label
+     * @param value the value of the label
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String help, String label,
+            String value) {
+        return (Histogram) family(name, help, "summary")
+                .series(label, value, Histogram::new);
+    }
+
+    /**
+     * Registers a gauge, whose value is read when the metrics are exported.
+     *
+     * @param name the name of the gauge
+     * @param help a description of the gauge
+     * @param supplier the function returning the current value
+     */
+    public void gauge(String name, String help, LongSupplier supplier) {
+        family(name, help, "gauge").series(null, null, () -> supplier);
+    }
+
+    /**
+     * Returns the current value of a gauge.
+     *
+     * @param name the name of the gauge
+     * @return the value of the gauge, 0 if it does not exist
+     */
+    public long getGauge(String name) {
+        Family f = families.get(name);
+        if (f == null || !"gauge".equals(f.type)) {
+            return 0;
+        }
+        Object s = f.series.get("");
+        return s == null ? 0 : ((LongSupplier) s).getAsLong();
+    }
+
+    /**
+     * Returns the current value of all the metrics. Counters and gauges are
+     * numbers, histograms are maps with their count, sum, max and quantiles
+     * in seconds.
+     *
+     * @return a map from the name of each series, labels included, to its
+     * value
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Family f : families.values()) {
+            for (Map.Entry<String, Object> e : f.series.entrySet()) {
+                String key = e.getKey().isEmpty()
+                        ? f.name : f.name + "{" + e.getKey() + "}";
+                Object metric = e.getValue();
+                if (metric instanceof Counter) {
+                    map.put(key, ((Counter) metric).get());
+                } else if (metric instanceof LongSupplier) {
+                    map.put(key, ((LongSupplier) metric).getAsLong());
+                } else {
+                    Histogram h = (Histogram) metric;
+                    Map<String, Object> values = new LinkedHashMap<>();
+                    values.put("count", h.getCount());
+                    values.put("sum", h.getSum() / 1e9);
+                    values.put("max", h.getMax() / 1e9);
+                    for (double q : QUANTILES) {
+                        values.put(Double.toString(q), h.getQuantile(q) / 1e9);
+                    }
+                    map.put(key, values);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics, one sample per line
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Family f : families.values()) {
+            sb.append("# HELP ").append(f.name).append(' ')
+                    .append(f.help).append('\n');
+            sb.append("# TYPE ").append(f.name).append(' ')
+                    .append(f.type).append('\n');
+            for (Map.Entry<String, Object> e : f.series.entrySet()) {
+                write(sb, f.name, e.getKey(), e.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void write(StringBuilder sb, String name, String labels,
+            Object metric) {
+        if (metric instanceof Counter) {
+            sample(sb, name, labels, null,
+                    Long.toString(((Counter) metric).get()));
+        } else if (metric instanceof LongSupplier) {
+            sample(sb, name, labels, null,
+                    Long.toString(((LongSupplier) metric).getAsLong()));
+        } else {
+            Histogram h = (Histogram) metric;
+            for (double q : QUANTILES) {
+                sample(sb, name, labels, "quantile=\"" + q + "\"",
+                        seconds(h.getQuantile(q)));
+            }
+            sample(sb, name + "_sum", labels, null, seconds(h.getSum()));
+            sample(sb, name + "_count", labels, null,
+                    Long.toString(h.getCount()));
+        }
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels,
+            String extra, String value) {
+        sb.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            sb.append('{').append(labels);
+            if (extra != null) {
+                sb.append(labels.isEmpty() ? "" : ",").append(extra);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family f = families.computeIfAbsent(name,
+                k -> new Family(name, help, type));
+        if (!f.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + f.type);
+        }
+        return f;
+    }
+
+    private static final class Family {
+
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        Object series(String label, String value,
+                Supplier<Object> factory) {
+            String key = label == null ? "" : label + "=\"" + value + "\"";
+            return series.computeIfAbsent(key, k -> factory.get());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * A small HTTP server which exports a Metrics registry at the path /metrics in
+ * the Prometheus text format. Other plain text pages can be added with
+ * addContext. It uses the HTTP server of the JDK so it does not need any other
+ * library.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class MetricsServer {
+
+    private final HttpServer server;
+
+    /**
+     * Creates and starts the server.
+     *
+     * @param metrics the metrics to export
+     * @param address the local address the server listens on
+     * @throws IOException if the address can not be bound
+     */
+    public MetricsServer(final Metrics metrics, InetSocketAddress address)
+            throws IOException {
+        server = HttpServer.create(address, 0);
+        addContext("/metrics", metrics::toPrometheus);
+        server.start();
+    }
+
+    /**
+     * Adds a plain text page to the server.
+     *
+     * @param path the path of the page
+     * @param page the function returning the content of the page
+     */
+    public void addContext(String path, final Supplier<String> page) {
+        server.createContext(path, exchange -> {
+            byte[] body = page.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                    "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.metrics;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The timeline of the management of a packet. A trace is a sequence of named
+ * spans: each span starts when the previous one ends, the first one starts
+ * when the packet is received.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class Trace {
+
+    static final int MAX_SPANS = 16;
+
+    String name;
+    String label;
+    long start;
+    long time;
+    int count;
+    final String[] spans = new String[MAX_SPANS];
+    final long[] ends = new long[MAX_SPANS];
+
+    Trace() {
+    }
+
+    void reset(String name, long start) {
+        this.name = name;
+        this.label = null;
+        this.start = start;
+        this.count = 0;
+    }
+
+    void mark(String span, long now) {
+        if (count < MAX_SPANS) {
+            spans[count] = span;
+            ends[count++] = now;
+        }
+    }
+
+    Trace copy(long time) {
+        Trace t = new Trace();
+        t.name = name;
+        t.label = label;
+        t.start = start;
+        t.time = time;
+        t.count = count;
+        System.arraycopy(spans, 0, t.spans, 0, count);
+        System.arraycopy(ends, 0, t.ends, 0, count);
+        return t;
+    }
+
+    /**
+     * Returns the name of the trace, for example the type of the packet.
+     *
+     * @return the name of the trace
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a description of what has been traced, for example the two end
+     * points of a route.
+     *
+     * @return the label of the trace, null if not set
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the time the trace ended.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the total duration of the trace.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getTotal() {
+        return count == 0 ? 0 : ends[count - 1] - start;
+    }
+
+    /**
+     * Returns the number of spans in the trace.
+     *
+     * @return the number of spans
+     */
+    public int getSpanCount() {
+        return count;
+    }
+
+    /**
+     * Returns the name of a span.
+     *
+     * @param i the index of the span
+     * @return the name of the span
+     */
+    public String getSpan(int i) {
+        return spans[i];
+    }
+
+    /**
+     * Returns the duration of a span.
+     *
+     * @param i the index of the span
+     * @return the duration in nanoseconds
+     */
+    public long getDuration(int i) {
+        return ends[i] - (i == 0 ? start : ends[i - 1]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(time)))
+                .append(' ').append(name);
+        if (label != null) {
+            sb.append(' ').append(label);
+        }
+        sb.append(String.format(Locale.ROOT, " %.3f ms:", getTotal() / 1e6));
+        for (int i = 0; i < count; i++) {
+            sb.append(String.format(Locale.ROOT, " %s %.3f", spans[i],
+                    getDuration(i) / 1e6));
+        }
+        return sb.toString();
+    }
+}
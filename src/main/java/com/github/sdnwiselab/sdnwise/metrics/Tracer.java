@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class records traces of the management of packets. A thread starts a
+ * trace with begin, marks the end of each step with mark and completes the
+ * trace with end; mark does nothing when the thread is not tracing, so it can
+ * be called from code shared with other threads.
+ * <p>
+ * Each thread reuses the same Trace, a copy is kept only when the trace is
+ * slower than a threshold or when it is sampled, one every sampleRate traces.
+ * Slow and sampled traces are stored in two ring buffers of fixed size, so
+ * tracing does not allocate memory for the packets which are not kept.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class Tracer {
+
+    private final long slow;
+    private final int sampleRate;
+    private final Ring slowTraces;
+    private final Ring sampledTraces;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Creates a tracer.
+     *
+     * @param size the number of traces kept in each ring buffer, 0 to disable
+     * tracing
+     * @param slow the duration in nanoseconds above which a trace is slow
+     * @param sampleRate one every sampleRate traces is kept, 0 to keep only
+     * the slow ones
+     */
+    public Tracer(int size, long slow, int sampleRate) {
+        this.slow = slow;
+        this.sampleRate = sampleRate;
+        this.slowTraces = size > 0 ? new Ring(size) : null;
+        this.sampledTraces = size > 0 ? new Ring(size) : null;
+    }
+
+    /**
+     * Starts a trace in the current thread.
+     *
+     * @param name the name of the trace
+     * @param start the start of the trace, as a value of System.nanoTime()
+     */
+    public void begin(String name, long start) {
+        if (slowTraces != null) {
+            State s = state.get();
+            s.trace.reset(name, start);
+            s.active = true;
+        }
+    }
+
+    /**
+     * Marks the end of a span of the trace of the current thread.
+     *
+     * @param span the name of the span
+     */
+    public void mark(String span) {
+        if (slowTraces != null) {
+            State s = state.get();
+            if (s.active) {
+                s.trace.mark(span, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Sets the label of the trace of the current thread.
+     *
+     * @param label a description of what is being traced
+     */
+    public void label(String label) {
+        if (slowTraces != null) {
+            State s = state.get();
+            if (s.active) {
+                s.trace.label = label;
+            }
+        }
+    }
+
+    /**
+     * Completes the trace of the current thread and keeps it if it is slow or
+     * sampled.
+     */
+    public void end() {
+        if (slowTraces == null) {
+            return;
+        }
+        State s = state.get();
+        if (!s.active) {
+            return;
+        }
+        s.active = false;
+        Trace t = s.trace;
+        if (t.getTotal() >= slow) {
+            slowTraces.add(t.copy(System.currentTimeMillis()));
+        } else if (sampleRate > 0 && ++s.counter >= sampleRate) {
+            s.counter = 0;
+            sampledTraces.add(t.copy(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Returns the slow traces, from the oldest to the newest.
+     *
+     * @return a copy of the slow traces
+     */
+    public List<Trace> getSlowTraces() {
+        return slowTraces == null
+                ? Collections.<Trace>emptyList() : slowTraces.toList();
+    }
+
+    /**
+     * Returns the sampled traces, from the oldest to the newest.
+     *
+     * @return a copy of the sampled traces
+     */
+    public List<Trace> getSampledTraces() {
+        return sampledTraces == null
+                ? Collections.<Trace>emptyList() : sampledTraces.toList();
+    }
+
+    /**
+     * Writes the slow and the sampled traces, one per line.
+     *
+     * @return the traces as text
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# slow\n");
+        for (Trace t : getSlowTraces()) {
+            sb.append(t).append('\n');
+        }
+        sb.append("# sampled\n");
+        for (Trace t : getSampledTraces()) {
+            sb.append(t).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static final class State {
+
+        final Trace trace = new Trace();
+        boolean active;
+        int counter;
+    }
+
+    private static final class Ring {
+
+        private final Trace[] traces;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            traces = new Trace[capacity];
+        }
+
+        synchronized void add(Trace t) {
+            traces[next] = t;
+            next = (next + 1) % traces.length;
+            size = Math.min(size + 1, traces.length);
+        }
+
+        synchronized List<Trace> toList() {
+            List<Trace> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(traces[(next - size + i + traces.length) % traces.length]);
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.northbound;
+
+import com.github.sdnwiselab.sdnwise.controller.Controller;
+import com.github.sdnwiselab.sdnwise.controller.NodeParameter;
+import com.github.sdnwiselab.sdnwise.topology.TopologySnapshot;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds the JSON documents served by the northbound API, so that
+ * repeated reads do not lock the NetworkGraph or query the nodes.
+ * <p>
+ * The topology is copied from the NetworkGraph only when its version changes,
+ * or when a report changed the battery levels, which do not change the
+ * version, and the copy is older than a refresh interval. Both counters are
+ * read without locking the NetworkGraph, so polling an up to date copy costs
+ * nothing. The configuration of a node is read from the node the first time it
+ * is asked for, with all its parameters queried through the config pipeline of
+ * the controller, and then kept for a time to live, unless a query timed out;
+ * concurrent reads of the same node wait for the same queries.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class NorthboundCache {
+
+    private static final Map<String, NodeParameter> NODE_FIELDS
+            = new LinkedHashMap<>();
+
+    static {
+        NODE_FIELDS.put("netId", NodeParameter.NET_ID);
+        NODE_FIELDS.put("beaconPeriod", NodeParameter.BEACON_PERIOD);
+        NODE_FIELDS.put("reportPeriod", NodeParameter.REPORT_PERIOD);
+        NODE_FIELDS.put("updateTablePeriod", NodeParameter.UPDATE_TABLE_PERIOD);
+        NODE_FIELDS.put("ttlMax", NodeParameter.TTL_MAX);
+        NODE_FIELDS.put("rssiMin", NodeParameter.RSSI_MIN);
+    }
+
+    private final Controller controller;
+    private final long refresh;
+    private final long configTtl;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final Map<String, NodeConfig> configs = new ConcurrentHashMap<>();
+    private volatile Document topology;
+    private volatile TopologySnapshot snapshot;
+    private volatile long topologyUpdates = -1;
+
+    /**
+     * Creates the cache.
+     *
+     * @param controller the controller serving the API
+     * @param refresh the maximum age in milliseconds of the copy of the
+     * topology
+     * @param configTtl the time in milliseconds the configuration of a node
+     * is kept
+     */
+    NorthboundCache(Controller controller, long refresh, long configTtl) {
+        this.controller = controller;
+        this.refresh = refresh;
+        this.configTtl = configTtl;
+    }
+
+    /**
+     * Returns the topology of the network. The document contains the version
+     * of the topology, counted from 0 at the start of the controller so that
+     * it fits in a JSON number, the nodes with their battery level, drain rate and
+     * expected depletion time, and the links with their length.
+     *
+     * @return the topology as a JSON document
+     */
+    Document getTopology() {
+        long version = controller.getNetworkGraph().getLastModification();
+        long updates = controller.getNetworkGraph().getUpdateCount();
+        Document doc = topology;
+        if (isFresh(doc, version, updates)) {
+            return doc;
+        }
+        synchronized (this) {
+            doc = topology;
+            if (isFresh(doc, version, updates)) {
+                return doc;
+            }
+            TopologySnapshot s = controller.getNetworkGraph().getSnapshot();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("version", s.getVersion() - Long.MIN_VALUE);
+            List<Object> nodes = new ArrayList<>(s.getNodeCount());
+            List<Object> links = new ArrayList<>(s.getEdgeCount());
+            for (int i = 0; i < s.getNodeCount(); i++) {
+                Map<String, Object> node = new LinkedHashMap<>();
+                node.put("id", s.getId(i));
+                node.put("battery", s.getBattery()[i]);
+                node.put("drain", s.getDrain()[i]);
+                if (s.getDepletion()[i] != Long.MAX_VALUE) {
+                    node.put("depletion", s.getDepletion()[i]);
+                }
+                nodes.add(node);
+                for (int k = s.getOffsets()[i]; k < s.getOffsets()[i + 1]; k++) {
+                    Map<String, Object> link = new LinkedHashMap<>();
+                    link.put("from", s.getId(i));
+                    link.put("to", s.getId(s.getTargets()[k]));
+                    link.put("length", s.getLengths()[k]);
+                    links.add(link);
+                }
+            }
+            map.put("nodes", nodes);
+            map.put("links", links);
+            snapshot = s;
+            topologyUpdates = updates;
+            topology = new Document(s.getVersion(), gson.toJson(map));
+            return topology;
+        }
+    }
+
+    /**
+     * Returns the routes known by the controller.
+     *
+     * @return the routes as a JSON document
+     */
+    Document getRoutes() {
+        Map<String, List<String>> routes = new LinkedHashMap<>();
+        for (Map.Entry<String, List<NodeAddress>> e
+                : controller.getRoutes().entrySet()) {
+            List<String> path = new ArrayList<>(e.getValue().size());
+            for (NodeAddress addr : e.getValue()) {
+                path.add(addr.toString());
+            }
+            routes.put(e.getKey(), path);
+        }
+        return new Document(0, gson.toJson(routes));
+    }
+
+    /**
+     * Returns the metrics of the controller.
+     *
+     * @return the metrics as a JSON document
+     */
+    Document getMetrics() {
+        return new Document(0, gson.toJson(controller.getMetrics().toMap()));
+    }
+
+    /**
+     * Returns the configuration of a node.
+     *
+     * @param netId the network id of the node
+     * @param address the address of the node
+     * @param reload true to query the node even if its configuration is
+     * cached
+     * @return the configuration as a JSON document, null if the node is not
+     * in the topology
+     */
+    Document getNodeConfig(byte netId, NodeAddress address, boolean reload) {
+        getTopology();
+        if (snapshot.indexOf((netId & 0xFF) + "." + address) < 0) {
+            return null;
+        }
+        String key = (netId & 0xFF) + "." + address;
+        NodeConfig cached = configs.get(key);
+        if (cached != null && !reload && (!cached.doc.isDone()
+                || System.currentTimeMillis() - cached.time < configTtl)) {
+            return cached.doc.join();
+        }
+        NodeConfig mine = new NodeConfig(System.currentTimeMillis());
+        boolean owner = cached == null
+                ? configs.putIfAbsent(key, mine) == null
+                : configs.replace(key, cached, mine);
+        if (!owner) {
+            return configs.get(key).doc.join();
+        }
+        try {
+            Map<String, Object> map = readNodeConfig(netId, address, mine.time);
+            // a document with parameters not received is not kept
+            if (map.containsKey("partial")) {
+                configs.remove(key, mine);
+            }
+            mine.doc.complete(new Document(mine.time, gson.toJson(map)));
+        } catch (RuntimeException ex) {
+            configs.remove(key, mine);
+            mine.doc.completeExceptionally(ex);
+        }
+        return mine.doc.join();
+    }
+
+    /**
+     * Reads the parameters of a node in a single batch. The parameters not
+     * received are -1 and the document is marked as partial.
+     */
+    private Map<String, Object> readNodeConfig(byte netId, NodeAddress address,
+            long time) {
+        Map<NodeParameter, Integer> values = controller.getNodeParameters(
+                netId, Collections.singleton(address), NODE_FIELDS.values())
+                .get(address);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", (netId & 0xFF) + "." + address);
+        map.put("time", time);
+        for (Map.Entry<String, NodeParameter> f : NODE_FIELDS.entrySet()) {
+            map.put(f.getKey(), values.getOrDefault(f.getValue(), -1));
+        }
+        if (values.size() < NODE_FIELDS.size()) {
+            map.put("partial", true);
+        }
+        return map;
+    }
+
+    private boolean isFresh(Document doc, long version, long updates) {
+        return doc != null && doc.version == version
+                && (updates == topologyUpdates
+                || System.currentTimeMillis() - doc.time < refresh);
+    }
+
+    /**
+     * A JSON document with the version it was built from and its entity tag.
+     */
+    static final class Document {
+
+        final long version;
+        final long time = System.currentTimeMillis();
+        final String json;
+        final String tag;
+
+        Document(long version, String json) {
+            this.version = version;
+            this.json = json;
+            this.tag = Long.toHexString(version) + "-"
+                    + Integer.toHexString(json.hashCode());
+        }
+    }
+
+    private static final class NodeConfig {
+
+        final long time;
+        final CompletableFuture<Document> doc = new CompletableFuture<>();
+
+        NodeConfig(long time) {
+            this.time = time;
+        }
+    }
+}
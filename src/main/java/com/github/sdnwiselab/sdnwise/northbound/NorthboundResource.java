@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.northbound;
+
+import com.github.sdnwiselab.sdnwise.controller.Controller;
+import com.github.sdnwiselab.sdnwise.northbound.NorthboundCache.Document;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+/**
+ * The resources of the northbound API. Every JSON document is sent with an
+ * entity tag, a request with a matching If-None-Match header receives a 304
+ * Not Modified response without a body.
+ * <ul>
+ * <li>GET /topology, the nodes and the links of the network</li>
+ * <li>GET /routes, the paths of the flows computed by the controller</li>
+ * <li>GET /nodes/{netId}/{address}, the configuration of a node, add
+ * ?reload=true to query the node again</li>
+ * <li>GET /metrics, the metrics of the controller</li>
+ * <li>GET /traces, the slow and the sampled traces as text</li>
+ * </ul>
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+@Path("/")
+public final class NorthboundResource {
+
+    private final Controller controller;
+    private final NorthboundCache cache;
+
+    NorthboundResource(Controller controller, NorthboundCache cache) {
+        this.controller = controller;
+        this.cache = cache;
+    }
+
+    @GET
+    @Path("topology")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getTopology(@Context Request request) {
+        return send(request, cache.getTopology());
+    }
+
+    @GET
+    @Path("routes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getRoutes(@Context Request request) {
+        return send(request, cache.getRoutes());
+    }
+
+    @GET
+    @Path("nodes/{netId}/{address}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getNode(@Context Request request,
+            @PathParam("netId") int netId,
+            @PathParam("address") String address,
+            @QueryParam("reload") boolean reload) {
+        Document doc = cache.getNodeConfig((byte) netId,
+                new NodeAddress(address), reload);
+        if (doc == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return send(request, doc);
+    }
+
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics(@Context Request request) {
+        return send(request, cache.getMetrics());
+    }
+
+    @GET
+    @Path("traces")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String getTraces() {
+        return controller.getTracer().dump();
+    }
+
+    private static Response send(Request request, Document doc) {
+        EntityTag tag = new EntityTag(doc.tag);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(doc.json, MediaType.APPLICATION_JSON_TYPE)
+                .tag(tag).build();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.northbound;
+
+import com.github.sdnwiselab.sdnwise.controller.Controller;
+import com.sun.jersey.api.container.httpserver.HttpServerFactory;
+import com.sun.jersey.api.core.DefaultResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * This class exposes the state of a Controller as a REST/JSON API, see
+ * NorthboundResource for the list of the resources. The server is built with
+ * Jersey on top of the HTTP server of the JDK and listens only on the local
+ * address. The conf map contains the options of the algorithm as strings.
+ * Optional parameters are:
+ * <ol>
+ * <li>API_PORT, the local port of the API</li>
+ * <li>API_REFRESH, the maximum age in milliseconds of the topology returned
+ * when the graph has not changed, 1000 by default</li>
+ * <li>API_CONFIG_TTL, the time in seconds the configuration read from a node
+ * is reused, 60 by default</li>
+ * </ol>
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class NorthboundServer {
+
+    private final HttpServer server;
+
+    /**
+     * Creates and starts the server.
+     *
+     * @param controller the controller exposed by the API
+     * @param conf contains the algorithm configuration data
+     * @throws IOException if the port can not be bound
+     */
+    public NorthboundServer(Controller controller, Map<String, String> conf)
+            throws IOException {
+        int port = Integer.parseInt(conf.getOrDefault("API_PORT", "8080"));
+        NorthboundCache cache = new NorthboundCache(controller,
+                Long.parseLong(conf.getOrDefault("API_REFRESH", "1000")),
+                Long.parseLong(conf.getOrDefault("API_CONFIG_TTL", "60")) * 1000L);
+        DefaultResourceConfig rc = new DefaultResourceConfig();
+        rc.getSingletons().add(new NorthboundResource(controller, cache));
+        rc.getFeatures().put(ResourceConfig.FEATURE_DISABLE_WADL, true);
+        server = HttpServerFactory.create("http://localhost:" + port + "/", rc);
+        server.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+}
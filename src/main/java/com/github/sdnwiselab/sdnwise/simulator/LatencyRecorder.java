@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.simulator;
+
+import java.util.Arrays;
+
+/**
+ * This class collects latency samples and computes their percentiles. The
+ * samples are kept until the next call to {@link #reset()}.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int size;
+
+    /**
+     * Adds a sample.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    synchronized void add(long nanos) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = nanos;
+    }
+
+    /**
+     * Returns the sorted samples and removes them from the recorder.
+     *
+     * @return the samples collected since the last reset, sorted
+     */
+    synchronized long[] reset() {
+        long[] sorted = Arrays.copyOf(samples, size);
+        size = 0;
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns a percentile of sorted samples.
+     *
+     * @param sorted the sorted samples
+     * @param percentile a value between 0 and 100
+     * @return the sample at the given percentile, 0 if there are no samples
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int i = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.simulator;
+
+import static com.github.sdnwiselab.sdnwise.packet.NetworkPacket.*;
+
+/**
+ * This class encodes the packets sent by the nodes, byte by byte, as they are
+ * received by the adapters of the controller.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class Packets {
+
+    /**
+     * The maximum length of a packet.
+     */
+    static final int MAX_LENGTH = 116;
+
+    private static final int TTL = 100;
+    private static final int REQUEST_FLAG = 0x80;
+
+    private Packets() {
+    }
+
+    /**
+     * Encodes a SDN_WISE_REPORT packet. The payload holds the distance from
+     * the sink, the battery level and, for each neighbor, its address and the
+     * RSSI of the last beacon received from it.
+     *
+     * @param netId the network id
+     * @param src the address of the node
+     * @param dst the address of the sink
+     * @param battery the battery level of the node
+     * @param neighbors the addresses of the neighbors
+     * @param rssi the RSSI of each neighbor
+     * @return the bytes of the packet
+     */
+    static byte[] report(int netId, int src, int dst, int battery,
+            int[] neighbors, int[] rssi) {
+        byte[] p = header(SDN_WISE_DFLT_HDR_LEN + 3 + neighbors.length * 3,
+                netId, src, dst, SDN_WISE_REPORT);
+        int i = SDN_WISE_DFLT_HDR_LEN;
+        p[i++] = 0;
+        p[i++] = (byte) battery;
+        p[i++] = (byte) neighbors.length;
+        for (int k = 0; k < neighbors.length; k++) {
+            p[i++] = (byte) (neighbors[k] >>> 8);
+            p[i++] = (byte) neighbors[k];
+            p[i++] = (byte) rssi[k];
+        }
+        return p;
+    }
+
+    /**
+     * Encodes a SDN_WISE_DATA packet with the request flag set, as forwarded
+     * to the controller by a node without a rule for the destination.
+     *
+     * @param netId the network id
+     * @param src the address of the source node
+     * @param dst the address of the destination node
+     * @return the bytes of the packet
+     */
+    static byte[] request(int netId, int src, int dst) {
+        return header(SDN_WISE_DFLT_HDR_LEN, netId, src, dst,
+                SDN_WISE_DATA | REQUEST_FLAG);
+    }
+
+    /**
+     * Encodes the answer of a node to a packet of the controller. The answer
+     * has the same network id and type of the packet and a new payload.
+     *
+     * @param packet the bytes of the packet of the controller
+     * @param src the address of the node
+     * @param dst the address of the sink
+     * @param payload the payload of the answer
+     * @return the bytes of the packet
+     */
+    static byte[] answer(byte[] packet, int src, int dst, byte[] payload) {
+        byte[] p = header(SDN_WISE_DFLT_HDR_LEN + payload.length,
+                packet[1] & 0xFF, src, dst, packet[6] & 0xFF);
+        System.arraycopy(payload, 0, p, SDN_WISE_DFLT_HDR_LEN, payload.length);
+        return p;
+    }
+
+    private static byte[] header(int len, int netId, int src, int dst,
+            int type) {
+        if (len > MAX_LENGTH) {
+            throw new IllegalArgumentException("Packet too long: " + len);
+        }
+        byte[] p = new byte[len];
+        p[0] = (byte) len;
+        p[1] = (byte) netId;
+        p[2] = (byte) (src >>> 8);
+        p[3] = (byte) src;
+        p[4] = (byte) (dst >>> 8);
+        p[5] = (byte) dst;
+        p[6] = (byte) type;
+        p[7] = (byte) TTL;
+        p[8] = (byte) (dst >>> 8);
+        p[9] = (byte) dst;
+        return p;
+    }
+}
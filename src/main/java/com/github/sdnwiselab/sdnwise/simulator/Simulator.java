@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.simulator;
+
+import static com.github.sdnwiselab.sdnwise.packet.NetworkPacket.*;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class emulates a sensor network in order to load a controller without
+ * real nodes. The nodes of a synthetic Topology periodically send their
+ * reports, ask for the paths to the sink or from the sink, and answer the
+ * configuration queries of the controller. The time between a request and the
+ * SDN_WISE_OPEN_PATH packet for the same pair of nodes is measured and its
+ * percentiles are logged periodically together with the packet rates. When a
+ * path arrives, the older requests still waiting for the same pair are counted
+ * as lost, as a real node would have sent them again.
+ * <p>
+ * The simulator can run inside the controller, using an AdapterSimulator as
+ * lower adapter, or as a separate process connected to the TCP or UDP adapter
+ * of a controller. Configuration data are passed using a Map<String,String>.
+ * Optional parameters are:
+ * <ol>
+ * <li>NODES, the number of nodes, 100 by default</li>
+ * <li>SHAPE, the shape of the Topology, random by default</li>
+ * <li>SEED, the seed of the random generator</li>
+ * <li>NEIGHBORS, the maximum number of neighbors in a report</li>
+ * <li>REPORT_INTERVAL, the time between two reports of a node in ms</li>
+ * <li>JITTER, the maximum random variation of the RSSI in a report</li>
+ * <li>DRAIN, the battery consumed by a node between two reports</li>
+ * <li>REQUEST_RATE, the number of routing requests per second</li>
+ * <li>STATS_INTERVAL, the time between two log lines in seconds</li>
+ * <li>LOSS, the probability that a packet sent by the controller is
+ * lost</li>
+ * <li>FUNCTION_ACK, TRUE to acknowledge each chunk of a function sending it
+ * back without the write flag</li>
+ * </ol>
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public class Simulator {
+
+    private static final Logger LOGGER = Logger.getLogger(Simulator.class.getName());
+    private static final int TICK = 10;
+    private static final int SINK = 0;
+    private static final int WRITE_FLAG = 0x80;
+    private static final int ADD_FUNCTION = 16;
+    private static final long REQUEST_TIMEOUT = 10_000_000_000L;
+
+    private final Topology topology;
+    private final int maxNeighbors;
+    private final long reportInterval;
+    private final int jitter;
+    private final int drain;
+    private final double requestRate;
+    private final long statsInterval;
+    private final double loss;
+    private final boolean functionAck;
+    private final Random random;
+
+    private final int[] battery;
+    private final Map<Integer, byte[]>[] config;
+    private final Map<Integer, ArrayDeque<Long>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong reportsSent = new AtomicLong();
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong answersSent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong routes = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final LatencyRecorder interval = new LatencyRecorder();
+    private final LatencyRecorder total = new LatencyRecorder();
+
+    private volatile Consumer<byte[]> link;
+    private ScheduledExecutorService timer;
+    private double reportCredit;
+    private double requestCredit;
+    private int nextReport;
+    private long started;
+    private long lastStats;
+    private long[] lastCounts = new long[4];
+
+    /**
+     * Creates a simulator. See the class description for the options.
+     *
+     * @param conf contains the simulator configuration data.
+     */
+    @SuppressWarnings("unchecked")
+    public Simulator(Map<String, String> conf) {
+        long seed = Long.parseLong(conf.getOrDefault("SEED", "42"));
+        topology = Topology.create(conf.getOrDefault("SHAPE", "random"),
+                Integer.parseInt(conf.getOrDefault("NODES", "100")), seed);
+        maxNeighbors = Integer.parseInt(conf.getOrDefault("NEIGHBORS",
+                String.valueOf(Topology.MAX_NEIGHBORS)));
+        reportInterval = Long.parseLong(conf.getOrDefault("REPORT_INTERVAL", "10000"));
+        jitter = Integer.parseInt(conf.getOrDefault("JITTER", "0"));
+        drain = Integer.parseInt(conf.getOrDefault("DRAIN", "0"));
+        requestRate = Double.parseDouble(conf.getOrDefault("REQUEST_RATE", "10"));
+        statsInterval = Long.parseLong(conf.getOrDefault("STATS_INTERVAL", "5")) * 1000;
+        loss = Double.parseDouble(conf.getOrDefault("LOSS", "0"));
+        functionAck = Boolean.parseBoolean(conf.getOrDefault("FUNCTION_ACK", "FALSE"));
+        random = new Random(seed);
+
+        int n = topology.size();
+        battery = new int[n];
+        config = new Map[n];
+        for (int i = 0; i < n; i++) {
+            battery[i] = topology.getBattery(i);
+            config[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Sets where the packets of the nodes are sent.
+     *
+     * @param link receives the bytes of each packet sent to the controller
+     */
+    public final void setLink(Consumer<byte[]> link) {
+        this.link = link;
+    }
+
+    /**
+     * Returns the simulated topology.
+     *
+     * @return the Topology of the nodes
+     */
+    public final Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Starts sending the packets of the nodes.
+     */
+    public final synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        started = System.nanoTime();
+        lastStats = System.currentTimeMillis();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Simulator");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(this::tick, 0, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the nodes and logs the statistics of the whole run.
+     */
+    public final synchronized void stop() {
+        if (timer == null) {
+            return;
+        }
+        timer.shutdownNow();
+        timer = null;
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long[] sorted = total.reset();
+        log(Level.INFO, String.format("total %.1f s, %d reports, %d requests,"
+                + " %d answers, %d received, %d routes, %d lost, %s",
+                seconds, reportsSent.get(), requestsSent.get(),
+                answersSent.get(), received.get(), routes.get(), lost.get(),
+                percentiles(sorted)));
+    }
+
+    /**
+     * Delivers a packet sent by the controller to the node it is addressed
+     * to.
+     *
+     * @param data the bytes of the packet
+     */
+    public final void receive(byte[] data) {
+        received.incrementAndGet();
+        if (loss > 0 && ThreadLocalRandom.current().nextDouble() < loss) {
+            return;
+        }
+        if (data.length < SDN_WISE_DFLT_HDR_LEN) {
+            return;
+        }
+        int dst = (((data[4] & 0xFF) << 8) | (data[5] & 0xFF)) - 1;
+        if (dst < 0 || dst >= topology.size()) {
+            return;
+        }
+        switch (data[6] & 0x7F) {
+            case SDN_WISE_OPEN_PATH:
+                openPath(data);
+                break;
+            case SDN_WISE_CONFIG:
+                config(dst, data);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void openPath(byte[] data) {
+        int last = data.length - 2;
+        if (last < SDN_WISE_DFLT_HDR_LEN + 2) {
+            return;
+        }
+        int first = ((data[SDN_WISE_DFLT_HDR_LEN] & 0xFF) << 8)
+                | (data[SDN_WISE_DFLT_HDR_LEN + 1] & 0xFF);
+        int end = ((data[last] & 0xFF) << 8) | (data[last + 1] & 0xFF);
+        ArrayDeque<Long> times = pending.get(key(first - 1, end - 1));
+        if (times != null) {
+            Long sent;
+            synchronized (times) {
+                sent = times.pollLast();
+                lost.addAndGet(times.size());
+                times.clear();
+            }
+            if (sent != null) {
+                long latency = System.nanoTime() - sent;
+                interval.add(latency);
+                total.add(latency);
+                routes.incrementAndGet();
+            }
+        }
+    }
+
+    private void config(int node, byte[] data) {
+        byte[] payload = Arrays.copyOfRange(data, SDN_WISE_DFLT_HDR_LEN, data.length);
+        if (payload.length == 0) {
+            return;
+        }
+        int id = payload[0] & 0x7F;
+        if ((payload[0] & WRITE_FLAG) != 0) {
+            config[node].put(id, Arrays.copyOfRange(payload, 1, payload.length));
+            if (id == ADD_FUNCTION && functionAck) {
+                byte[] answer = payload.clone();
+                answer[0] &= ~WRITE_FLAG;
+                send(Packets.answer(data, node + 1, SINK + 1, answer));
+                answersSent.incrementAndGet();
+            }
+            return;
+        }
+        byte[] answer;
+        if (payload.length > 1) {
+            answer = payload;
+        } else {
+            byte[] value = config[node].get(id);
+            if (value == null) {
+                value = new byte[2];
+            }
+            answer = new byte[1 + value.length];
+            answer[0] = payload[0];
+            System.arraycopy(value, 0, answer, 1, value.length);
+        }
+        send(Packets.answer(data, node + 1, SINK + 1, answer));
+        answersSent.incrementAndGet();
+    }
+
+    private void tick() {
+        try {
+            int n = topology.size();
+            reportCredit += (double) n * TICK / reportInterval;
+            while (reportCredit >= 1) {
+                reportCredit--;
+                send(report(nextReport));
+                reportsSent.incrementAndGet();
+                nextReport = (nextReport + 1) % n;
+            }
+            requestCredit += requestRate * TICK / 1000;
+            while (requestCredit >= 1 && n > 1) {
+                requestCredit--;
+                int node = 1 + random.nextInt(n - 1);
+                boolean up = random.nextBoolean();
+                request(up ? node : SINK, up ? SINK : node);
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastStats >= statsInterval) {
+                stats(now);
+            }
+        } catch (RuntimeException ex) {
+            log(Level.SEVERE, ex.toString());
+        }
+    }
+
+    private byte[] report(int node) {
+        battery[node] = Math.max(0, battery[node] - drain);
+        int[] neighbors = topology.getNeighbors(node);
+        int[] rssi = topology.getRssi(node);
+        int count = Math.min(neighbors.length, maxNeighbors);
+        int[] addresses = new int[count];
+        int[] weights = new int[count];
+        for (int k = 0; k < count; k++) {
+            addresses[k] = neighbors[k] + 1;
+            int r = rssi[k];
+            if (jitter > 0) {
+                r += random.nextInt(2 * jitter + 1) - jitter;
+            }
+            weights[k] = Math.max(1, Math.min(255, r));
+        }
+        return Packets.report(Topology.NET_ID, node + 1, SINK + 1,
+                battery[node], addresses, weights);
+    }
+
+    private void request(int src, int dst) {
+        ArrayDeque<Long> times = pending.computeIfAbsent(key(src, dst),
+                k -> new ArrayDeque<>());
+        long now = System.nanoTime();
+        synchronized (times) {
+            while (!times.isEmpty() && now - times.peek() > REQUEST_TIMEOUT) {
+                times.poll();
+                lost.incrementAndGet();
+            }
+            times.add(now);
+        }
+        send(Packets.request(Topology.NET_ID, src + 1, dst + 1));
+        requestsSent.incrementAndGet();
+    }
+
+    private void send(byte[] data) {
+        Consumer<byte[]> l = link;
+        if (l != null) {
+            l.accept(data);
+        }
+    }
+
+    private void stats(long now) {
+        double seconds = (now - lastStats) / 1000.0;
+        lastStats = now;
+        long[] counts = {reportsSent.get(), requestsSent.get(),
+            received.get(), routes.get()};
+        long[] delta = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            delta[i] = counts[i] - lastCounts[i];
+        }
+        lastCounts = counts;
+        log(Level.INFO, String.format("reports %.0f/s, requests %.0f/s,"
+                + " received %.0f/s, routes %.0f/s, %s",
+                delta[0] / seconds, delta[1] / seconds, delta[2] / seconds,
+                delta[3] / seconds, percentiles(interval.reset())));
+    }
+
+    private static String percentiles(long[] sorted) {
+        return String.format("route setup p50 %.2f ms, p90 %.2f ms,"
+                + " p99 %.2f ms, max %.2f ms",
+                LatencyRecorder.percentile(sorted, 50) / 1e6,
+                LatencyRecorder.percentile(sorted, 90) / 1e6,
+                LatencyRecorder.percentile(sorted, 99) / 1e6,
+                LatencyRecorder.percentile(sorted, 100) / 1e6);
+    }
+
+    private static int key(int src, int dst) {
+        return (src << 16) | dst;
+    }
+
+    /**
+     * Logs messages depending on the verbosity level.
+     *
+     * @param level a standard logging level
+     * @param msg the string message to be logged
+     */
+    void log(Level level, String msg) {
+        LOGGER.log(level, "[SIM]: {0}", msg);
+    }
+
+    /**
+     * Runs the simulator as a separate process connected to a controller. The
+     * options are given as KEY=VALUE arguments. Besides the ones of the
+     * simulator, they are:
+     * <ol>
+     * <li>TYPE, TCP or UDP as the lower adapter of the controller, TCP by
+     * default</li>
+     * <li>IP, the address of the controller, localhost by default</li>
+     * <li>PORT, the port of the controller, 9991 by default. With UDP it is
+     * the IN_PORT of the controller</li>
+     * <li>IN_PORT, the UDP port where the simulator receives the packets of
+     * the controller, that is the OUT_PORT of the controller</li>
+     * <li>DURATION, the length of the run in seconds, 60 by default</li>
+     * </ol>
+     *
+     * @param args the options of the simulator
+     * @throws Exception if the controller can not be reached
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> conf = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                conf.put(arg.substring(0, eq).toUpperCase(), arg.substring(eq + 1));
+            }
+        }
+        Simulator simulator = new Simulator(conf);
+        String ip = conf.getOrDefault("IP", "localhost");
+        int port = Integer.parseInt(conf.getOrDefault("PORT", "9991"));
+        if ("UDP".equals(conf.getOrDefault("TYPE", "TCP"))) {
+            connectUdp(simulator, ip, port,
+                    Integer.parseInt(conf.getOrDefault("IN_PORT", "9990")));
+        } else {
+            connectTcp(simulator, ip, port);
+        }
+        simulator.start();
+        Thread.sleep(Long.parseLong(conf.getOrDefault("DURATION", "60")) * 1000);
+        simulator.stop();
+        System.exit(0);
+    }
+
+    private static void connectTcp(Simulator simulator, String ip, int port)
+            throws IOException {
+        Socket socket = new Socket(ip, port);
+        socket.setTcpNoDelay(true);
+        OutputStream out = socket.getOutputStream();
+        simulator.setLink(data -> {
+            synchronized (out) {
+                try {
+                    out.write(data);
+                } catch (IOException ex) {
+                    simulator.log(Level.SEVERE, ex.toString());
+                }
+            }
+        });
+        startReader(() -> {
+            DataInputStream dis = new DataInputStream(socket.getInputStream());
+            while (true) {
+                int len = dis.readByte() & 0xFF;
+                if (len > 0) {
+                    byte[] data = new byte[len];
+                    data[0] = (byte) len;
+                    dis.readFully(data, 1, len - 1);
+                    simulator.receive(data);
+                }
+            }
+        }, simulator);
+    }
+
+    private static void connectUdp(Simulator simulator, String ip, int port,
+            int inPort) throws IOException {
+        DatagramSocket sck = new DatagramSocket(inPort);
+        InetAddress address = InetAddress.getByName(ip);
+        simulator.setLink(data -> {
+            try {
+                sck.send(new DatagramPacket(data, data.length, address, port));
+            } catch (IOException ex) {
+                simulator.log(Level.SEVERE, ex.toString());
+            }
+        });
+        startReader(() -> {
+            byte[] buffer = new byte[4096];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (true) {
+                sck.receive(packet);
+                simulator.receive(Arrays.copyOf(packet.getData(), packet.getLength()));
+            }
+        }, simulator);
+    }
+
+    private static void startReader(Reader reader, Simulator simulator) {
+        Thread th = new Thread(() -> {
+            try {
+                reader.read();
+            } catch (IOException ex) {
+                simulator.log(Level.SEVERE, ex.toString());
+            }
+        }, "SimulatorReader");
+        th.setDaemon(true);
+        th.start();
+    }
+
+    private interface Reader {
+
+        void read() throws IOException;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.simulator;
+
+import com.github.sdnwiselab.sdnwise.packet.NetworkPacket;
+import com.github.sdnwiselab.sdnwise.packet.ReportPacket;
+import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.MultiGraph;
+
+/**
+ * This class holds a synthetic sensor network. The nodes are numbered from 0
+ * to n-1, node i has address i+1 so that node 0 is the sink 0.1, and each node
+ * knows the RSSI of the beacons of its neighbors. The network reaches the
+ * controller as the SDN_WISE_REPORT packets of its nodes.
+ * <p>
+ * Like a real node, a node reports at most {@link #MAX_NEIGHBORS} neighbors,
+ * the ones with the strongest signal. In a star larger than that, the center
+ * hears only part of the leaves.
+ * <p>
+ * A real topology can be captured from a running controller by writing the
+ * graph of a network, {@code networkGraph.getGraph(netId).write("topology.dgs")}
+ * while holding the lock of its partition, and loaded into a NetworkGraph with
+ * {@link #read(NetworkGraph, String)}.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class Topology {
+
+    /**
+     * The network id of the nodes.
+     */
+    public static final int NET_ID = 1;
+
+    /**
+     * The maximum number of neighbors in a report.
+     */
+    public static final int MAX_NEIGHBORS = (Packets.MAX_LENGTH
+            - NetworkPacket.SDN_WISE_DFLT_HDR_LEN - 3) / 3;
+
+    private final int[] battery;
+    private final int[][] neighbors;
+    private final int[][] rssi;
+
+    private Topology(int n, Random random, List<List<int[]>> links) {
+        battery = new int[n];
+        neighbors = new int[n][];
+        rssi = new int[n][];
+        for (int i = 0; i < n; i++) {
+            battery[i] = 128 + random.nextInt(128);
+            List<int[]> heard = links.get(i);
+            heard.sort((a, b) -> Integer.compare(b[1], a[1]));
+            int count = Math.min(heard.size(), MAX_NEIGHBORS);
+            neighbors[i] = new int[count];
+            rssi[i] = new int[count];
+            for (int k = 0; k < count; k++) {
+                neighbors[i][k] = heard.get(k)[0];
+                rssi[i][k] = heard.get(k)[1];
+            }
+        }
+    }
+
+    /**
+     * Creates a topology given the name of its shape.
+     *
+     * @param shape one of grid, random, line and star
+     * @param n the number of nodes
+     * @param seed the seed of the random generator
+     * @return the topology
+     */
+    public static Topology create(String shape, int n, long seed) {
+        switch (shape) {
+            case "grid":
+                return grid(n, seed);
+            case "random":
+                return randomGeometric(n, seed);
+            case "line":
+                return line(n, seed);
+            case "star":
+                return star(n, seed);
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+
+    /**
+     * Creates a square grid, where each node hears the nodes above, below, on
+     * the left and on the right. The sink is in a corner.
+     *
+     * @param n the number of nodes
+     * @param seed the seed of the random generator
+     * @return the topology
+     */
+    public static Topology grid(int n, long seed) {
+        Random random = new Random(seed);
+        List<List<int[]>> links = empty(n);
+        int side = (int) Math.ceil(Math.sqrt(n));
+        for (int i = 0; i < n; i++) {
+            if ((i + 1) % side != 0 && i + 1 < n) {
+                link(links, i, i + 1, random);
+            }
+            if (i + side < n) {
+                link(links, i, i + side, random);
+            }
+        }
+        return new Topology(n, random, links);
+    }
+
+    /**
+     * Creates a random geometric graph: the nodes are placed at random in a
+     * square and each pair of nodes closer than the radio range hear each
+     * other. The range is chosen to have about 8 neighbors for each node, and
+     * the RSSI decreases with the distance.
+     *
+     * @param n the number of nodes
+     * @param seed the seed of the random generator
+     * @return the topology
+     */
+    public static Topology randomGeometric(int n, long seed) {
+        Random random = new Random(seed);
+        List<List<int[]>> links = empty(n);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+        }
+        double range = Math.sqrt(8 / (Math.PI * n));
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double d = Math.hypot(x[i] - x[j], y[i] - y[j]);
+                if (d < range) {
+                    int r = 254 - (int) (d / range * 80) - random.nextInt(20);
+                    links.get(i).add(new int[]{j, r});
+                    links.get(j).add(new int[]{i, r});
+                }
+            }
+        }
+        return new Topology(n, random, links);
+    }
+
+    /**
+     * Creates a line of nodes, with the sink at one end.
+     *
+     * @param n the number of nodes
+     * @param seed the seed of the random generator
+     * @return the topology
+     */
+    public static Topology line(int n, long seed) {
+        Random random = new Random(seed);
+        List<List<int[]>> links = empty(n);
+        for (int i = 0; i + 1 < n; i++) {
+            link(links, i, i + 1, random);
+        }
+        return new Topology(n, random, links);
+    }
+
+    /**
+     * Creates a star, with the sink in the center.
+     *
+     * @param n the number of nodes
+     * @param seed the seed of the random generator
+     * @return the topology
+     */
+    public static Topology star(int n, long seed) {
+        Random random = new Random(seed);
+        List<List<int[]>> links = empty(n);
+        for (int i = 1; i < n; i++) {
+            link(links, 0, i, random);
+        }
+        return new Topology(n, random, links);
+    }
+
+    /**
+     * Reads a topology written by GraphStream and sends it to a NetworkGraph
+     * as the reports of its nodes, so that the NetworkGraph builds its
+     * partitions and snapshots as it does for a real network. The id of a
+     * node is its netId followed by its address, each link entering a node
+     * becomes a neighbor of its report and the length of the link becomes the
+     * RSSI. Like a real node, a node reports at most {@link #MAX_NEIGHBORS}
+     * neighbors, the closest ones.
+     *
+     * @param networkGraph the NetworkGraph to update
+     * @param fileName the name of the file, in any format known by GraphStream
+     * @throws IOException if the file can not be read
+     */
+    public static void read(NetworkGraph networkGraph, String fileName)
+            throws IOException {
+        Graph graph = new MultiGraph("topology");
+        try {
+            graph.read(fileName);
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+        for (Node node : graph) {
+            List<int[]> heard = new ArrayList<>();
+            for (Edge e : node.getEachEnteringEdge()) {
+                Node other = e.getOpposite(node);
+                int length = e.hasNumber("length")
+                        ? (int) e.getNumber("length") : 0;
+                heard.add(new int[]{address(other).intValue(),
+                    Math.max(0, Math.min(255, 255 - length))});
+            }
+            heard.sort((a, b) -> Integer.compare(b[1], a[1]));
+            int count = Math.min(heard.size(), MAX_NEIGHBORS);
+            int[] addresses = new int[count];
+            int[] rssi = new int[count];
+            for (int k = 0; k < count; k++) {
+                addresses[k] = heard.get(k)[0];
+                rssi[k] = heard.get(k)[1];
+            }
+            String id = node.getId();
+            int battery = node.hasNumber("battery")
+                    ? (int) node.getNumber("battery") : 255;
+            networkGraph.updateMap(new ReportPacket(Packets.report(
+                    Integer.parseInt(id.substring(0, id.indexOf('.'))),
+                    address(node).intValue(), 1, battery, addresses, rssi)));
+        }
+    }
+
+    private static NodeAddress address(Node node) {
+        String id = node.getId();
+        return new NodeAddress(id.substring(id.indexOf('.') + 1));
+    }
+
+    /**
+     * Returns the address of a node.
+     *
+     * @param node the index of the node
+     * @return the address of the node
+     */
+    public static NodeAddress address(int node) {
+        return new NodeAddress(node + 1);
+    }
+
+    /**
+     * Returns the id of a node in the NetworkGraph.
+     *
+     * @param node the index of the node
+     * @return the id of the node, in the form netId.address
+     */
+    public static String id(int node) {
+        return NET_ID + "." + address(node);
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return battery.length;
+    }
+
+    /**
+     * Returns the initial battery level of a node.
+     *
+     * @param node the index of the node
+     * @return the battery level
+     */
+    public int getBattery(int node) {
+        return battery[node];
+    }
+
+    /**
+     * Returns the neighbors heard by a node, the strongest first. The array
+     * is shared and must not be modified.
+     *
+     * @param node the index of the node
+     * @return the indexes of the neighbors
+     */
+    public int[] getNeighbors(int node) {
+        return neighbors[node];
+    }
+
+    /**
+     * Returns the RSSI of the neighbors heard by a node, in the same order of
+     * {@link #getNeighbors(int)}. The array is shared and must not be
+     * modified.
+     *
+     * @param node the index of the node
+     * @return the RSSI of each neighbor
+     */
+    public int[] getRssi(int node) {
+        return rssi[node];
+    }
+
+    /**
+     * Encodes the report of a node.
+     *
+     * @param node the index of the node
+     * @return the bytes of the SDN_WISE_REPORT packet
+     */
+    public byte[] report(int node) {
+        return report(node, 0);
+    }
+
+    /**
+     * Encodes the report of a node with all the RSSI values lowered by the
+     * same amount, so that the links look longer.
+     *
+     * @param node the index of the node
+     * @param delta the amount subtracted from the RSSI
+     * @return the bytes of the SDN_WISE_REPORT packet
+     */
+    public byte[] report(int node, int delta) {
+        int[] addresses = new int[neighbors[node].length];
+        int[] weights = new int[addresses.length];
+        for (int k = 0; k < addresses.length; k++) {
+            addresses[k] = neighbors[node][k] + 1;
+            weights[k] = Math.max(1, rssi[node][k] - delta);
+        }
+        return Packets.report(NET_ID, node + 1, 1, battery[node], addresses,
+                weights);
+    }
+
+    /**
+     * Encodes a routing request from a node to another one.
+     *
+     * @param src the index of the source node
+     * @param dst the index of the destination node
+     * @return the bytes of the SDN_WISE_DATA packet with the request flag
+     */
+    public byte[] request(int src, int dst) {
+        return Packets.request(NET_ID, src + 1, dst + 1);
+    }
+
+    /**
+     * Sends the reports of all the nodes to a NetworkGraph.
+     *
+     * @param networkGraph the NetworkGraph to update
+     */
+    public void load(NetworkGraph networkGraph) {
+        for (int i = 0; i < size(); i++) {
+            networkGraph.updateMap(new ReportPacket(report(i)));
+        }
+    }
+
+    /**
+     * Returns the nodes which are at most a number of hops away from the sink.
+     * Paths longer than that do not fit in a SDN_WISE_OPEN_PATH packet.
+     *
+     * @param maxHops the maximum number of hops
+     * @return the indexes of the nodes, sink excluded
+     */
+    public int[] near(int maxHops) {
+        int[] hops = new int[size()];
+        Arrays.fill(hops, -1);
+        hops[0] = 0;
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        List<Integer> found = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            int u = queue.poll();
+            if (u != 0) {
+                found.add(u);
+            }
+            if (hops[u] == maxHops) {
+                continue;
+            }
+            for (int v : neighbors[u]) {
+                if (hops[v] < 0) {
+                    hops[v] = hops[u] + 1;
+                    queue.add(v);
+                }
+            }
+        }
+        int[] nodes = new int[found.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = found.get(i);
+        }
+        return nodes;
+    }
+
+    private static List<List<int[]>> empty(int n) {
+        List<List<int[]>> links = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            links.add(new ArrayList<>());
+        }
+        return links;
+    }
+
+    private static void link(List<List<int[]>> links, int a, int b,
+            Random random) {
+        int r = 180 + random.nextInt(70);
+        links.get(a).add(new int[]{b, r});
+        links.get(b).add(new int[]{a, r});
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.topology;
+
+/**
+ * This class holds the last battery levels reported by a node in a ring
+ * buffer and fits a line through them with the least squares method, so that
+ * the drain rate of the node and the time its battery will be depleted can be
+ * estimated.
+ * <p>
+ * The sums of the regression are updated when a sample enters and when a
+ * sample leaves the buffer, so each report costs O(1). The times are stored as
+ * seconds from a base time which is moved to the oldest sample once every
+ * window samples, recomputing the sums, so the numbers stay small and the
+ * rounding errors do not pile up.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+final class BatteryHistory {
+
+    private static final double HOUR = 3600;
+
+    private final float[] times;
+    private final byte[] levels;
+    private int size;
+    private int next;
+    private int sinceRebase;
+    private long base;
+    private long last;
+    private double sx, sy, sxx, sxy;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param window the number of samples kept
+     */
+    BatteryHistory(int window) {
+        times = new float[Math.max(2, window)];
+        levels = new byte[times.length];
+    }
+
+    /**
+     * Adds a battery level reported by the node. The oldest sample leaves the
+     * buffer if it is full.
+     *
+     * @param time the time of the report in milliseconds
+     * @param battery the battery level, from 0 to 255
+     */
+    void add(long time, int battery) {
+        if (size == 0) {
+            base = time;
+        }
+        if (size == times.length) {
+            double x = times[next];
+            double y = levels[next] & 0xFF;
+            sx -= x;
+            sy -= y;
+            sxx -= x * x;
+            sxy -= x * y;
+            size--;
+        }
+        float x = (time - base) / 1000f;
+        times[next] = x;
+        levels[next] = (byte) battery;
+        sx += x;
+        sy += battery;
+        sxx += (double) x * x;
+        sxy += (double) x * battery;
+        next = (next + 1) % times.length;
+        size++;
+        last = time;
+        if (++sinceRebase >= times.length) {
+            rebase();
+        }
+    }
+
+    /**
+     * Moves the base time to the oldest sample and recomputes the sums.
+     */
+    private void rebase() {
+        int oldest = (next - size + times.length) % times.length;
+        float shift = times[oldest];
+        base += (long) (shift * 1000);
+        sx = sy = sxx = sxy = 0;
+        for (int i = 0; i < size; i++) {
+            int k = (oldest + i) % times.length;
+            times[k] -= shift;
+            double x = times[k];
+            double y = levels[k] & 0xFF;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        sinceRebase = 0;
+    }
+
+    /**
+     * Returns the number of samples in the buffer.
+     *
+     * @return the number of samples
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the drain rate of the node, that is the opposite of the slope
+     * of the line fitted through the samples.
+     *
+     * @return the battery levels lost per hour, negative if the battery is
+     * being recharged, 0 with less than two samples
+     */
+    double getDrain() {
+        double var = size * sxx - sx * sx;
+        if (size < 2 || var <= 0) {
+            return 0;
+        }
+        return -(size * sxy - sx * sy) / var * HOUR;
+    }
+
+    /**
+     * Returns the time when the battery will be depleted, where the fitted
+     * line reaches zero.
+     *
+     * @return the time in milliseconds, Long.MAX_VALUE if the battery is not
+     * draining
+     */
+    long getDepletion() {
+        double drain = getDrain();
+        if (drain <= 0) {
+            return Long.MAX_VALUE;
+        }
+        // the fitted level at the last sample, then the time to reach zero
+        double x = (last - base) / 1000.0;
+        double level = (sy - drain / HOUR * (x * size - sx)) / size;
+        return last + (long) (Math.max(0, level) / drain * HOUR * 1000);
+    }
+}
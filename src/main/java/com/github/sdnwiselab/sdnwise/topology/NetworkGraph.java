@@ -18,9 +18,15 @@ package com.github.sdnwiselab.sdnwise.topology;
 
 import com.github.sdnwiselab.sdnwise.packet.ReportPacket;
 import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.graphstream.graph.Edge;
 import org.graphstream.graph.Graph;
 import org.graphstream.graph.Node;
@@ -30,17 +36,35 @@ import org.graphstream.graph.implementations.MultiGraph;
  * This class holds a org.graphstream.graph.Graph object which represent the
  * topology of the wireless sensor network. The method updateMap is invoked when
  * a message with topology updates is sent to the controller.
+ * <p>
+ * Paths never cross two networks with different netIds, so each network is
+ * kept in its own Partition, with its own graph, lock and version. A report
+ * of a network locks and changes only its partition, apart from the removal
+ * of the expired nodes of the other networks, and the observers are notified
+ * with the netId of the network that changed.
+ * <p>
+ * The last battery levels reported by each node are kept in a BatteryHistory,
+ * and the estimated drain rate, in battery levels per hour, and depletion
+ * time, in milliseconds, are stored in the "drain" and "depletion" attributes
+ * of the node, where routing and the snapshots read them.
+ * <p>
+ * The lengths reported for a link can be smoothed with an exponentially
+ * weighted moving average, kept in the "smoothedLength" attribute of the
+ * link, so that the noise of the RSSI does not change the length of the link,
+ * and the version of the topology, at every report.
  *
  * @author Sebastiano Milardo
  * @version 0.1
  */
 public class NetworkGraph extends Observable {
 
-    final Graph graph;
-    private long lastModification;
+    private final Map<Integer, Partition> partitions = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastModification = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong updates = new AtomicLong();
     private final int timeout;
     final int rssiResolution;
-    private long lastCheck;
+    private volatile int batteryWindow = 16;
+    private volatile double rssiSmoothing = 1;
 
     /**
      * This constructor returns the NetworkGraph object. It requires a time to
@@ -52,39 +76,203 @@ public class NetworkGraph extends Observable {
      * @param rssiResolution the RSSI resolution
      */
     public NetworkGraph(int timeout, int rssiResolution) {
-        this.graph = new MultiGraph("SDN-WISE Network");
-        this.lastModification = Long.MIN_VALUE;
         this.rssiResolution = rssiResolution;
         this.timeout = timeout;
-        this.lastCheck = System.currentTimeMillis();
-        graph.setAutoCreate(true);
-        graph.setStrict(false);
     }
 
     /**
-     * Returns the last time instant when the NetworkGraph was updated.
+     * Returns the time to live of a node which does not report.
+     *
+     * @return the timeout in seconds
+     */
+    public final int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets how many battery levels of each node are used to estimate its
+     * drain rate. It applies to the nodes reporting for the first time.
+     *
+     * @param batteryWindow the number of reports kept, 16 by default
+     */
+    public final void setBatteryWindow(int batteryWindow) {
+        this.batteryWindow = batteryWindow;
+    }
+
+    /**
+     * Sets the weight of a new report in the moving average of the length of
+     * a link. A link changes only when the average moves more than the RSSI
+     * resolution from its length.
+     *
+     * @param rssiSmoothing a value in (0, 1], 1 by default, which means that
+     * the lengths are not smoothed
+     */
+    public final void setRssiSmoothing(double rssiSmoothing) {
+        if (rssiSmoothing <= 0 || rssiSmoothing > 1) {
+            throw new IllegalArgumentException("RSSI smoothing must be in (0, 1]");
+        }
+        this.rssiSmoothing = rssiSmoothing;
+    }
+
+    /**
+     * Returns the last time instant when the NetworkGraph was updated. It does
+     * not take any lock, so it can be polled freely to know if a copy of the
+     * topology is still up to date. It changes when any network changes.
      *
      * @return a long representing the last time instant when the NetworkGraph
      * was updated
      */
-    public final synchronized long getLastModification() {
-        return lastModification;
+    public final long getLastModification() {
+        return lastModification.get();
+    }
+
+    /**
+     * Returns the number of reports applied to the NetworkGraph. Unlike
+     * getLastModification(), it changes also when a report changes only the
+     * battery levels. It does not take any lock.
+     *
+     * @return the number of reports applied
+     */
+    public final long getUpdateCount() {
+        return updates.get();
+    }
+
+    /**
+     * Returns the version of a network. It changes only when that network
+     * changes.
+     *
+     * @param netId the network id
+     * @return the version of the network, Long.MIN_VALUE if the network is
+     * unknown
+     */
+    public final long getLastModification(int netId) {
+        Partition p = partitions.get(netId);
+        return p == null ? Long.MIN_VALUE : p.version;
+    }
+
+    /**
+     * Returns an immutable copy of the current topology of all the networks
+     * that can be read without holding any lock. Each network is copied
+     * holding its own lock, one after the other.
+     *
+     * @return a TopologySnapshot of the current version of the graph
+     */
+    public final TopologySnapshot getSnapshot() {
+        long version = lastModification.get();
+        List<TopologySnapshot> parts = new ArrayList<>(partitions.size());
+        for (Partition p : partitions.values()) {
+            synchronized (p) {
+                parts.add(new TopologySnapshot(p.graph, p.version));
+            }
+        }
+        return new TopologySnapshot(parts, version);
+    }
+
+    /**
+     * Returns an immutable copy of the current topology of a network.
+     *
+     * @param netId the network id
+     * @return a TopologySnapshot of the network, its version is the version
+     * of the network
+     */
+    public final TopologySnapshot getSnapshot(int netId) {
+        Partition p = partitions.get(netId);
+        if (p == null) {
+            return new TopologySnapshot(new ArrayList<>(), Long.MIN_VALUE);
+        }
+        synchronized (p) {
+            return new TopologySnapshot(p.graph, p.version);
+        }
     }
 
     /**
-     * This method gets the Graph contained in the NetworkGraph
+     * Returns the partition of a network.
      *
-     * @return returns a Graph object
+     * @param netId the network id
+     * @return the partition, null if no report of the network has been
+     * received
+     */
+    public final Partition getPartition(int netId) {
+        return partitions.get(netId);
+    }
+
+    /**
+     * Returns the network ids of the known networks. A network whose nodes
+     * have all expired is not returned.
+     *
+     * @return the network ids in ascending order
+     */
+    public final Set<Integer> getNetIds() {
+        Set<Integer> netIds = new TreeSet<>();
+        for (Partition p : partitions.values()) {
+            if (p.graph.getNodeCount() > 0) {
+                netIds.add(p.netId);
+            }
+        }
+        return netIds;
+    }
+
+    /**
+     * This method gets the Graph of a network. The graph must be read holding
+     * the lock of its partition.
+     *
+     * @param netId the network id
+     * @return returns a Graph object, null if the network is unknown
+     */
+    public Graph getGraph(int netId) {
+        Partition p = partitions.get(netId);
+        return p == null ? null : p.graph;
+    }
+
+    /**
+     * This method gets the Graph of the network with the lowest netId, which
+     * is the whole topology when the controller manages a single network.
+     *
+     * @return returns a Graph object, an empty graph not bound to any network
+     * if no report has been received
      */
     public Graph getGraph() {
-        return graph;
+        for (Partition p : partitions.values()) {
+            return p.graph;
+        }
+        return new MultiGraph("SDN-WISE Network");
     }
 
-    final boolean checkConsistency(long now) {
+    /**
+     * Returns the number of nodes of all the networks.
+     *
+     * @return the number of nodes
+     */
+    public final int getNodeCount() {
+        int n = 0;
+        for (Partition p : partitions.values()) {
+            n += p.graph.getNodeCount();
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of links of all the networks.
+     *
+     * @return the number of links
+     */
+    public final int getEdgeCount() {
+        int n = 0;
+        for (Partition p : partitions.values()) {
+            n += p.graph.getEdgeCount();
+        }
+        return n;
+    }
+
+    private Partition partition(int netId) {
+        return partitions.computeIfAbsent(netId, Partition::new);
+    }
+
+    final boolean checkConsistency(Partition p, long now) {
         boolean modified = false;
-        if (now - lastCheck > (timeout * 1000L)) {
-            lastCheck = now;
-            for (Node n : graph) {
+        if (now - p.lastCheck > (timeout * 1000L)) {
+            p.lastCheck = now;
+            for (Node n : new ArrayList<Node>(p.graph.getNodeSet())) {
                 if (n.getAttribute("lastSeen", Long.class) != null) {
                     if (!isAlive(timeout, (long) n.getNumber("lastSeen"), now)) {
                         removeNode(n);
@@ -96,95 +284,249 @@ public class NetworkGraph extends Observable {
         return modified;
     }
 
+    /**
+     * Removes the expired nodes of the networks other than the one of a
+     * report, each holding the lock of its own partition, so that a network
+     * whose nodes stopped reporting is pruned too.
+     *
+     * @param current the partition of the report, checked by updateMap
+     * @param now the current time in milliseconds
+     */
+    private void checkOthers(Partition current, long now) {
+        for (Partition p : partitions.values()) {
+            if (p == current || now - p.lastCheck <= timeout * 1000L) {
+                continue;
+            }
+            boolean modified;
+            synchronized (p) {
+                modified = checkConsistency(p, now);
+                if (modified) {
+                    p.version++;
+                    lastModification.incrementAndGet();
+                }
+            }
+            if (modified) {
+                changed(p.netId);
+            }
+        }
+    }
+
     /**
      * This method is invoked when a message with topology updates is received
      * by the controller. It updates the network topology according to the
      * message and checks if all the nodes in the network are still alive.
+     * Only the partition of the network of the packet is locked.
      *
      * @param packet the NetworkPacket received
      */
-    public final synchronized void updateMap(ReportPacket packet) {
+    public final void updateMap(ReportPacket packet) {
+        updateMap(packet, System.currentTimeMillis());
+    }
 
-        long now = System.currentTimeMillis();
-        boolean modified = checkConsistency(now);
+    /**
+     * Same as updateMap(ReportPacket), for a report received at a given
+     * time, such as a report forwarded by another controller. The nodes are
+     * stamped with that time, so an old report does not keep a node alive
+     * longer than its TIMEOUT, and a report older than the last one applied
+     * for the same node is ignored, so it does not undo a newer topology.
+     *
+     * @param packet the NetworkPacket received
+     * @param time the time the report was received, in milliseconds
+     */
+    public final void updateMap(ReportPacket packet, long time) {
 
+        long now = System.currentTimeMillis();
         int netId = packet.getNetId();
-        int batt = packet.getBatt();
-        String nodeId = packet.getSrc().toString();
-        String fullNodeId = netId + "." + nodeId;
-        NodeAddress addr = packet.getSrc();
-
-        Node node = getNode(fullNodeId);
-
-        if (node == null) {
-            node = addNode(fullNodeId);
-            setupNode(node, batt, now, netId, addr);
-
-            for (int i = 0; i < packet.getNeigh(); i++) {
-                NodeAddress otheraddr = packet.getNeighbourAddress(i);
-                //System.out.println(otheraddr); mostra os ID dos vizinhos
-                String other = netId + "." + otheraddr.toString();
-                if (getNode(other) == null) {
-                    Node tmp = addNode(other);
-                    setupNode(tmp, 0, now, netId, otheraddr);
-                }
-
-                int newLen = 255 - packet.getNeighbourWeight(i);
-                //System.out.println(packet.getNeighbourWeight(i)); O peso é setado como (-1)
-                String edgeId = other + "-" + fullNodeId;
-                Edge edge = addEdge(edgeId, other, node.getId(), true);
-                setupEdge(edge, newLen);
-            }
-            modified = true;
-
-        } else {
-            updateNode(node, batt, now);
-            Set<Edge> oldEdges = new HashSet<>();
-            for (Edge e : node.getEnteringEdgeSet()) {
-                oldEdges.add(e);
-            }
+        Partition p = partition(netId);
+        boolean modified;
+        checkOthers(p, now);
+
+        synchronized (p) {
+            modified = checkConsistency(p, now);
+            Graph graph = p.graph;
+
+            int batt = packet.getBatt();
+            String nodeId = packet.getSrc().toString();
+            String fullNodeId = netId + "." + nodeId;
+            NodeAddress addr = packet.getSrc();
+
+            Node node = graph.getNode(fullNodeId);
+
+            Long lastReport = node == null ? null
+                    : node.getAttribute("lastReport", Long.class);
+            boolean stale = lastReport != null && time < lastReport;
+
+            if (!stale) {
+                if (node == null) {
+                    node = addNode(graph, fullNodeId);
+                    setupNode(node, batt, time, netId, addr);
+                    recordBattery(node, batt, time);
+
+                    for (int i = 0; i < packet.getNeigh(); i++) {
+                        NodeAddress otheraddr = packet.getNeighbourAddress(i);
+                        //System.out.println(otheraddr); mostra os ID dos vizinhos
+                        String other = netId + "." + otheraddr.toString();
+                        if (graph.getNode(other) == null) {
+                            Node tmp = addNode(graph, other);
+                            setupNode(tmp, 0, time, netId, otheraddr);
+                        }
+
+                        int newLen = 255 - packet.getNeighbourWeight(i);
+                        //System.out.println(packet.getNeighbourWeight(i)); O peso é setado como (-1)
+                        String edgeId = other + "-" + fullNodeId;
+                        Edge edge = addEdge(graph, edgeId, other, node.getId(), true);
+                        setupEdge(edge, newLen);
+                    }
+                    modified = true;
 
-            for (int i = 0; i < packet.getNeigh(); i++) {
-                NodeAddress otheraddr = packet.getNeighbourAddress(i);
-                String other = netId + "." + otheraddr.toString();
-                if (getNode(other) == null) {
-                    Node tmp = addNode(other);
-                    setupNode(tmp, 0, now, netId, otheraddr);
-                }
+                } else {
+                    updateNode(node, batt, time);
+                    recordBattery(node, batt, time);
+                    Set<Edge> oldEdges = new HashSet<>();
+                    for (Edge e : node.getEnteringEdgeSet()) {
+                        oldEdges.add(e);
+                    }
 
-                int newLen = 255 - packet.getNeighbourWeight(i);
+                    for (int i = 0; i < packet.getNeigh(); i++) {
+                        NodeAddress otheraddr = packet.getNeighbourAddress(i);
+                        String other = netId + "." + otheraddr.toString();
+                        if (graph.getNode(other) == null) {
+                            Node tmp = addNode(graph, other);
+                            setupNode(tmp, 0, time, netId, otheraddr);
+                        }
+
+                        int newLen = 255 - packet.getNeighbourWeight(i);
+
+                        String edgeId = other + "-" + fullNodeId;
+                        Edge edge = graph.getEdge(edgeId);
+                        if (edge != null) {
+                            oldEdges.remove(edge);
+                            int oldLen = edge.getAttribute("length");
+                            int smoothed = smooth(edge, oldLen, newLen);
+                            if (Math.abs(oldLen - smoothed) > rssiResolution) {
+                                updateEdge(edge, smoothed);
+                                modified = true;
+                            }
+                        } else {
+                            Edge tmp = addEdge(graph, edgeId, other, node.getId(), true);
+                            setupEdge(tmp, newLen);
+                            modified = true;
+                        }
+                    }
 
-                String edgeId = other + "-" + fullNodeId;
-                Edge edge = getEdge(edgeId);
-                if (edge != null) {
-                    oldEdges.remove(edge);
-                    int oldLen = edge.getAttribute("length");
-                    if (Math.abs(oldLen - newLen) > rssiResolution) {
-                        updateEdge(edge, newLen);
+                    if (!oldEdges.isEmpty()) {
+                        for (Edge e : oldEdges) {
+                            removeEdge(e);
+                        }
                         modified = true;
                     }
-                } else {
-                    Edge tmp = addEdge(edgeId, other, node.getId(), true);
-                    setupEdge(tmp, newLen);
-                    modified = true;
                 }
+                node.addAttribute("lastReport", time);
             }
+            //print the battery level of each node in the path
+            //System.out.println("Node: " + node.getId() + " Battery: " + node.getAttribute("battery"));       
 
-            if (!oldEdges.isEmpty()) {
-                for (Edge e : oldEdges) {
-                    removeEdge(e);
-                }
-                modified = true;
+            if (modified) {
+                p.version++;
+                lastModification.incrementAndGet();
             }
+            updates.incrementAndGet();
         }
-            //print the battery level of each node in the path
-            //System.out.println("Node: " + node.getId() + " Battery: " + node.getAttribute("battery"));       
 
         if (modified) {
-            lastModification++;
-            setChanged();
-            notifyObservers();
+            changed(netId);
+        }
+    }
+
+    /**
+     * Notifies the observers that a network changed. Observable keeps a single
+     * changed flag, so setting and clearing it must be done atomically or the
+     * change of a network could be lost when another network changes at the
+     * same time.
+     *
+     * @param netId the network id
+     */
+    private synchronized void changed(int netId) {
+        setChanged();
+        notifyObservers(netId);
+    }
+
+    /**
+     * Adds a reported length to the moving average of a link.
+     *
+     * @param edge the link
+     * @param oldLen the current length of the link
+     * @param newLen the reported length
+     * @return the average, rounded
+     */
+    private int smooth(Edge edge, int oldLen, int newLen) {
+        double alpha = rssiSmoothing;
+        if (alpha == 1) {
+            return newLen;
         }
+        Object last = edge.getAttribute("smoothedLength");
+        double average = last == null ? oldLen : (double) last;
+        average += alpha * (newLen - average);
+        edge.addAttribute("smoothedLength", average);
+        return (int) Math.round(average);
+    }
+
+    /**
+     * Returns the drain rate of a node estimated from its last reports.
+     *
+     * @param id the id of the node, in the form netId.address
+     * @return the battery levels lost per hour, 0 if the node is unknown or
+     * has reported only once
+     */
+    public final double getDrainRate(String id) {
+        Partition p = partitionOf(id);
+        if (p == null) {
+            return 0;
+        }
+        synchronized (p) {
+            BatteryHistory history = getBatteryHistory(p, id);
+            return history == null ? 0 : history.getDrain();
+        }
+    }
+
+    /**
+     * Returns the time when the battery of a node is expected to be
+     * depleted, estimated from its last reports.
+     *
+     * @param id the id of the node, in the form netId.address
+     * @return the time in milliseconds, Long.MAX_VALUE if the node is unknown
+     * or its battery is not draining
+     */
+    public final long getDepletionTime(String id) {
+        Partition p = partitionOf(id);
+        if (p == null) {
+            return Long.MAX_VALUE;
+        }
+        synchronized (p) {
+            BatteryHistory history = getBatteryHistory(p, id);
+            return history == null ? Long.MAX_VALUE : history.getDepletion();
+        }
+    }
+
+    private static BatteryHistory getBatteryHistory(Partition p, String id) {
+        Node node = p.graph.getNode(id);
+        return node == null ? null : node.getAttribute("batteryHistory");
+    }
+
+    /**
+     * Adds the battery level of a report to the history of the node and
+     * updates its estimates. It is called holding the lock of the partition
+     * of the node.
+     */
+    final void recordBattery(Node node, int batt, long now) {
+        BatteryHistory history = node.getAttribute("batteryHistory");
+        if (history == null) {
+            history = new BatteryHistory(batteryWindow);
+            node.addAttribute("batteryHistory", history);
+        }
+        history.add(now, batt);
+        node.addAttribute("drain", history.getDrain());
+        node.addAttribute("depletion", history.getDepletion());
     }
 
     final boolean isAlive(long threashold, long lastSeen, long now) {
@@ -211,21 +553,21 @@ public class NetworkGraph extends Observable {
         edge.addAttribute("length", newLen);
     }
 
-    <T extends Node> T addNode(String id) {
+    <T extends Node> T addNode(Graph graph, String id) {
         return graph.addNode(id);
     }
 
-    <T extends Edge> T addEdge(String id, String from, String to,
+    <T extends Edge> T addEdge(Graph graph, String id, String from, String to,
             boolean directed) {
         return graph.addEdge(id, from, to, directed);
     }
 
     <T extends Edge> T removeEdge(Edge edge) {
-        return graph.removeEdge(edge);
+        return edge.getSourceNode().getGraph().removeEdge(edge);
     }
 
     <T extends Node> T removeNode(Node node) {
-        return graph.removeNode(node);
+        return node.getGraph().removeNode(node);
     }
 
     /**
@@ -236,7 +578,8 @@ public class NetworkGraph extends Observable {
      * @return
      */
     public <T extends Node> T getNode(String id) {
-        return graph.getNode(id);
+        Graph graph = graphOf(id);
+        return graph == null ? null : graph.<T>getNode(id);
     }
 
     /**
@@ -247,7 +590,76 @@ public class NetworkGraph extends Observable {
      * @return
      */
     public <T extends Edge> T getEdge(String id) {
-        return graph.getEdge(id);
+        Graph graph = graphOf(id);
+        return graph == null ? null : graph.<T>getEdge(id);
+    }
+
+    /**
+     * Returns the graph holding a node or an edge, given its id which starts
+     * with the netId.
+     */
+    private Graph graphOf(String id) {
+        Partition p = partitionOf(id);
+        return p == null ? null : p.graph;
     }
 
+    private Partition partitionOf(String id) {
+        int dot = id.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            return partitions.get(Integer.parseInt(id.substring(0, dot)));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The topology of a single network. Its graph, version and consistency
+     * check are guarded by the lock of the partition itself.
+     */
+    public static final class Partition {
+
+        private final int netId;
+        private final Graph graph;
+        private volatile long version = Long.MIN_VALUE;
+        private volatile long lastCheck = System.currentTimeMillis();
+
+        Partition(int netId) {
+            this.netId = netId;
+            this.graph = new MultiGraph("SDN-WISE Network " + netId);
+            graph.setAutoCreate(true);
+            graph.setStrict(false);
+        }
+
+        /**
+         * Returns the network id of the partition.
+         *
+         * @return the netId
+         */
+        public int getNetId() {
+            return netId;
+        }
+
+        /**
+         * Returns the graph of the network. It must be read holding the lock
+         * of the partition.
+         *
+         * @return the graph
+         */
+        public Graph getGraph() {
+            return graph;
+        }
+
+        /**
+         * Returns the version of the network, which changes every time the
+         * topology of the network changes. It can be read without the lock.
+         *
+         * @return the version
+         */
+        public long getVersion() {
+            return version;
+        }
+    }
 }
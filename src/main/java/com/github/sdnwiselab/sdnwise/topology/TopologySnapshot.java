@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.topology;
+
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+
+/**
+ * This class holds an immutable copy of the topology of the network, taken
+ * from a NetworkGraph at a given version. Nodes are numbered from 0 to n-1 and
+ * the links leaving each node are stored in compact arrays, so that the
+ * snapshot can be read by several threads at the same time without locking
+ * the NetworkGraph.
+ * <p>
+ * A snapshot of many networks is made of the snapshots of each network, one
+ * after the other, and since no link joins two networks it can be read just
+ * like the snapshot of a single network.
+ * <p>
+ * The arrays returned by the getter methods are shared and must not be
+ * modified.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public final class TopologySnapshot {
+
+    private final long version;
+    private final String[] ids;
+    private final NodeAddress[] addresses;
+    private final int[] battery;
+    private final double[] drain;
+    private final long[] depletion;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] lengths;
+    private final Map<String, Integer> index;
+
+    TopologySnapshot(Graph graph, long version) {
+        int n = graph.getNodeCount();
+        this.version = version;
+        ids = new String[n];
+        addresses = new NodeAddress[n];
+        battery = new int[n];
+        drain = new double[n];
+        depletion = new long[n];
+        offsets = new int[n + 1];
+        index = new HashMap<>(n * 2);
+
+        int m = 0;
+        for (Node node : graph) {
+            int i = node.getIndex();
+            ids[i] = node.getId();
+            addresses[i] = node.getAttribute("nodeAddress");
+            Object batt = node.getAttribute("battery");
+            battery[i] = batt == null ? 0 : ((Number) batt).intValue();
+            Object rate = node.getAttribute("drain");
+            drain[i] = rate == null ? 0 : ((Number) rate).doubleValue();
+            Object end = node.getAttribute("depletion");
+            depletion[i] = end == null ? Long.MAX_VALUE : ((Number) end).longValue();
+            offsets[i + 1] = node.getOutDegree();
+            m += node.getOutDegree();
+            index.put(ids[i], i);
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+
+        targets = new int[m];
+        lengths = new int[m];
+        int[] next = new int[n];
+        System.arraycopy(offsets, 0, next, 0, n);
+        for (Node node : graph) {
+            int i = node.getIndex();
+            for (Edge e : node.getEachLeavingEdge()) {
+                int k = next[i]++;
+                targets[k] = e.getOpposite(node).getIndex();
+                lengths[k] = ((Number) e.getAttribute("length")).intValue();
+            }
+        }
+    }
+
+    TopologySnapshot(List<TopologySnapshot> parts, long version) {
+        int n = 0;
+        int m = 0;
+        for (TopologySnapshot part : parts) {
+            n += part.getNodeCount();
+            m += part.getEdgeCount();
+        }
+        this.version = version;
+        ids = new String[n];
+        addresses = new NodeAddress[n];
+        battery = new int[n];
+        drain = new double[n];
+        depletion = new long[n];
+        offsets = new int[n + 1];
+        targets = new int[m];
+        lengths = new int[m];
+        index = new HashMap<>(n * 2);
+
+        int first = 0;
+        int firstEdge = 0;
+        for (TopologySnapshot part : parts) {
+            int pn = part.getNodeCount();
+            System.arraycopy(part.ids, 0, ids, first, pn);
+            System.arraycopy(part.addresses, 0, addresses, first, pn);
+            System.arraycopy(part.battery, 0, battery, first, pn);
+            System.arraycopy(part.drain, 0, drain, first, pn);
+            System.arraycopy(part.depletion, 0, depletion, first, pn);
+            for (int i = 0; i < pn; i++) {
+                offsets[first + i + 1] = part.offsets[i + 1] + firstEdge;
+                index.put(ids[first + i], first + i);
+            }
+            for (int k = 0; k < part.targets.length; k++) {
+                targets[firstEdge + k] = part.targets[k] + first;
+            }
+            System.arraycopy(part.lengths, 0, lengths, firstEdge,
+                    part.lengths.length);
+            first += pn;
+            firstEdge += part.targets.length;
+        }
+    }
+
+    /**
+     * Returns the version of the NetworkGraph this snapshot was taken from.
+     *
+     * @return the value of getLastModification() at the time of the snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of nodes in the snapshot.
+     *
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the number of links in the snapshot.
+     *
+     * @return the number of links
+     */
+    public int getEdgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the index of a node given its id in the NetworkGraph.
+     *
+     * @param id the id of the node, in the form netId.address
+     * @return the index of the node, -1 if not found
+     */
+    public int indexOf(String id) {
+        Integer i = index.get(id);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Returns the id in the NetworkGraph of the node at the given index.
+     *
+     * @param node the index of the node
+     * @return the id of the node
+     */
+    public String getId(int node) {
+        return ids[node];
+    }
+
+    /**
+     * Returns the address of the node at the given index.
+     *
+     * @param node the index of the node
+     * @return the NodeAddress of the node
+     */
+    public NodeAddress getAddress(int node) {
+        return addresses[node];
+    }
+
+    /**
+     * Returns the battery levels of the nodes, indexed by node.
+     *
+     * @return the battery levels
+     */
+    public int[] getBattery() {
+        return battery;
+    }
+
+    /**
+     * Returns the drain rates of the nodes in battery levels per hour,
+     * indexed by node. The rate of a node is 0 when it is not known.
+     *
+     * @return the drain rates
+     */
+    public double[] getDrain() {
+        return drain;
+    }
+
+    /**
+     * Returns the times when the batteries of the nodes are expected to be
+     * depleted, indexed by node.
+     *
+     * @return the times in milliseconds, Long.MAX_VALUE for the nodes whose
+     * battery is not draining
+     */
+    public long[] getDepletion() {
+        return depletion;
+    }
+
+    /**
+     * Returns the offsets of the links leaving each node. The links leaving
+     * node i are stored between offsets[i] and offsets[i + 1] excluded.
+     *
+     * @return an array of n + 1 offsets
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Returns the index of the node at the end of each link.
+     *
+     * @return the targets of the links
+     */
+    public int[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * Returns the length of each link.
+     *
+     * @return the lengths of the links
+     */
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    /**
+     * Returns the length of the shortest link between two nodes.
+     *
+     * @param from the index of the first node
+     * @param to the index of the second node
+     * @return the length of the link, -1 if the nodes are not linked
+     */
+    public int getLength(int from, int to) {
+        int length = -1;
+        for (int k = offsets[from]; k < offsets[from + 1]; k++) {
+            if (targets[k] == to && (length < 0 || lengths[k] < length)) {
+                length = lengths[k];
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns the length of a path given as a sequence of node indexes.
+     *
+     * @param path the indexes of the nodes in the path
+     * @return the length of the path, -1 if two consecutive nodes are not
+     * linked
+     */
+    public long getPathLength(int[] path) {
+        long length = 0;
+        for (int i = 1; i < path.length; i++) {
+            int l = getLength(path[i - 1], path[i]);
+            if (l < 0) {
+                return -1;
+            }
+            length += l;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the lowest battery level among the nodes of a path.
+     *
+     * @param path the indexes of the nodes in the path
+     * @return the lowest battery level
+     */
+    public int getMinBattery(int[] path) {
+        int min = Integer.MAX_VALUE;
+        for (int node : path) {
+            min = Math.min(min, battery[node]);
+        }
+        return min;
+    }
+}
@@ -17,20 +17,54 @@
 package com.github.sdnwiselab.sdnwise.topology;
 
 import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
 import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.MultiGraph;
 
 /**
  * This class holds a org.graphstream.graph.Graph object which represent the
  * topology of the wireless sensor network. The method updateMap is invoked when
  * a message with topology updates is sent to the controller. This is a
  * graphical version of the NetworkGraph class.
+ * <p>
+ * The graph shown on the screen is a separate copy of the topology, so the
+ * viewer never works on the graph used by the controller. While updateMap
+ * runs, the changes of the nodes and of the links are only recorded; a
+ * renderer thread applies them to the displayed graph at most maxFps times per
+ * second, so many updates of the same node or link between two frames cost a
+ * single change of the display.
+ * <p>
+ * The battery level of the nodes and the quality of the links are divided in
+ * a few levels, each one drawn with a class defined in style.css. A change is
+ * recorded only when a node or a link moves to another level.
  *
  * @author Sebastiano Milardo
  * @version 0.1
  */
 public final class VisualNetworkGraph extends NetworkGraph {
 
+    private static final int BATTERY_LEVELS = 8;
+    private static final int LINK_LEVELS = 6;
+    private static final String[] BATTERY_CLASSES = classes("battery", BATTERY_LEVELS);
+    private static final String[] LINK_CLASSES = classes("link", LINK_LEVELS);
+
+    private final Graph display;
+    private final ScheduledExecutorService renderer;
+    private Map<String, NodeChange> nodeChanges = new LinkedHashMap<>();
+    private Map<String, EdgeChange> edgeChanges = new LinkedHashMap<>();
+    private final Map<String, Integer> nodeLevels = new HashMap<>();
+    private final Map<String, Integer> edgeLevels = new HashMap<>();
+    private final Object lock = new Object();
+
     /**
      * This constructor returns the VisualNetworkGraph object. It requires a
      * time to live for each node in the network and a value representing the
@@ -41,43 +75,231 @@ public final class VisualNetworkGraph extends NetworkGraph {
      * @param rssiResolution the RSSI resolution
      */
     public VisualNetworkGraph(int timeout, int rssiResolution) {
+        this(timeout, rssiResolution, 10);
+    }
+
+    /**
+     * This constructor returns the VisualNetworkGraph object, updating the
+     * displayed graph at most maxFps times per second.
+     *
+     * @param timeout the time to live for a node in seconds
+     * @param rssiResolution the RSSI resolution
+     * @param maxFps the maximum number of updates of the display per second
+     */
+    public VisualNetworkGraph(int timeout, int rssiResolution, int maxFps) {
         super(timeout, rssiResolution);
 
         System.setProperty("org.graphstream.ui.renderer",
                 "org.graphstream.ui.j2dviewer.J2DGraphRenderer");
-        graph.addAttribute("ui.quality");
-        graph.addAttribute("ui.antialias");
-        graph.addAttribute("ui.stylesheet",
+        display = new MultiGraph("SDN-WISE Network");
+        display.setAutoCreate(true);
+        display.setStrict(false);
+        display.addAttribute("ui.quality");
+        display.addAttribute("ui.antialias");
+        display.addAttribute("ui.stylesheet",
                 "url(" + this.getClass().getResource("/style.css") + ")");
-        graph.display(true);
+        display.display(true);
+
+        renderer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread th = new Thread(r, "GraphRenderer");
+            th.setDaemon(true);
+            return th;
+        });
+        long period = 1000L / Math.max(1, maxFps);
+        renderer.scheduleWithFixedDelay(this::render, period, period,
+                TimeUnit.MILLISECONDS);
     }
 
     @Override
     void setupNode(Node node, int batt, long now, int netId, NodeAddress addr) {
         super.setupNode(node, batt, now, netId, addr);
-        node.addAttribute("ui.label", node.getId());
-        node.changeAttribute("ui.style", "fill-color: rgb(0," + batt + ",0),rgb(0,0,0);");
+        synchronized (lock) {
+            NodeChange c = nodeChange(node.getId());
+            c.created = true;
+            c.removed = false;
+            c.level = batteryLevel(batt);
+            nodeLevels.put(node.getId(), c.level);
+        }
     }
 
     @Override
     void updateNode(Node node, int batt, long now) {
         super.updateNode(node, batt, now);
-        node.changeAttribute("ui.style", "fill-color: rgb(0," + batt + ",0),rgb(0,0,0);");
+        int level = batteryLevel(batt);
+        synchronized (lock) {
+            Integer old = nodeLevels.put(node.getId(), level);
+            if (old == null || old != level) {
+                nodeChange(node.getId()).level = level;
+            }
+        }
     }
 
     @Override
     void setupEdge(Edge edge, int newLen) {
         super.setupEdge(edge, newLen);
-        int w = 30 + Math.min((((Math.max(255 - newLen, 180)) - 180) * 3), 255);
-        edge.changeAttribute("ui.style", "fill-color: rgba(0,0,0," + w + ");");
-        edge.changeAttribute("ui.style", "arrow-shape: arrow;");
-        edge.changeAttribute("ui.style", "arrow-size: 5px,2px;");
+        recordEdge(edge, linkLevel(newLen), false, true);
     }
 
     @Override
     void updateEdge(Edge edge, int newLen) {
         super.updateEdge(edge, newLen);
-        int w = 30 + Math.min((((Math.max(255 - newLen, 180)) - 180) * 3), 255);
-        edge.changeAttribute("ui.style", "fill-color: rgba(0,0,0," + w + ");");
+        recordEdge(edge, linkLevel(newLen), false, false);
+    }
+
+    @Override
+    <T extends Edge> T removeEdge(Edge edge) {
+        recordEdge(edge, 0, true, true);
+        return super.removeEdge(edge);
+    }
+
+    @Override
+    <T extends Node> T removeNode(Node node) {
+        // the links of the node are removed with it without calling removeEdge
+        for (Edge e : node.getEachEdge()) {
+            recordEdge(e, 0, true, true);
+        }
+        synchronized (lock) {
+            nodeLevels.remove(node.getId());
+            NodeChange c = nodeChange(node.getId());
+            c.removed = true;
+            c.created = false;
+        }
+        return super.removeNode(node);
+    }
+
+    private NodeChange nodeChange(String id) {
+        NodeChange c = nodeChanges.get(id);
+        if (c == null) {
+            c = new NodeChange();
+            nodeChanges.put(id, c);
+        }
+        return c;
+    }
+
+    private void recordEdge(Edge edge, int level, boolean removed,
+            boolean always) {
+        synchronized (lock) {
+            String key = edge.getId();
+            if (removed) {
+                edgeLevels.remove(key);
+            } else {
+                Integer old = edgeLevels.put(key, level);
+                if (!always && old != null && old == level) {
+                    return;
+                }
+            }
+            EdgeChange c = edgeChanges.get(key);
+            if (c == null) {
+                c = new EdgeChange(edge.getSourceNode().getId(),
+                        edge.getTargetNode().getId());
+                edgeChanges.put(edge.getId(), c);
+            }
+            c.level = level;
+            c.removed = removed;
+        }
+    }
+
+    /**
+     * Applies the changes recorded since the last frame to the displayed
+     * graph. The nodes are updated before the links, a node created again
+     * after being removed is cleared of the links it had before.
+     */
+    private void render() {
+        Map<String, NodeChange> nodes;
+        Map<String, EdgeChange> edges;
+        synchronized (lock) {
+            if (nodeChanges.isEmpty() && edgeChanges.isEmpty()) {
+                return;
+            }
+            nodes = nodeChanges;
+            edges = edgeChanges;
+            nodeChanges = new LinkedHashMap<>();
+            edgeChanges = new LinkedHashMap<>();
+        }
+        try {
+            for (Map.Entry<String, NodeChange> e : nodes.entrySet()) {
+                String id = e.getKey();
+                NodeChange c = e.getValue();
+                Node node = display.getNode(id);
+                if ((c.removed || c.created) && node != null) {
+                    display.removeNode(node);
+                    node = null;
+                }
+                if (c.removed) {
+                    continue;
+                }
+                if (node == null) {
+                    node = display.addNode(id);
+                    node.addAttribute("ui.label", id);
+                }
+                if (c.level >= 0) {
+                    node.changeAttribute("ui.class", BATTERY_CLASSES[c.level]);
+                }
+            }
+            for (Map.Entry<String, EdgeChange> e : edges.entrySet()) {
+                String id = e.getKey();
+                EdgeChange c = e.getValue();
+                Edge edge = display.getEdge(id);
+                if (c.removed) {
+                    if (edge != null) {
+                        display.removeEdge(edge);
+                    }
+                    continue;
+                }
+                if (edge == null) {
+                    edge = display.addEdge(id, c.from, c.to, true);
+                }
+                edge.changeAttribute("ui.class", LINK_CLASSES[c.level]);
+            }
+        } catch (RuntimeException ex) {
+            // a broken frame must not stop the following ones
+            Logger.getLogger(VisualNetworkGraph.class.getName())
+                    .log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Returns the level of a battery, from 0 (empty) to BATTERY_LEVELS - 1.
+     */
+    static int batteryLevel(int batt) {
+        return Math.min(BATTERY_LEVELS - 1,
+                Math.max(0, batt) * BATTERY_LEVELS / 256);
+    }
+
+    /**
+     * Returns the quality of a link, from 0 for a RSSI up to 180 to
+     * LINK_LEVELS - 1 for the strongest links.
+     */
+    static int linkLevel(int length) {
+        int rssi = Math.min(255, Math.max(180, 255 - length));
+        return Math.min(LINK_LEVELS - 1, (rssi - 180) * LINK_LEVELS / 75);
+    }
+
+    private static String[] classes(String prefix, int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    private static final class NodeChange {
+
+        int level = -1;
+        boolean created;
+        boolean removed;
+    }
+
+    private static final class EdgeChange {
+
+        final String from;
+        final String to;
+        int level;
+        boolean removed;
+
+        EdgeChange(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.adapter.AdapterSimulator;
+import com.github.sdnwiselab.sdnwise.adapter.AdapterUdp;
+import com.github.sdnwiselab.sdnwise.simulator.Topology;
+import com.github.sdnwiselab.sdnwise.topology.NetworkGraph;
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.BooleanSupplier;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs a cluster of two controllers in two JVMs on localhost. The other JVM
+ * runs {@link Member}, attached to a simulated network; this one is attached
+ * to no network and receives the topology through the cluster.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public class ControllerClusterTest {
+
+    private static final String SECRET = "test-secret";
+    private static final int NODES = 20;
+
+    private Process other;
+
+    @After
+    public void stopOther() {
+        if (other != null) {
+            other.destroy();
+        }
+    }
+
+    @Test
+    public void replicatesTheTopologyAndTakesOverANetwork() throws Exception {
+        int port = freePort();
+        int otherPort = freePort();
+        other = startMember(1, otherPort, "2@127.0.0.1:" + port, SECRET);
+        NetworkGraph graph = new NetworkGraph(30, 20);
+        Controller ctrl = startController(2, port,
+                "1@127.0.0.1:" + otherPort, SECRET, graph);
+
+        assertTrue("topology not replicated",
+                waitFor(() -> graph.getNodeCount() >= NODES, 20000));
+        assertTrue("member 1 not seen", waitFor(() -> ctrl.getClusterMembers()
+                .equals(new TreeSet<>(Arrays.asList(1, 2))), 5000));
+        // the first heartbeats may come before the first packet of the network
+        assertTrue("network not left to member 1",
+                waitFor(() -> !ctrl.isOwner(Topology.NET_ID), 5000));
+
+        other.destroy();
+        other.waitFor();
+        assertTrue("network not taken over", waitFor(
+                () -> ctrl.isOwner(Topology.NET_ID), 10000));
+        assertEquals(new TreeSet<>(Arrays.asList(2)), ctrl.getClusterMembers());
+    }
+
+    @Test
+    public void ignoresAMemberWithAnotherSecret() throws Exception {
+        int port = freePort();
+        int otherPort = freePort();
+        other = startMember(1, otherPort, "2@127.0.0.1:" + port, "wrong");
+        NetworkGraph graph = new NetworkGraph(30, 20);
+        Controller ctrl = startController(2, port,
+                "1@127.0.0.1:" + otherPort, SECRET, graph);
+
+        assertFalse(waitFor(() -> graph.getNodeCount() > 0, 5000));
+        assertEquals(new TreeSet<>(Arrays.asList(2)), ctrl.getClusterMembers());
+    }
+
+    private static Controller startController(int id, int port, String peers,
+            String secret, NetworkGraph graph) throws IOException {
+        Map<String, String> udp = new HashMap<>();
+        udp.put("OUT_IP", "127.0.0.1");
+        udp.put("OUT_PORT", String.valueOf(freePort()));
+        udp.put("IN_PORT", String.valueOf(freePort()));
+        udp.put("MAX_PAYLOAD", "256");
+        Controller ctrl = new ControllerDijkstra(new AdapterUdp(udp), graph,
+                cluster(id, port, peers, secret));
+        Thread th = new Thread(ctrl, "Controller" + id);
+        th.setDaemon(true);
+        th.start();
+        return ctrl;
+    }
+
+    private static Map<String, String> cluster(int id, int port, String peers,
+            String secret) {
+        Map<String, String> conf = new HashMap<>();
+        conf.put("CLUSTER_ID", String.valueOf(id));
+        conf.put("CLUSTER_PORT", String.valueOf(port));
+        conf.put("CLUSTER_PEERS", peers);
+        conf.put("CLUSTER_SECRET", secret);
+        conf.put("CLUSTER_HEARTBEAT", "200");
+        conf.put("CLUSTER_TIMEOUT", "1000");
+        return conf;
+    }
+
+    private static Process startMember(int id, int port, String peers,
+            String secret) throws IOException {
+        File log = File.createTempFile("cluster-member", ".log");
+        log.deleteOnExit();
+        return new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                Member.class.getName(), String.valueOf(id),
+                String.valueOf(port), peers, secret)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket s = new DatagramSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition, long millis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(100);
+        }
+        return true;
+    }
+
+    /**
+     * A member of the cluster attached to a simulated network, run in its own
+     * JVM. The arguments are the id of the member, its port, its peers and
+     * the secret of the cluster.
+     */
+    public static final class Member {
+
+        public static void main(String[] args) throws Exception {
+            Map<String, String> sim = new HashMap<>();
+            sim.put("NODES", String.valueOf(NODES));
+            sim.put("REPORT_INTERVAL", "500");
+            sim.put("REQUEST_RATE", "0");
+            Controller ctrl = new ControllerDijkstra(new AdapterSimulator(sim),
+                    new NetworkGraph(30, 20), cluster(Integer.parseInt(args[0]),
+                            Integer.parseInt(args[1]), args[2], args[3]));
+            ctrl.run();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 SDN-WISE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.sdnwiselab.sdnwise.controller;
+
+import com.github.sdnwiselab.sdnwise.packet.ConfigPacket;
+import com.github.sdnwiselab.sdnwise.util.NodeAddress;
+import java.util.concurrent.CompletableFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the packed keys, the probing and the expiry of ReplyTable.
+ *
+ * @author Sebastiano Milardo
+ * @version 0.1
+ */
+public class ReplyTableTest {
+
+    private static final long LONG_EXPIRY = 60000;
+
+    private static long key(int node) {
+        return ReplyTable.key(1, new NodeAddress(node), 2, 0, 0);
+    }
+
+    private static ConfigPacket reply(int node) {
+        return new ConfigPacket(1, new NodeAddress(node), new NodeAddress(1));
+    }
+
+    @Test
+    public void keysOfDifferentNodesAndRulesDiffer() {
+        NodeAddress node = new NodeAddress(5);
+        assertTrue(ReplyTable.key(1, node, 2, 0, 0)
+                != ReplyTable.key(2, node, 2, 0, 0));
+        assertTrue(ReplyTable.key(1, node, 2, 0, 0)
+                != ReplyTable.key(1, new NodeAddress(6), 2, 0, 0));
+        // the position matters only for the rules
+        assertEquals(ReplyTable.key(1, node, 2, 0, 0),
+                ReplyTable.key(1, node, 2, 3, 4));
+    }
+
+    @Test
+    public void takeReturnsAnAnswerOnce() {
+        ReplyTable table = new ReplyTable(LONG_EXPIRY);
+        ConfigPacket reply = reply(2);
+        table.put(key(2), reply);
+        assertSame(reply, table.take(key(2)));
+        assertNull(table.take(key(2)));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void collidingEntriesSurviveRemovals() {
+        ReplyTable table = new ReplyTable(LONG_EXPIRY);
+        // 31 entries in 64 slots, so many of them share a run
+        ConfigPacket[] replies = new ConfigPacket[31];
+        for (int i = 0; i < replies.length; i++) {
+            replies[i] = reply(i + 2);
+            table.put(key(i + 2), replies[i]);
+        }
+        // removing from the middle of the runs shifts the others back
+        for (int i = replies.length - 1; i >= 0; i -= 2) {
+            assertSame(replies[i], table.take(key(i + 2)));
+        }
+        for (int i = replies.length - 2; i >= 0; i -= 2) {
+            assertSame(replies[i], table.take(key(i + 2)));
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void expiredAnswersAreNotReturned() {
+        ReplyTable table = new ReplyTable(0);
+        table.put(key(2), reply(2));
+        assertNull(table.take(key(2)));
+    }
+
+    @Test
+    public void waiterIsCompletedByTheAnswer() {
+        ReplyTable table = new ReplyTable(LONG_EXPIRY);
+        CompletableFuture<ConfigPacket> waiter = table.expect(key(2));
+        assertSame(waiter, table.expect(key(2)));
+        ConfigPacket reply = reply(2);
+        table.put(key(2), reply);
+        assertSame(reply, waiter.getNow(null));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void rebuildKeepsOldWaiters() throws InterruptedException {
+        ReplyTable table = new ReplyTable(1);
+        CompletableFuture<ConfigPacket> waiter = table.expect(key(2));
+        Thread.sleep(10);
+        // enough answers to rebuild the table more than once
+        for (int i = 3; i < 300; i++) {
+            table.put(key(i), reply(i));
+        }
+        ConfigPacket reply = reply(2);
+        table.put(key(2), reply);
+        assertSame(reply, waiter.getNow(null));
+    }
+
+    @Test
+    public void lateAnswerAfterCancelIsKept() {
+        ReplyTable table = new ReplyTable(LONG_EXPIRY);
+        CompletableFuture<ConfigPacket> waiter = table.expect(key(2));
+        table.cancel(key(2), waiter);
+        ConfigPacket reply = reply(2);
+        table.put(key(2), reply);
+        assertFalse(waiter.isDone());
+        assertSame(reply, table.take(key(2)));
+    }
+
+    @Test
+    public void expectDiscardsAnOldAnswer() {
+        ReplyTable table = new ReplyTable(LONG_EXPIRY);
+        table.put(key(2), reply(2));
+        CompletableFuture<ConfigPacket> waiter = table.expect(key(2));
+        assertFalse(waiter.isDone());
+        assertNull(table.take(key(2)));
+    }
+}